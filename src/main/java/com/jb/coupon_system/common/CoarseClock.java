@@ -0,0 +1,37 @@
+package com.jb.coupon_system.common;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A clock that is read far more often than it needs to be precise, such as for stamping every access of a session.
+ * The time is refreshed by a single daemon thread every few milliseconds,
+ * so reading it is a single volatile read instead of a call to System.currentTimeMillis().
+ */
+public final class CoarseClock {
+    private static final long RESOLUTION_MILLIS = 10;
+
+    private static volatile long nowMillis = System.currentTimeMillis();
+
+    static {
+        ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "coarse-clock");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleAtFixedRate(() -> nowMillis = System.currentTimeMillis(),
+                RESOLUTION_MILLIS, RESOLUTION_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private CoarseClock() {
+        /*Empty*/
+    }
+
+    /**
+     * @return the current time in millis, at most a few milliseconds old.
+     */
+    public static long millis() {
+        return nowMillis;
+    }
+}
@@ -4,5 +4,21 @@ package com.jb.coupon_system.common;
  * LoginType enum used to log into the services as one of three different users: 'ADMIN', 'COMPANY' or 'CUSTOMER';
  */
 public enum LoginType {
-    ADMIN, COMPANY, CUSTOMER
-}
\ No newline at end of file
+    ADMIN, COMPANY, CUSTOMER;
+
+    /**
+     * A method that finds the LoginType a token was handed out to, by the name the token starts with.
+     *
+     * @param token
+     * @return the LoginType, or null if the token does not start with the name of one and an underscore
+     */
+    public static LoginType ofToken(String token) {
+        for (LoginType loginType : values()) {
+            int length = loginType.name().length();
+            if (token.length() > length && token.charAt(length) == '_' && token.startsWith(loginType.name())) {
+                return loginType;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,80 @@
+package com.jb.coupon_system.common;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * A hashed timing wheel used in order to expire keys without scanning all of them.
+ * Every key is put in the bucket of the tick its deadline falls on, and advancing the wheel
+ * only visits the buckets of the ticks that passed since the last advance.
+ * A bucket is shared by all deadlines that are a whole number of rotations apart, so the owner of the wheel
+ * checks the actual deadline of every key it is handed and schedules it again if it is not yet due-
+ * which also lets deadlines be extended lazily, by checking them only when their old bucket comes around.
+ * For the same reason keys are never cancelled- the owner simply ignores keys it no longer knows.
+ *
+ * @param <K> type of the scheduled keys
+ */
+public class TimingWheel<K> {
+
+    private final long tickMillis;
+    private final int mask;
+    private final List<Set<K>> buckets;
+    private volatile long lastTick;
+
+    /**
+     * @param tick        time each bucket covers
+     * @param wheelSize   number of buckets, rounded up to a power of two
+     * @param startMillis time the wheel starts at
+     */
+    public TimingWheel(Duration tick, int wheelSize, long startMillis) {
+        this.tickMillis = tick.toMillis();
+        int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        this.mask = size - 1;
+        this.buckets = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            buckets.add(ConcurrentHashMap.newKeySet());
+        }
+        this.lastTick = startMillis / tickMillis;
+    }
+
+    /**
+     * A method that schedules a key to be handed back once its deadline has passed.
+     *
+     * @param key
+     * @param deadlineMillis
+     */
+    public void schedule(K key, long deadlineMillis) {
+        /*A deadline in a tick that was already visited goes to the next tick, not a whole rotation later*/
+        long tick = Math.max(deadlineMillis / tickMillis, lastTick + 1);
+        buckets.get((int) (tick & mask)).add(key);
+    }
+
+    /**
+     * A method that hands every key in the buckets of the ticks that passed since the last advance to onDue.
+     * At most a whole rotation is visited, however long ago the last advance was.
+     *
+     * @param nowMillis current time
+     * @param onDue     called with every key whose bucket is due, after the key was removed from the wheel
+     */
+    public synchronized void advance(long nowMillis, Consumer<K> onDue) {
+        long nowTick = nowMillis / tickMillis;
+        long firstTick = Math.max(lastTick + 1, nowTick - mask);
+        List<K> due = new ArrayList<>();
+        for (long tick = firstTick; tick <= nowTick; tick++) {
+            Iterator<K> iterator = buckets.get((int) (tick & mask)).iterator();
+            while (iterator.hasNext()) {
+                due.add(iterator.next());
+                iterator.remove();
+            }
+        }
+        lastTick = Math.max(lastTick, nowTick);
+
+        /*Keys are handed over only after the buckets were emptied, so onDue may schedule them again*/
+        due.forEach(onDue);
+    }
+}
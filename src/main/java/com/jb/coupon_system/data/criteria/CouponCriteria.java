@@ -0,0 +1,124 @@
+package com.jb.coupon_system.data.criteria;
+
+import com.jb.coupon_system.data.entity.Coupon;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Set;
+
+/**
+ * The criteria of a coupon search, as run by the CouponSearchRepository.
+ * Every criterion is optional (null when not given), and a coupon must match all of those given- any of the categories,
+ * a price within the range, an end date within the window, and (for customers only) being owned or not.
+ */
+public class CouponCriteria {
+    private final Set<Integer> categories;
+    private final Double minPrice;
+    private final Double maxPrice;
+    private final LocalDateTime endsFrom;
+    private final LocalDateTime endsBefore;
+    private final Boolean owned;
+    private final Order order;
+
+    public CouponCriteria(Set<Integer> categories, Double minPrice, Double maxPrice, LocalDateTime endsFrom,
+                          LocalDateTime endsBefore, Boolean owned, Order order) {
+        this.categories = categories;
+        this.minPrice = minPrice;
+        this.maxPrice = maxPrice;
+        this.endsFrom = endsFrom;
+        this.endsBefore = endsBefore;
+        this.owned = owned;
+        this.order = order == null ? Order.ID : order;
+    }
+
+    public Set<Integer> getCategories() {
+        return categories;
+    }
+
+    public Double getMinPrice() {
+        return minPrice;
+    }
+
+    public Double getMaxPrice() {
+        return maxPrice;
+    }
+
+    public LocalDateTime getEndsFrom() {
+        return endsFrom;
+    }
+
+    public LocalDateTime getEndsBefore() {
+        return endsBefore;
+    }
+
+    public Boolean getOwned() {
+        return owned;
+    }
+
+    public Order getOrder() {
+        return order;
+    }
+
+    /**
+     * The orders a search can be returned in, every one of them then ordered by id.
+     * Searches in END_DATE order leave out the coupons that have no end date.
+     * Each order keys a coupon by a single long, so the pages of a search can be sought by their last sort key and id.
+     */
+    public enum Order {
+        ID("id", true),
+        PRICE_ASC("price", true),
+        PRICE_DESC("price", false),
+        END_DATE("endDate", true);
+
+        private final String attribute;
+        private final boolean ascending;
+
+        Order(String attribute, boolean ascending) {
+            this.attribute = attribute;
+            this.ascending = ascending;
+        }
+
+        public String getAttribute() {
+            return attribute;
+        }
+
+        public boolean isAscending() {
+            return ascending;
+        }
+
+        /**
+         * @param coupon
+         * @return the sort key of the coupon in this order.
+         */
+        public long keyOf(Coupon coupon) {
+            switch (this) {
+                case PRICE_ASC:
+                case PRICE_DESC:
+                    return Double.doubleToLongBits(coupon.getPrice());
+                case END_DATE:
+                    /*Microseconds, the finest fraction of a second stored. Never null, as END_DATE searches leave out coupons without an end date*/
+                    LocalDateTime endDate = coupon.getEndDate();
+                    return endDate.toEpochSecond(ZoneOffset.UTC) * 1_000_000 + endDate.getNano() / 1_000;
+                default:
+                    return coupon.getId();
+            }
+        }
+
+        /**
+         * @param key of a coupon in this order
+         * @return the value of the sorted attribute the key was taken from.
+         */
+        public Comparable<?> valueOf(long key) {
+            switch (this) {
+                case PRICE_ASC:
+                case PRICE_DESC:
+                    return Double.longBitsToDouble(key);
+                case END_DATE:
+                    return LocalDateTime.ofEpochSecond(Math.floorDiv(key, 1_000_000),
+                            Math.floorMod(key, 1_000_000) * 1_000, ZoneOffset.UTC);
+                default:
+                    return key;
+            }
+        }
+    }
+}
@@ -4,9 +4,15 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 
 import javax.persistence.*;
 import java.time.LocalDateTime;
-import java.util.List;
+import java.util.Set;
 
 @Entity
+@Table(indexes = {
+        @Index(name = "idx_coupon_category_price", columnList = "category, price"),
+        @Index(name = "idx_coupon_price", columnList = "price"),
+        @Index(name = "idx_coupon_end_date", columnList = "endDate"),
+        @Index(name = "idx_coupon_company_category_price", columnList = "company_id, category, price")
+})
 public class Coupon {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -21,6 +27,9 @@ public class Coupon {
     private LocalDateTime endDate;
     private int category;
     private int amount;
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    @Column(updatable = false)
+    private int soldCount;//Only ever changed by the purchase and return statements, never by saving a coupon.
     private String description;
     private double price;
     private String imageURL;
@@ -30,7 +39,7 @@ public class Coupon {
             uniqueConstraints = @UniqueConstraint(columnNames = {"customer_id", "coupon_id"}),
             joinColumns = @JoinColumn(name = "coupon_id"),
             inverseJoinColumns = @JoinColumn(name = "customer_id"))
-    private List<Customer> customers;
+    private Set<Customer> customers;
 
     public Coupon() {
         /*Empty*/
@@ -92,6 +101,14 @@ public class Coupon {
         this.amount = amount;
     }
 
+    public int getSoldCount() {
+        return soldCount;
+    }
+
+    public void setSoldCount(int soldCount) {
+        this.soldCount = soldCount;
+    }
+
     public String getDescription() {
         return description;
     }
@@ -116,11 +133,11 @@ public class Coupon {
         this.imageURL = imageURL;
     }
 
-    public List<Customer> getCustomers() {
+    public Set<Customer> getCustomers() {
         return customers;
     }
 
-    public void setCustomers(List<Customer> customers) {
+    public void setCustomers(Set<Customer> customers) {
         this.customers = customers;
     }
 }
@@ -3,8 +3,8 @@ package com.jb.coupon_system.data.entity;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 import javax.persistence.*;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.HashSet;
+import java.util.Set;
 
 @Entity
 public class Customer {
@@ -15,6 +15,7 @@ public class Customer {
     private String lastName;
     @Column(unique = true)
     private String email;
+    @JsonProperty(access = JsonProperty.Access.WRITE_ONLY)
     private String password;
     @ManyToMany
     @JsonProperty(access = JsonProperty.Access.WRITE_ONLY)
@@ -23,10 +24,10 @@ public class Customer {
             uniqueConstraints = @UniqueConstraint(columnNames = {"customer_id", "coupon_id"}),
             joinColumns = @JoinColumn(name = "customer_id"),
             inverseJoinColumns = @JoinColumn(name = "coupon_id"))
-    private List<Coupon> coupons;
+    private Set<Coupon> coupons;
 
     public Customer() {
-        coupons = new ArrayList<>();
+        coupons = new HashSet<>();
     }
 
     public long getId() {
@@ -69,11 +70,11 @@ public class Customer {
         this.password = password;
     }
 
-    public List<Coupon> getCoupons() {
+    public Set<Coupon> getCoupons() {
         return coupons;
     }
 
-    public void setCoupons(List<Coupon> coupons) {
+    public void setCoupons(Set<Coupon> coupons) {
         this.coupons = coupons;
     }
 }
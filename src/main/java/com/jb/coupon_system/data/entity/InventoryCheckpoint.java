@@ -0,0 +1,41 @@
+package com.jb.coupon_system.data.entity;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+
+/**
+ * The last point at which the InventoryLedger wrote a coupon's stock back to the coupon table.
+ * settledSales is the number of customer_coupon rows of the coupon that are already reflected in its amount column,
+ * so after a crash any rows beyond it are sales that were never flushed.
+ */
+@Entity
+public class InventoryCheckpoint {
+    @Id
+    private long couponId;
+    private int settledSales;
+
+    public InventoryCheckpoint() {
+        /*Empty*/
+    }
+
+    public InventoryCheckpoint(long couponId, int settledSales) {
+        this.couponId = couponId;
+        this.settledSales = settledSales;
+    }
+
+    public long getCouponId() {
+        return couponId;
+    }
+
+    public void setCouponId(long couponId) {
+        this.couponId = couponId;
+    }
+
+    public int getSettledSales() {
+        return settledSales;
+    }
+
+    public void setSettledSales(int settledSales) {
+        this.settledSales = settledSales;
+    }
+}
@@ -0,0 +1,31 @@
+package com.jb.coupon_system.data.projection;
+
+import java.time.LocalDateTime;
+
+/**
+ * A read model of a coupon, holding only the columns shown to clients, as returned by the catalog and purchased coupons queries.
+ * Instances are backed by the selected row itself rather than by a managed Coupon entity,
+ * so they are never tracked by the persistence context, dirty checked or given lazy proxies of the company and customers.
+ * Serialized the same as a Coupon entity is.
+ */
+public interface CouponView {
+    long getId();
+
+    String getTitle();
+
+    LocalDateTime getStartDate();
+
+    LocalDateTime getEndDate();
+
+    int getCategory();
+
+    int getAmount();
+
+    int getSoldCount();
+
+    String getDescription();
+
+    double getPrice();
+
+    String getImageURL();
+}
@@ -2,19 +2,59 @@ package com.jb.coupon_system.data.repo;
 
 import com.jb.coupon_system.data.entity.Company;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
-import java.util.Optional;
+import javax.persistence.QueryHint;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
 
 @Repository
 public interface CompanyRepository extends JpaRepository<Company, Long> {
 
     /**
-     * A JPA query method used in order to find a specific company by its email and password
+     * A JPA query method used in order to find the companies using an email, using the index on the email column.
+     * The passwords of the companies found are then verified by the PasswordHasher.
+     *
+     * @param email of companies to find
+     * @return List<Company>
+     */
+    List<Company> findAllByEmail(String email);
+
+    /**
+     * A native SQL query method used in order to find a page of companies ordered by id, continuing after the last company of the previous page.
+     *
+     * @param afterId id of the last company of the previous page, or 0 for the first page
+     * @param limit   maximal number of companies to return
+     * @return List<Company>
+     */
+    @Query(value = "select * from company as c where c.id >:afterId order by c.id limit :limit", nativeQuery = true)
+    List<Company> findAllAfter(long afterId, int limit);
+
+    /**
+     * An HQL query method that streams every company ordered by id, for exports too large to hold in memory.
+     * A fetch size of Integer.MIN_VALUE makes the MySQL driver stream the rows one at a time instead of reading them all.
+     * The stream must be consumed and closed within a transaction.
+     *
+     * @return Stream<Company>
+     */
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "" + Integer.MIN_VALUE))
+    @Query("select c from Company as c order by c.id")
+    Stream<Company> streamAll();
+
+    /**
+     * An HQL query method that replaces a company's stored password hash, as done when it is rehashed.
      *
-     * @param email    of company to find
-     * @param password of same company
-     * @return Optional<Company>
+     * @param companyId of the specified company
+     * @param password  hash to store
      */
-    Optional<Company> findCompanyByEmailAndPassword(String email, String password);
+    @Modifying
+    @Transactional
+    @Query("update Company c set c.password =:password where c.id =:companyId")
+    void updatePassword(long companyId, String password);
 }
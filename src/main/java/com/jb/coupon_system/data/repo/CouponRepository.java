@@ -1,18 +1,48 @@
 package com.jb.coupon_system.data.repo;
 
 import com.jb.coupon_system.data.entity.Coupon;
+import com.jb.coupon_system.data.projection.CouponView;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
 
+import javax.persistence.QueryHint;
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
 
 @Repository
 public interface CouponRepository extends JpaRepository<Coupon, Long> {
 
+    /**
+     * A native SQL query method that finds the displayed columns of every coupon that has not expired yet, ordered by id,
+     * as loaded by the in-memory catalog.
+     *
+     * @param now the current time, coupons ending by which have expired
+     * @return List<CouponView>
+     */
+    @Query(value = "select " + CustomerRepository.COUPON_VIEW_COLUMNS + " from coupon as c where c.end_date >:now order by c.id", nativeQuery = true)
+    List<CouponView> findAllActiveCouponViews(LocalDateTime now);
+
+    /**
+     * An HQL query method that streams every coupon ordered by id, for exports too large to hold in memory.
+     * A fetch size of Integer.MIN_VALUE makes the MySQL driver stream the rows one at a time instead of reading them all,
+     * and the coupons' companies are fetched in the same statement, as no other statement can run on the connection meanwhile.
+     * The stream must be consumed and closed within a transaction.
+     *
+     * @return Stream<Coupon>
+     */
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "" + Integer.MIN_VALUE))
+    @Query("select c from Coupon as c left join fetch c.company order by c.id")
+    Stream<Coupon> streamAll();
+
     /**
      * A JPA query method used in order to find all company coupons using a company's id.
      *
@@ -22,39 +52,95 @@ public interface CouponRepository extends JpaRepository<Coupon, Long> {
     List<Coupon> findAllByCompanyId(long id);
 
     /**
-     * A JPA query method used in order to find all categorically specified company coupons using a company's id and category.
+     * An HQL query method used in order to find the ids of all company coupons, without loading the coupons.
+     *
+     * @param companyId of company to find.
+     * @return List<Long>
+     */
+    @Query("select c.id from Coupon as c where c.company.id =:companyId")
+    List<Long> findAllIdsByCompanyId(long companyId);
+
+    /**
+     * A native SQL query method used in order to find a page of company coupons already ranked by sales,
+     * from the most sold coupon to the least, in a single statement.
+     *
+     * @param companyId of company to find.
+     * @param limit     maximal number of coupons to return.
+     * @param offset    number of ranked coupons to skip.
+     * @return List<Coupon>
+     */
+    @Query(value = "select * from coupon as c where c.company_id =:companyId order by c.sold_count desc, c.id limit :limit offset :offset", nativeQuery = true)
+    List<Coupon> findAllByCompanyIdOrderByMostSold(long companyId, int limit, int offset);
+
+    /**
+     * A native SQL query method used in order to find a page of company coupons ranked by sales, continuing after a given coupon.
+     * The page is found by seeking past the position of the last coupon of the previous page, rather than by skipping rows,
+     * so every page costs the same however deep it is.
+     *
+     * @param companyId      of company to find.
+     * @param afterSoldCount sold count of the last coupon of the previous page, or Integer.MAX_VALUE for the first page.
+     * @param afterId        id of the last coupon of the previous page, or 0 for the first page.
+     * @param limit          maximal number of coupons to return.
+     * @return List<Coupon>
+     */
+    @Query(value = "select * from coupon as c where c.company_id =:companyId " +
+            "and (c.sold_count <:afterSoldCount or (c.sold_count =:afterSoldCount and c.id >:afterId)) " +
+            "order by c.sold_count desc, c.id limit :limit", nativeQuery = true)
+    List<Coupon> findAllByCompanyIdOrderByMostSoldAfter(long companyId, int afterSoldCount, long afterId, int limit);
+
+    /**
+     * A native SQL query method used in order to find a page of categorically specified company coupons using a company's id and category,
+     * ordered by id and continuing after the last coupon of the previous page.
      *
      * @param id       of company to find.
      * @param category specified category (any coupon belonging to the company, with this category will be in the list).
+     * @param afterId  id of the last coupon of the previous page, or 0 for the first page.
+     * @param limit    maximal number of coupons to return.
      * @return List<Coupon>
      */
-    List<Coupon> findAllByCompanyIdAndCategory(long id, int category);
+    @Query(value = "select * from coupon as c where c.company_id =:id and c.category =:category and c.id >:afterId " +
+            "order by c.id limit :limit", nativeQuery = true)
+    List<Coupon> findAllByCompanyIdAndCategory(long id, int category, long afterId, int limit);
 
     /**
-     * A JPA query method used in order to find all price specified company coupons using a company's id and price.
+     * A native SQL query method used in order to find a page of price specified company coupons using a company's id and price,
+     * ordered by id and continuing after the last coupon of the previous page.
      *
-     * @param id    of company to find.
-     * @param price specified price (any coupon belonging to the company, lower than this price will be in the list).
+     * @param price   specified price (any coupon belonging to the company, lower than this price will be in the list).
+     * @param id      of company to find.
+     * @param afterId id of the last coupon of the previous page, or 0 for the first page.
+     * @param limit   maximal number of coupons to return.
      * @return List<Coupon>
      */
-    List<Coupon> findAllByPriceLessThanAndCompanyId(double price, long id);
+    @Query(value = "select * from coupon as c where c.company_id =:id and c.price <:price and c.id >:afterId " +
+            "order by c.id limit :limit", nativeQuery = true)
+    List<Coupon> findAllByPriceLessThanAndCompanyId(double price, long id, long afterId, int limit);
 
     /**
-     * A JPA query method used in order to find all date specified coupons using a date.
+     * A native SQL query method used in order to find a page of date specified coupons using a date,
+     * ordered by id and continuing after the last coupon of the previous page.
      *
-     * @param date specified date (any coupon, before this date will be in the list).
+     * @param date    specified date (any coupon, before this date will be in the list).
+     * @param afterId id of the last coupon of the previous page, or 0 for the first page.
+     * @param limit   maximal number of coupons to return.
      * @return List<Coupon>
      */
-    List<Coupon> findAllByEndDateBefore(LocalDateTime date);
+    @Query(value = "select * from coupon as c where c.end_date <:date and c.id >:afterId order by c.id limit :limit", nativeQuery = true)
+    List<Coupon> findAllByEndDateBefore(LocalDateTime date, long afterId, int limit);
 
     /**
-     * A JPA query method used in order to find all date specified company coupons using a company's id and date.
+     * A native SQL query method used in order to find a page of date specified company coupons using a company's id and date,
+     * ordered by id and continuing after the last coupon of the previous page.
      *
-     * @param id   of company to find.
-     * @param date specified date (any coupon belonging to the company, before this date will be in the list).
+     * @param date    specified date (any coupon belonging to the company, before this date will be in the list).
+     * @param id      of company to find.
+     * @param afterId id of the last coupon of the previous page, or 0 for the first page.
+     * @param limit   maximal number of coupons to return.
      * @return List<Coupon>
      */
-    List<Coupon> findAllByEndDateBeforeAndCompanyId(LocalDateTime date, long id);
+    @Query(value = "select * from coupon as c where c.company_id =:id and c.end_date <:date and c.id >:afterId " +
+            "order by c.id limit :limit", nativeQuery = true)
+    List<Coupon> findAllByEndDateBeforeAndCompanyId(LocalDateTime date, long id, long afterId, int limit);
 
     /**
      * An HQL query method called upon by a scheduled cleanup method in order to erase expired coupons.
@@ -70,4 +156,100 @@ public interface CouponRepository extends JpaRepository<Coupon, Long> {
     @Query("select count(c) from Customer as c where c in" +
             "(select c from Customer as c inner join c.coupons as coup where coup.id =:couponId)")
     int findCouponAmountSold(long couponId);
+
+    /**
+     * An HQL query method that finds which of the given coupon ids exist, using a single IN query.
+     *
+     * @param couponIds to look for.
+     * @return List<Long> of the existing ids.
+     */
+    @Query("select c.id from Coupon as c where c.id in :couponIds")
+    List<Long> findExistingIds(Collection<Long> couponIds);
+
+    /**
+     * An HQL query method that takes a single coupon out of stock in one conditional statement, counting it as sold.
+     * The coupon's row is locked only for the duration of this update, so concurrent purchases can never oversell.
+     *
+     * @param couponId of the coupon being purchased.
+     * @return the number of updated rows- 1 if a coupon was taken, 0 if the coupon is sold out or does not exist.
+     */
+    @Modifying
+    @Transactional
+    @Query("update Coupon c set c.amount = c.amount - 1, c.soldCount = c.soldCount + 1 where c.id =:couponId and c.amount > 0")
+    int decrementAmount(long couponId);
+
+    /**
+     * An HQL query method that takes a single coupon out of stock, leaving the coupons held in memory untouched.
+     *
+     * @param couponId of the coupon being purchased.
+     * @param held     number of the coupon's coupons that are held.
+     * @return the number of updated rows- 1 if a coupon was taken, 0 if every coupon left is held, or the coupon does not exist.
+     */
+    @Modifying
+    @Transactional
+    @Query("update Coupon c set c.amount = c.amount - 1, c.soldCount = c.soldCount + 1 where c.id =:couponId and c.amount > :held")
+    int decrementAmountAboveHeld(long couponId, int held);
+
+    /**
+     * A native SQL query method that reads a coupon's amount without locking its row.
+     *
+     * @param couponId of the specified coupon.
+     * @return Optional<Integer> of the amount, empty if the coupon does not exist.
+     */
+    @Query(value = "select c.amount from coupon as c where c.id =:couponId", nativeQuery = true)
+    Optional<Integer> findAmount(long couponId);
+
+    /**
+     * An HQL query method that puts a single coupon back in stock, no longer counting it as sold.
+     *
+     * @param couponId of the coupon being returned.
+     * @return the number of updated rows- 1 if the coupon exists, 0 otherwise.
+     */
+    @Modifying(clearAutomatically = true)
+    @Transactional
+    @Query("update Coupon c set c.amount = c.amount + 1, c.soldCount = c.soldCount - 1 where c.id =:couponId")
+    int incrementAmount(long couponId);
+
+    /**
+     * A native SQL query method that reads a coupon's amount and locks its row until the current transaction ends.
+     *
+     * @param couponId of the specified coupon.
+     * @return Optional<Integer> of the amount, empty if the coupon does not exist.
+     */
+    @Query(value = "select c.amount from coupon as c where c.id =:couponId for update", nativeQuery = true)
+    Optional<Integer> findAmountForUpdate(long couponId);
+
+    /**
+     * An HQL query method that takes several coupons of a single coupon out of stock, counting them as sold.
+     *
+     * @param couponId of the coupon being purchased.
+     * @param units    number of coupons to take.
+     * @return the number of updated rows- 1 if there were enough coupons left, 0 otherwise.
+     */
+    @Modifying
+    @Transactional
+    @Query("update Coupon c set c.amount = c.amount - :units, c.soldCount = c.soldCount + :units where c.id =:couponId and c.amount >= :units")
+    int decrementAmountBy(long couponId, int units);
+
+    /**
+     * A native SQL query method called before deleting a customer, whose purchases disappear along with the customer.
+     * The sold count of every coupon the customer owns is lowered accordingly.
+     *
+     * @param customerId of the customer being deleted.
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "update coupon set sold_count = sold_count - 1 " +
+            "where id in (select cc.coupon_id from customer_coupon as cc where cc.customer_id =:customerId)", nativeQuery = true)
+    void releaseCustomerSales(long customerId);
+
+    /**
+     * A native SQL query method that sets the sold count of every coupon from the customer coupon joined table.
+     *
+     * @return the number of updated coupons.
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "update coupon as c set c.sold_count = (select count(*) from customer_coupon as cc where cc.coupon_id = c.id)", nativeQuery = true)
+    int backfillSoldCounts();
 }
\ No newline at end of file
@@ -0,0 +1,120 @@
+package com.jb.coupon_system.data.repo;
+
+import com.jb.coupon_system.data.criteria.CouponCriteria;
+import com.jb.coupon_system.data.entity.Coupon;
+import com.jb.coupon_system.data.entity.Customer;
+import org.springframework.stereotype.Repository;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Join;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import javax.persistence.criteria.Subquery;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hibernate.jpa.QueryHints.HINT_READONLY;
+
+/**
+ * A repository for coupon searches, each built into a single Criteria query out of the criteria it was given.
+ * Searches are paged by seeking past the sort key and id of the last coupon of the previous page,
+ * and the coupons found are read only, never dirty checked.
+ * The composite indexes of Coupon cover the category and price criteria, both with and without a company.
+ */
+@Repository
+public class CouponSearchRepository {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    /**
+     * A method that finds a page of the coupons matching a search.
+     *
+     * @param criteria   to match
+     * @param companyId  of the company the coupons must belong to, or null for all companies
+     * @param customerId of the customer whose ownership the owned criterion refers to, or null to ignore it
+     * @param afterKey   sort key of the last coupon of the previous page, or null for the first page
+     * @param afterId    id of the last coupon of the previous page
+     * @param limit      maximal number of coupons to return
+     * @return List<Coupon>
+     */
+    public List<Coupon> search(CouponCriteria criteria, Long companyId, Long customerId, Long afterKey, long afterId, int limit) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Coupon> query = cb.createQuery(Coupon.class);
+        Root<Coupon> coupon = query.from(Coupon.class);
+        List<Predicate> predicates = new ArrayList<>();
+
+        if (companyId != null) {
+            predicates.add(cb.equal(coupon.get("company").get("id"), companyId));
+        }
+        if (criteria.getCategories() != null && !criteria.getCategories().isEmpty()) {
+            predicates.add(coupon.get("category").in(criteria.getCategories()));
+        }
+        if (criteria.getMinPrice() != null) {
+            predicates.add(cb.greaterThanOrEqualTo(coupon.get("price"), criteria.getMinPrice()));
+        }
+        if (criteria.getMaxPrice() != null) {
+            predicates.add(cb.lessThanOrEqualTo(coupon.get("price"), criteria.getMaxPrice()));
+        }
+        if (criteria.getEndsFrom() != null) {
+            predicates.add(cb.greaterThanOrEqualTo(coupon.get("endDate"), criteria.getEndsFrom()));
+        }
+        if (criteria.getEndsBefore() != null) {
+            predicates.add(cb.lessThan(coupon.get("endDate"), criteria.getEndsBefore()));
+        }
+        if (customerId != null && criteria.getOwned() != null) {
+            /*Correlated through the customers association, joining the customer coupon joined table and then the customer table,
+            each probed by its key once per coupon*/
+            Subquery<Long> owner = query.subquery(Long.class);
+            Join<Coupon, Customer> customer = owner.correlate(coupon).join("customers");
+            owner.select(customer.get("id")).where(cb.equal(customer.get("id"), customerId));
+            predicates.add(criteria.getOwned() ? cb.exists(owner) : cb.not(cb.exists(owner)));
+        }
+
+        CouponCriteria.Order order = criteria.getOrder();
+        Path<Long> id = coupon.get("id");
+        if (order == CouponCriteria.Order.END_DATE) {
+            /*A coupon without an end date has no place in the order, nor a key to seek past*/
+            predicates.add(cb.isNotNull(coupon.get("endDate")));
+        }
+        if (afterKey != null) {
+            predicates.add(after(cb, order, coupon, afterKey, id, afterId));
+        }
+        if (order == CouponCriteria.Order.ID) {
+            query.orderBy(cb.asc(id));
+        } else {
+            Path<?> sorted = coupon.get(order.getAttribute());
+            query.orderBy(order.isAscending() ? cb.asc(sorted) : cb.desc(sorted), cb.asc(id));
+        }
+
+        query.select(coupon).where(predicates.toArray(new Predicate[0]));
+        return entityManager.createQuery(query)
+                .setHint(HINT_READONLY, true)
+                .setMaxResults(limit)
+                .getResultList();
+    }
+
+    private static Predicate after(CriteriaBuilder cb, CouponCriteria.Order order, Root<Coupon> coupon, long afterKey, Path<Long> id, long afterId) {
+        switch (order) {
+            case PRICE_ASC:
+            case PRICE_DESC:
+                return after(cb, coupon.get("price"), (Double) order.valueOf(afterKey), order.isAscending(), id, afterId);
+            case END_DATE:
+                return after(cb, coupon.get("endDate"), (LocalDateTime) order.valueOf(afterKey), order.isAscending(), id, afterId);
+            default:
+                return cb.greaterThan(id, afterId);
+        }
+    }
+
+    /*Past the last coupon of the previous page- further along the sorted attribute, or level with it and of a greater id*/
+    private static <Y extends Comparable<? super Y>> Predicate after(CriteriaBuilder cb, Path<Y> sorted, Y afterValue, boolean ascending,
+                                                                    Path<Long> id, long afterId) {
+        Predicate further = ascending ? cb.greaterThan(sorted, afterValue) : cb.lessThan(sorted, afterValue);
+        return cb.or(further, cb.and(cb.equal(sorted, afterValue), cb.greaterThan(id, afterId)));
+    }
+}
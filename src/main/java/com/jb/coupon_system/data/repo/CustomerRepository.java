@@ -1,63 +1,247 @@
 package com.jb.coupon_system.data.repo;
 
-import com.jb.coupon_system.data.entity.Coupon;
 import com.jb.coupon_system.data.entity.Customer;
+import com.jb.coupon_system.data.projection.CouponView;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import javax.persistence.QueryHint;
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
 
 @Repository
 public interface CustomerRepository extends JpaRepository<Customer, Long> {
+    /*The coupon columns selected into a CouponView, aliased by its property names*/
+    String COUPON_VIEW_COLUMNS = "c.id as id, c.title as title, c.start_date as startDate, c.end_date as endDate, " +
+            "c.category as category, c.amount as amount, c.sold_count as soldCount, c.description as description, " +
+            "c.price as price, c.imageurl as imageURL";
 
     /**
-     * A JPA query method used in order to find a specific customer by its email and password
+     * A JPA query method used in order to find a specific customer by its unique email.
+     * The password of the customer found is then verified by the PasswordHasher.
      *
-     * @param email    of customer to find
-     * @param password of same customer
+     * @param email of customer to find
      * @return Optional<Customer>
      */
-    Optional<Customer> findCustomerByEmailAndPassword(String email, String password);
+    Optional<Customer> findCustomerByEmail(String email);
+
+    /**
+     * An HQL query method that replaces a customer's stored password hash, as done when it is rehashed.
+     *
+     * @param customerId of the specified customer
+     * @param password   hash to store
+     */
+    @Modifying
+    @Transactional
+    @Query("update Customer c set c.password =:password where c.id =:customerId")
+    void updatePassword(long customerId, String password);
+
+    /**
+     * A native SQL query method used in order to find a page of customers ordered by id, continuing after the last customer of the previous page.
+     *
+     * @param afterId id of the last customer of the previous page, or 0 for the first page
+     * @param limit   maximal number of customers to return
+     * @return List<Customer>
+     */
+    @Query(value = "select * from customer as c where c.id >:afterId order by c.id limit :limit", nativeQuery = true)
+    List<Customer> findAllAfter(long afterId, int limit);
+
+    /**
+     * An HQL query method that streams every customer ordered by id, for exports too large to hold in memory.
+     * A fetch size of Integer.MIN_VALUE makes the MySQL driver stream the rows one at a time instead of reading them all.
+     * The stream must be consumed and closed within a transaction.
+     *
+     * @return Stream<Customer>
+     */
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "" + Integer.MIN_VALUE))
+    @Query("select c from Customer as c order by c.id")
+    Stream<Customer> streamAll();
+
+    /**
+     * A native SQL query method used in order to find a page of a customers' purchased coupons (represented in the customer coupon joined table),
+     * ordered by id and continuing after the last coupon of the previous page.
+     *
+     * @param customerId of the specified customer
+     * @param afterId    id of the last coupon of the previous page, or 0 for the first page
+     * @param limit      maximal number of coupons to return
+     * @return List<CouponView>
+     */
+    @Query(value = "select " + COUPON_VIEW_COLUMNS + " from coupon as c inner join customer_coupon as cc on cc.coupon_id = c.id " +
+            "where cc.customer_id =:customerId and c.id >:afterId order by c.id limit :limit", nativeQuery = true)
+    List<CouponView> getMyPurchasedCoupons(long customerId, long afterId, int limit);
+
+    /**
+     * A native SQL query method that counts a customers' purchased coupons without loading them.
+     *
+     * @param customerId of the specified customer
+     * @return the number of purchased coupons
+     */
+    @Query(value = "select count(*) from customer_coupon as cc where cc.customer_id =:customerId", nativeQuery = true)
+    int countPurchasedCoupons(long customerId);
+
+    /**
+     * A native SQL query method used in order to find all of a customers' categorically specified non purchased coupons (meaning coupons that do not appear in the customer coupon joined table).
+     * Written as an anti-join, probing the customer coupon unique key once per coupon instead of materializing the customers' coupons.
+     *
+     * @param customerId of the specified customer
+     * @param category   specified category
+     * @param afterId    id of the last coupon of the previous page, or 0 for the first page
+     * @param limit      maximal number of coupons to return
+     * @return List<CouponView>
+     */
+    @Query(value = "select " + COUPON_VIEW_COLUMNS + " from coupon as c where c.category =:category and c.id >:afterId " +
+            "and not exists (select 1 from customer_coupon as cc where cc.customer_id =:customerId and cc.coupon_id = c.id) " +
+            "order by c.id limit :limit", nativeQuery = true)
+    List<CouponView> getNonPurchasedCouponsByCategory(long customerId, int category, long afterId, int limit);
+
+    /**
+     * A native SQL query method used in order to find all of a customers' price specified non purchased coupons (meaning coupons that do not appear in the customer coupon joined table).
+     * Written as an anti-join, probing the customer coupon unique key once per coupon instead of materializing the customers' coupons.
+     *
+     * @param customerId of the specified customer
+     * @param price      specified price (any coupon lower than this price will be in the list)
+     * @param afterId    id of the last coupon of the previous page, or 0 for the first page
+     * @param limit      maximal number of coupons to return
+     * @return List<CouponView>
+     */
+    @Query(value = "select " + COUPON_VIEW_COLUMNS + " from coupon as c where c.price <:price and c.id >:afterId " +
+            "and not exists (select 1 from customer_coupon as cc where cc.customer_id =:customerId and cc.coupon_id = c.id) " +
+            "order by c.id limit :limit", nativeQuery = true)
+    List<CouponView> getNonPurchasedCouponsLowerThanPrice(long customerId, double price, long afterId, int limit);
 
     /**
-     * An HQL query method used in order to find all of a customers' purchased coupons (represented in the customer coupon joined table)
+     * A native SQL query method used in order to find all of a customers non purchased coupons.
+     * Written as an anti-join, probing the customer coupon unique key once per coupon instead of materializing the customers' coupons.
      *
      * @param customerId of the specified customer
-     * @return List<Coupon>
+     * @param afterId    id of the last coupon of the previous page, or 0 for the first page
+     * @param limit      maximal number of coupons to return
+     * @return List<CouponView>
      */
-    @Query("select c from Coupon as c inner join c.customers as cust where cust.id =:customerId")
-    List<Coupon> getMyPurchasedCoupons(long customerId);
+    @Query(value = "select " + COUPON_VIEW_COLUMNS + " from coupon as c where c.id >:afterId " +
+            "and not exists (select 1 from customer_coupon as cc where cc.customer_id =:customerId and cc.coupon_id = c.id) " +
+            "order by c.id limit :limit", nativeQuery = true)
+    List<CouponView> getAllNonPurchasedCoupons(long customerId, long afterId, int limit);
 
     /**
-     * An HQL query method used in order to find all of a customers' categorically specified non purchased coupons (meaning coupons that do not appear in the customer coupon joined table)
+     * A native SQL query method used in order to find all of a customers' categorically specified non purchased coupons that are still active,
+     * answering the CatalogIndex, which holds active coupons only, until it is first loaded.
      *
      * @param customerId of the specified customer
      * @param category   specified category
-     * @return List<Coupon>
+     * @param now        the time, coupons ending by which are not listed
+     * @param afterId    id of the last coupon of the previous page, or 0 for the first page
+     * @param limit      maximal number of coupons to return
+     * @return List<CouponView>
      */
-    @Query("select c from Coupon as c where c not in(select c from Coupon as c inner join c.customers as cust where cust.id =:customerId) " +
-            "and category =:category")
-    List<Coupon> getNonPurchasedCouponsByCategory(long customerId, int category);
+    @Query(value = "select " + COUPON_VIEW_COLUMNS + " from coupon as c where c.category =:category and c.end_date >:now and c.id >:afterId " +
+            "and not exists (select 1 from customer_coupon as cc where cc.customer_id =:customerId and cc.coupon_id = c.id) " +
+            "order by c.id limit :limit", nativeQuery = true)
+    List<CouponView> getActiveNonPurchasedCouponsByCategory(long customerId, int category, LocalDateTime now, long afterId, int limit);
 
     /**
-     * An HQL query method used in order to find all of a customers' price specified non purchased coupons (meaning coupons that do not appear in the customer coupon joined table)
+     * A native SQL query method used in order to find all of a customers' price specified non purchased coupons that are still active,
+     * answering the CatalogIndex, which holds active coupons only, until it is first loaded.
      *
      * @param customerId of the specified customer
      * @param price      specified price (any coupon lower than this price will be in the list)
-     * @return List<Coupon>
+     * @param now        the time, coupons ending by which are not listed
+     * @param afterId    id of the last coupon of the previous page, or 0 for the first page
+     * @param limit      maximal number of coupons to return
+     * @return List<CouponView>
      */
-    @Query("select c from Coupon as c where c not in(select c from Coupon as c inner join c.customers as cust where cust.id =:customerId) " +
-            "and price <:price")
-    List<Coupon> getNonPurchasedCouponsLowerThanPrice(long customerId, double price);
+    @Query(value = "select " + COUPON_VIEW_COLUMNS + " from coupon as c where c.price <:price and c.end_date >:now and c.id >:afterId " +
+            "and not exists (select 1 from customer_coupon as cc where cc.customer_id =:customerId and cc.coupon_id = c.id) " +
+            "order by c.id limit :limit", nativeQuery = true)
+    List<CouponView> getActiveNonPurchasedCouponsLowerThanPrice(long customerId, double price, LocalDateTime now, long afterId, int limit);
 
     /**
-     * An HQL query method used in order to find all of a customers non purchased coupons.
+     * A native SQL query method used in order to find all of a customers non purchased coupons that are still active,
+     * answering the CatalogIndex, which holds active coupons only, until it is first loaded.
      *
      * @param customerId of the specified customer
-     * @return List<Coupon>
+     * @param now        the time, coupons ending by which are not listed
+     * @param afterId    id of the last coupon of the previous page, or 0 for the first page
+     * @param limit      maximal number of coupons to return
+     * @return List<CouponView>
+     */
+    @Query(value = "select " + COUPON_VIEW_COLUMNS + " from coupon as c where c.end_date >:now and c.id >:afterId " +
+            "and not exists (select 1 from customer_coupon as cc where cc.customer_id =:customerId and cc.coupon_id = c.id) " +
+            "order by c.id limit :limit", nativeQuery = true)
+    List<CouponView> getAllActiveNonPurchasedCoupons(long customerId, LocalDateTime now, long afterId, int limit);
+
+    /**
+     * A native SQL query method that adds a single row to the customer coupon joined table,
+     * without loading the customers' existing coupons.
+     * The row is only inserted if the customer exists and does not already own the coupon.
+     *
+     * @param customerId of the customer purchasing the coupon
+     * @param couponId   of the purchased coupon
+     * @return the number of inserted rows- 1 on success, 0 if the customer does not exist or already owns the coupon.
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "insert ignore into customer_coupon (customer_id, coupon_id) " +
+            "select cust.id, :couponId from customer as cust where cust.id =:customerId", nativeQuery = true)
+    int insertCustomerCoupon(long customerId, long couponId);
+
+    /**
+     * A native SQL query method that removes a single row from the customer coupon joined table,
+     * without loading the customers' existing coupons.
+     *
+     * @param customerId of the customer returning the coupon
+     * @param couponId   of the returned coupon
+     * @return the number of deleted rows- 1 on success, 0 if the customer does not own the coupon.
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "delete from customer_coupon where customer_id =:customerId and coupon_id =:couponId", nativeQuery = true)
+    int deleteCustomerCoupon(long customerId, long couponId);
+
+    /**
+     * A native SQL query method that finds every coupon a customer owns, reading only the customer coupon unique key.
+     *
+     * @param customerId of the specified customer
+     * @return List<Number> of the owned coupon ids, sorted
+     */
+    @Query(value = "select cc.coupon_id from customer_coupon as cc where cc.customer_id =:customerId order by cc.coupon_id", nativeQuery = true)
+    List<Number> findAllOwnedCouponIds(long customerId);
+
+    /**
+     * A native SQL query method that finds which of the given coupons a customer already owns.
+     *
+     * @param customerId of the specified customer
+     * @param couponIds  to look for
+     * @return List<Number> of the owned coupon ids
+     */
+    @Query(value = "select cc.coupon_id from customer_coupon as cc where cc.customer_id =:customerId and cc.coupon_id in (:couponIds)", nativeQuery = true)
+    List<Number> findOwnedCouponIds(long customerId, Collection<Long> couponIds);
+
+    /**
+     * A native SQL query method that finds which of the given customers already own a coupon.
+     *
+     * @param couponId    of the specified coupon
+     * @param customerIds to look for
+     * @return List<Number> of the owners' customer ids
+     */
+    @Query(value = "select cc.customer_id from customer_coupon as cc where cc.coupon_id =:couponId and cc.customer_id in (:customerIds)", nativeQuery = true)
+    List<Number> findOwnerIds(long couponId, Collection<Long> customerIds);
+
+    /**
+     * An HQL query method that finds which of the given ids belong to existing customers.
+     *
+     * @param customerIds to look for.
+     * @return List<Long> of the existing ids.
      */
-    @Query("select c from Coupon as c where c not in(select c from Coupon as c inner join c.customers as cust where cust.id =:customerId) ")
-    List<Coupon> getAllNonPurchasedCoupons(long customerId);
-}
\ No newline at end of file
+    @Query("select c.id from Customer as c where c.id in :customerIds")
+    List<Long> findExistingIds(Collection<Long> customerIds);
+}
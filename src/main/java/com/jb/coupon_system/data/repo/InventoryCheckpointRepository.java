@@ -0,0 +1,54 @@
+package com.jb.coupon_system.data.repo;
+
+import com.jb.coupon_system.data.entity.InventoryCheckpoint;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+@Repository
+public interface InventoryCheckpointRepository extends JpaRepository<InventoryCheckpoint, Long> {
+
+    /**
+     * A native SQL query method used when recovering the InventoryLedger after a restart.
+     * Every row holds a coupon id, its settled sales and the actual number of rows it has in the customer coupon joined table.
+     *
+     * @return List<Object[]>
+     */
+    @Query(value = "select ic.coupon_id, ic.settled_sales, count(cc.coupon_id) from inventory_checkpoint as ic " +
+            "left join customer_coupon as cc on cc.coupon_id = ic.coupon_id group by ic.coupon_id, ic.settled_sales", nativeQuery = true)
+    List<Object[]> findAllWithSales();
+
+    /**
+     * A native SQL query method that removes the checkpoints of coupons that no longer exist.
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "delete from inventory_checkpoint where coupon_id not in (select id from coupon)", nativeQuery = true)
+    void deleteAllOrphans();
+
+    /**
+     * A native SQL query method called before deleting a customer, whose purchases disappear without being returned to stock.
+     * The settled sales of every coupon the customer owns are lowered accordingly.
+     *
+     * @param customerId of the customer being deleted
+     */
+    @Modifying
+    @Transactional
+    @Query(value = "update inventory_checkpoint set settled_sales = settled_sales - 1 " +
+            "where coupon_id in (select cc.coupon_id from customer_coupon as cc where cc.customer_id =:customerId)", nativeQuery = true)
+    void releaseCustomerSales(long customerId);
+
+    /**
+     * An HQL query method that removes a coupon's checkpoint, if there is one.
+     *
+     * @param couponId
+     */
+    @Modifying
+    @Transactional
+    @Query("delete from InventoryCheckpoint ic where ic.couponId =:couponId")
+    void deleteByCouponId(long couponId);
+}
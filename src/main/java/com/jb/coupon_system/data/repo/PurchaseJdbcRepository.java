@@ -0,0 +1,101 @@
+package com.jb.coupon_system.data.repo;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A repository for the statements of bulk purchases and returns that are sent to the data base as a single JDBC batch.
+ * Each method returns the number of rows affected by every statement of the batch, in the order of the given ids.
+ */
+@Repository
+public class PurchaseJdbcRepository {
+    private static final String DECREMENT_AMOUNT = "update coupon set amount = amount - 1, sold_count = sold_count + 1 where id = ? and amount > ?";
+    private static final String INCREMENT_AMOUNT = "update coupon set amount = amount + ?, sold_count = sold_count - ? where id = ?";
+    private static final String INSERT_CUSTOMER_COUPON = "insert ignore into customer_coupon (customer_id, coupon_id) values (?, ?)";
+    private static final String DELETE_CUSTOMER_COUPON = "delete from customer_coupon where customer_id = ? and coupon_id = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    public PurchaseJdbcRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * A method that takes a single coupon of every given coupon out of stock, leaving the coupons held in memory untouched.
+     *
+     * @param couponIds of the coupons being purchased
+     * @param held      number of held coupons of every coupon, in the order of the ids
+     * @return 1 for every coupon taken, 0 for every coupon that is sold out or does not exist.
+     */
+    public int[] decrementAmounts(List<Long> couponIds, int[] held) {
+        List<Object[]> args = new ArrayList<>(couponIds.size());
+        for (int i = 0; i < couponIds.size(); i++) {
+            args.add(new Object[]{couponIds.get(i), held[i]});
+        }
+        return jdbcTemplate.batchUpdate(DECREMENT_AMOUNT, args);
+    }
+
+    /**
+     * A method that puts returned coupons back in stock, a single statement per coupon however many were returned.
+     *
+     * @param unitsByCouponId number of returned coupons of every coupon id
+     * @return 1 for every updated coupon, 0 for every coupon that does not exist.
+     */
+    public int[] incrementAmounts(Map<Long, Integer> unitsByCouponId) {
+        List<Object[]> args = new ArrayList<>(unitsByCouponId.size());
+        unitsByCouponId.forEach((couponId, units) -> args.add(new Object[]{units, units, couponId}));
+        return jdbcTemplate.batchUpdate(INCREMENT_AMOUNT, args);
+    }
+
+    /**
+     * A method that adds a row to the customer coupon joined table for every given coupon.
+     *
+     * @param customerId of the customer purchasing the coupons
+     * @param couponIds  of the purchased coupons
+     * @return 1 for every inserted row, 0 for every coupon the customer already owns.
+     */
+    public int[] insertCustomerCoupons(long customerId, List<Long> couponIds) {
+        List<Object[]> args = new ArrayList<>(couponIds.size());
+        for (Long couponId : couponIds) {
+            args.add(new Object[]{customerId, couponId});
+        }
+        return jdbcTemplate.batchUpdate(INSERT_CUSTOMER_COUPON, args);
+    }
+
+    /**
+     * A method that adds a row to the customer coupon joined table for every given customer purchasing the same coupon.
+     *
+     * @param couponId    of the purchased coupon
+     * @param customerIds of the customers purchasing the coupon
+     * @return 1 for every inserted row, 0 for every customer that already owns the coupon.
+     */
+    public int[] insertCouponCustomers(long couponId, List<Long> customerIds) {
+        List<Object[]> args = new ArrayList<>(customerIds.size());
+        for (Long customerId : customerIds) {
+            args.add(new Object[]{customerId, couponId});
+        }
+        return jdbcTemplate.batchUpdate(INSERT_CUSTOMER_COUPON, args);
+    }
+
+    /**
+     * A method that removes a row from the customer coupon joined table for every given purchase.
+     * The purchases are given as two lists of the same length, the i-th customer id going with the i-th coupon id.
+     *
+     * @param customerIds of the purchases to remove
+     * @param couponIds   of the purchases to remove
+     * @return 1 for every deleted row, 0 for every coupon the customer does not own.
+     */
+    public int[] deleteCustomerCoupons(List<Long> customerIds, List<Long> couponIds) {
+        List<Object[]> args = new ArrayList<>(couponIds.size());
+        for (int i = 0; i < couponIds.size(); i++) {
+            args.add(new Object[]{customerIds.get(i), couponIds.get(i)});
+        }
+        return jdbcTemplate.batchUpdate(DELETE_CUSTOMER_COUPON, args);
+    }
+}
@@ -0,0 +1,15 @@
+package com.jb.coupon_system.rest;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a controller method parameter as the id of the client whose token the request was made with.
+ * The id is resolved once per request by the SessionInterceptor guarding the path of the method.
+ */
+@Target(ElementType.PARAMETER)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ClientId {
+}
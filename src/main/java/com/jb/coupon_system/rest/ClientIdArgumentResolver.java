@@ -0,0 +1,31 @@
+package com.jb.coupon_system.rest;
+
+import com.jb.coupon_system.rest.ex.InvalidLoginException;
+import org.springframework.core.MethodParameter;
+import org.springframework.web.bind.support.WebDataBinderFactory;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.method.support.HandlerMethodArgumentResolver;
+import org.springframework.web.method.support.ModelAndViewContainer;
+
+/**
+ * A resolver of the parameters marked with @ClientId, handing them the client id left by the SessionInterceptor.
+ */
+public class ClientIdArgumentResolver implements HandlerMethodArgumentResolver {
+
+    @Override
+    public boolean supportsParameter(MethodParameter parameter) {
+        return parameter.hasParameterAnnotation(ClientId.class);
+    }
+
+    @Override
+    public Object resolveArgument(MethodParameter parameter, ModelAndViewContainer mavContainer,
+                                  NativeWebRequest webRequest, WebDataBinderFactory binderFactory) throws InvalidLoginException {
+        Object clientId = webRequest.getAttribute(SessionInterceptor.CLIENT_ID_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+        if (clientId == null) {
+            /*The handler's path is not guarded by a SessionInterceptor*/
+            throw new InvalidLoginException("There's a problem with the token being used!");
+        }
+        return clientId;
+    }
+}
@@ -1,14 +1,19 @@
 package com.jb.coupon_system.rest;
 
+import com.jb.coupon_system.common.CoarseClock;
+
 /**
- * A class in which the value of the tokens map is defined, using id and time last accessed.
+ * A class in which the value of the session store is defined, using id and time last accessed.
+ * Access times are taken from the CoarseClock, as every request made with a token accesses its session.
  */
 public class ClientSession {
     private long clientId;
-    private long lastAccessedMillis;
+    private final long createdMillis;
+    private volatile long lastAccessedMillis;
 
     public ClientSession(long clientId, long currentTimeMillis) {
         this.clientId = clientId;
+        this.createdMillis = currentTimeMillis;
         this.lastAccessedMillis = currentTimeMillis;
     }
 
@@ -23,14 +28,18 @@ public class ClientSession {
      * @return ClientSession
      */
     public static ClientSession create(long clientId) {
-        return new ClientSession(clientId, System.currentTimeMillis());
+        return new ClientSession(clientId, CoarseClock.millis());
     }
 
     public void access() {
-        lastAccessedMillis = System.currentTimeMillis();
+        lastAccessedMillis = CoarseClock.millis();
     }
 
     public long getLastAccessedMillis() {
         return lastAccessedMillis;
     }
+
+    public long getCreatedMillis() {
+        return createdMillis;
+    }
 }
@@ -0,0 +1,155 @@
+package com.jb.coupon_system.rest;
+
+import com.jb.coupon_system.rest.ex.IdempotencyKeyReusedException;
+import com.jb.coupon_system.rest.ex.RequestInProgressException;
+import com.jb.coupon_system.service.ex.DuplicateEntryException;
+import com.jb.coupon_system.service.ex.NoSuchIdException;
+import com.jb.coupon_system.service.ex.ZeroCouponAmountException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A bounded cache of recent purchase results, keyed by the Idempotency-Key header sent by the client.
+ * A request retried with the same key gets the result of the first request (a coupon or a purchase exception)
+ * instead of purchasing again, and a retry that arrives while the first request is still running waits for it,
+ * for up to the wait timeout, after which it is told to retry later.
+ * Every entry keeps the parameters of its request, so a key sent again with different parameters is refused rather than
+ * answered with the result of another purchase.
+ * Unexpected failures are not cached, so retrying them runs the request again.
+ * All entries live for the same time, so the oldest entry is always the first to expire.
+ */
+@Component
+public class IdempotencyCache {
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Queue<Entry> byAge = new ConcurrentLinkedQueue<>();
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final long waitTimeoutMillis;
+
+    @Autowired
+    public IdempotencyCache(@Value("${purchase.idempotency.max-entries}") int maxEntries,
+                            @Value("${purchase.idempotency.ttl}") Duration ttl,
+                            @Value("${purchase.idempotency.wait-timeout}") Duration waitTimeout) {
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttl.toMillis();
+        this.waitTimeoutMillis = waitTimeout.toMillis();
+    }
+
+    /**
+     * A method that runs a purchase once per idempotency key.
+     *
+     * @param scope          separating the keys of different customers and endpoints
+     * @param idempotencyKey sent by the client, or null to simply run the call
+     * @param request        the parameters of the purchase, compared by equals with those the key was first sent with
+     * @param call           the purchase itself
+     * @return the result of the first call made with the key
+     * @throws DuplicateEntryException       thrown by the first call made with the key
+     * @throws ZeroCouponAmountException     thrown by the first call made with the key
+     * @throws NoSuchIdException             thrown by the first call made with the key
+     * @throws IdempotencyKeyReusedException If the key was first sent with different parameters.
+     * @throws RequestInProgressException    If the first call made with the key did not end within the wait timeout.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(String scope, String idempotencyKey, List<?> request, IdempotentCall<T> call)
+            throws DuplicateEntryException, ZeroCouponAmountException, NoSuchIdException, IdempotencyKeyReusedException, RequestInProgressException {
+        if (idempotencyKey == null) {
+            return call.call();
+        }
+        evictOldEntries();
+
+        String key = scope + ':' + idempotencyKey;
+        Entry entry = new Entry(key, request, System.currentTimeMillis() + ttlMillis);
+        Entry existing = entries.putIfAbsent(key, entry);
+        if (existing != null) {
+            if (!existing.request.equals(request)) {
+                String msg = String.format("The idempotency key %s was already used with a different request", idempotencyKey);
+                throw new IdempotencyKeyReusedException(msg);
+            }
+            return (T) awaitResult(existing, idempotencyKey);
+        }
+        byAge.add(entry);
+
+        try {
+            T result = call.call();
+            entry.result.complete(result);
+            return result;
+        } catch (DuplicateEntryException | ZeroCouponAmountException | NoSuchIdException e) {
+            entry.result.completeExceptionally(e);
+            throw e;
+        } catch (RuntimeException | Error e) {
+            entries.remove(key, entry);
+            entry.result.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private Object awaitResult(Entry entry, String idempotencyKey) throws DuplicateEntryException, ZeroCouponAmountException, NoSuchIdException, RequestInProgressException {
+        String msg = String.format("The request with the idempotency key %s is still being processed, try again later", idempotencyKey);
+        try {
+            return entry.result.get(waitTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new RequestInProgressException(msg);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RequestInProgressException(msg);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof DuplicateEntryException) {
+                throw (DuplicateEntryException) cause;
+            } else if (cause instanceof ZeroCouponAmountException) {
+                throw (ZeroCouponAmountException) cause;
+            } else if (cause instanceof NoSuchIdException) {
+                throw (NoSuchIdException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private void evictOldEntries() {
+        long now = System.currentTimeMillis();
+        Entry oldest;
+        while ((oldest = byAge.peek()) != null && (oldest.expiresMillis <= now || entries.size() > maxEntries)) {
+            if (byAge.remove(oldest)) {
+                entries.remove(oldest.key, oldest);
+            }
+        }
+    }
+
+    /**
+     * A purchase made through the cache.
+     */
+    @FunctionalInterface
+    public interface IdempotentCall<T> {
+        T call() throws DuplicateEntryException, ZeroCouponAmountException, NoSuchIdException;
+    }
+
+    private static final class Entry {
+        private final String key;
+        private final List<?> request;
+        private final long expiresMillis;
+        private final CompletableFuture<Object> result = new CompletableFuture<>();
+
+        private Entry(String key, List<?> request, long expiresMillis) {
+            this.key = key;
+            this.request = request;
+            this.expiresMillis = expiresMillis;
+        }
+    }
+}
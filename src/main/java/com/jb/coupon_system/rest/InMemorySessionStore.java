@@ -0,0 +1,122 @@
+package com.jb.coupon_system.rest;
+
+import com.jb.coupon_system.common.CoarseClock;
+import com.jb.coupon_system.common.LoginType;
+import com.jb.coupon_system.common.ResourceUtils;
+import com.jb.coupon_system.common.TimingWheel;
+import com.jb.coupon_system.rest.ex.InvalidLoginException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The sessions of all logged in clients, keyed by their tokens.
+ * A session expires once it has not been accessed for the session ttl.
+ * Expired sessions are never handed out, and are removed by removeExpired using a timing wheel,
+ * so a cleanup only looks at the sessions whose expiry came due since the previous one.
+ * A session accessed since it was scheduled is simply scheduled again for its new expiry.
+ * Sessions live on a single node, so every request of a client must reach the node it logged in to.
+ */
+@Component
+@ConditionalOnProperty(name = "session.store", havingValue = "memory", matchIfMissing = true)
+public class InMemorySessionStore implements SessionStore {
+
+    private final Map<String, ClientSession> sessions = new ConcurrentHashMap<>();
+    private final AtomicLongArray activeByType = new AtomicLongArray(LoginType.values().length);
+    private final TokenGenerator tokenGenerator;
+    private final SessionMetrics metrics;
+    private final TimingWheel<String> expiries;
+    private final long ttlMillis;
+
+    @Autowired
+    public InMemorySessionStore(TokenGenerator tokenGenerator, SessionMetrics metrics, @Value("${session.ttl}") Duration ttl,
+                                @Value("${rate.delete.expired.tokens}") Duration cleanUpRate) {
+        this.tokenGenerator = tokenGenerator;
+        this.metrics = metrics;
+        this.ttlMillis = ttl.toMillis();
+        this.expiries = new TimingWheel<>(cleanUpRate, (int) (ttl.toMillis() / cleanUpRate.toMillis()) + 1, CoarseClock.millis());
+        metrics.registerActive(loginType -> activeByType.get(loginType.ordinal()));
+    }
+
+    @Override
+    public String open(LoginType loginType, ClientSession session) {
+        String token = tokenGenerator.generate(loginType);
+        sessions.put(token, session);
+        expiries.schedule(token, session.getLastAccessedMillis() + ttlMillis);
+        activeByType.incrementAndGet(loginType.ordinal());
+        metrics.opened(loginType);
+        return token;
+    }
+
+    @Override
+    public long accessAndGetClientIdOrThrow(String token) throws InvalidLoginException {
+        return ResourceUtils.accessAndGetIdFromClientSessionOrThrow(get(token));
+    }
+
+    @Override
+    public void close(String token) throws InvalidLoginException {
+        ClientSession session = get(token);
+        ResourceUtils.accessAndGetIdFromClientSessionOrThrow(session);
+        remove(token, session, false);
+    }
+
+    /**
+     * A method that retrieves the session of a token.
+     *
+     * @param token
+     * @return the token's session, or null if there is none or it has expired.
+     */
+    private ClientSession get(String token) {
+        ClientSession session = sessions.get(token);
+        if (session != null && isExpired(session, CoarseClock.millis())) {
+            remove(token, session, true);
+            return null;
+        }
+        return session;
+    }
+
+    @Override
+    public void removeExpired() {
+        long now = CoarseClock.millis();
+        expiries.advance(now, token -> {
+            ClientSession session = sessions.get(token);
+            if (session == null) {
+                /*Logged out already*/
+                return;
+            }
+            if (isExpired(session, now)) {
+                remove(token, session, true);
+            } else {
+                expiries.schedule(token, session.getLastAccessedMillis() + ttlMillis);
+            }
+        });
+    }
+
+    /**
+     * A method that removes a session and counts it as logged out or expired,
+     * unless it was removed already by another thread.
+     */
+    private void remove(String token, ClientSession session, boolean expired) {
+        if (!sessions.remove(token, session)) {
+            return;
+        }
+        LoginType loginType = LoginType.ofToken(token);
+        activeByType.decrementAndGet(loginType.ordinal());
+        long lifetimeMillis = CoarseClock.millis() - session.getCreatedMillis();
+        if (expired) {
+            metrics.expired(loginType, lifetimeMillis);
+        } else {
+            metrics.closed(loginType, lifetimeMillis);
+        }
+    }
+
+    private boolean isExpired(ClientSession session, long now) {
+        return now - session.getLastAccessedMillis() > ttlMillis;
+    }
+}
@@ -0,0 +1,188 @@
+package com.jb.coupon_system.rest;
+
+import com.jb.coupon_system.common.CoarseClock;
+import com.jb.coupon_system.common.LoginType;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A filter in front of the credential checks of UserSystem, deciding which login attempts are worth sending to the data base.
+ * Failed attempts are limited by token buckets of the email (trimmed and lower cased) and of the client address-
+ * once a bucket is empty, attempts are rejected until it refills. Buckets are striped by hash,
+ * so memory stays fixed however many emails are tried, at the cost of emails sharing a stripe sharing a bucket.
+ * Credentials that just failed are remembered for a short while (by their SHA-256 hash, never in plaintext)
+ * and rejected again without a query, up to a maximal number of them, past which the oldest are forgotten first.
+ * As a result, an account created or updated with credentials that failed moments before can only log in once they are forgotten.
+ */
+@Component
+public class LoginThrottle {
+
+    private final Buckets emailBuckets;
+    private final Buckets addressBuckets;
+    private final Map<String, Long> failedCredentials = new ConcurrentHashMap<>();
+    /*The keys of failedCredentials in the order they were first recorded*/
+    private final Queue<String> failedOrder = new ConcurrentLinkedQueue<>();
+    private final int maxFailedCredentials;
+    private final long failedCredentialsTtlMillis;
+    private final Counter rejected;
+    private final Counter cached;
+    private final Counter checked;
+
+    @Autowired
+    public LoginThrottle(MeterRegistry meterRegistry,
+                         @Value("${login.throttle.stripes}") int stripes,
+                         @Value("${login.throttle.email.capacity}") int emailCapacity,
+                         @Value("${login.throttle.email.refill}") Duration emailRefill,
+                         @Value("${login.throttle.address.capacity}") int addressCapacity,
+                         @Value("${login.throttle.address.refill}") Duration addressRefill,
+                         @Value("${login.failed-credentials.max-entries}") int maxFailedCredentials,
+                         @Value("${login.failed-credentials.ttl}") Duration failedCredentialsTtl) {
+        this.emailBuckets = new Buckets(stripes, emailCapacity, emailRefill);
+        this.addressBuckets = new Buckets(stripes, addressCapacity, addressRefill);
+        this.maxFailedCredentials = maxFailedCredentials;
+        this.failedCredentialsTtlMillis = failedCredentialsTtl.toMillis();
+        this.rejected = attempts(meterRegistry, "rejected");
+        this.cached = attempts(meterRegistry, "cached");
+        this.checked = attempts(meterRegistry, "checked");
+    }
+
+    /**
+     * A method that decides what to do with a login attempt before its credentials are checked.
+     *
+     * @param loginType
+     * @param email
+     * @param password
+     * @param address   of the client
+     * @return Decision
+     */
+    public Decision check(LoginType loginType, String email, String password, String address) {
+        long now = CoarseClock.millis();
+        email = normalize(email);
+        if (emailBuckets.isEmpty(email, now) || addressBuckets.isEmpty(address, now)) {
+            rejected.increment();
+            return Decision.THROTTLED;
+        }
+        Long expiresMillis = failedCredentials.get(hash(loginType, email, password));
+        if (expiresMillis != null && expiresMillis > now) {
+            cached.increment();
+            return Decision.KNOWN_BAD;
+        }
+        checked.increment();
+        return Decision.CHECK;
+    }
+
+    /**
+     * A method that records a failed login attempt, taking a token out of the buckets of its email and address.
+     *
+     * @param loginType
+     * @param email
+     * @param password
+     * @param address   of the client
+     */
+    public void recordFailure(LoginType loginType, String email, String password, String address) {
+        long now = CoarseClock.millis();
+        email = normalize(email);
+        emailBuckets.take(email, now);
+        addressBuckets.take(address, now);
+
+        String key = hash(loginType, email, password);
+        if (failedCredentials.put(key, now + failedCredentialsTtlMillis) == null) {
+            failedOrder.add(key);
+        }
+        /*Stay within the bound by dropping the credentials recorded first, which are also the first to expire*/
+        while (failedCredentials.size() > maxFailedCredentials) {
+            String oldest = failedOrder.poll();
+            if (oldest == null) {
+                break;
+            }
+            failedCredentials.remove(oldest);
+        }
+    }
+
+    /*Emails are matched regardless of case and surrounding spaces, as the data base matches them*/
+    private static String normalize(String email) {
+        return email == null ? "" : email.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static String hash(LoginType loginType, String email, String password) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(loginType.name().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(email.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            return Base64.getEncoder().encodeToString(digest.digest(password.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Counter attempts(MeterRegistry meterRegistry, String outcome) {
+        return Counter.builder("login.attempts")
+                .description("Login attempts by what was done with them")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    /**
+     * What to do with a login attempt.
+     * THROTTLED- reject it unchecked, KNOWN_BAD- reject it as wrong credentials, CHECK- check its credentials.
+     */
+    public enum Decision {
+        THROTTLED, KNOWN_BAD, CHECK
+    }
+
+    /**
+     * Token buckets striped by the hash of their key, each kept as a single long-
+     * the time at which the bucket will be full again, so the tokens left are the time until then, in refills.
+     */
+    private static final class Buckets {
+        private final AtomicLongArray fullAtMillis;
+        private final int mask;
+        private final long refillMillis;
+        private final long capacityMillis;
+
+        private Buckets(int stripes, int capacity, Duration refill) {
+            int size = Integer.highestOneBit(Math.max(2, stripes) - 1) << 1;
+            this.fullAtMillis = new AtomicLongArray(size);
+            this.mask = size - 1;
+            this.refillMillis = refill.toMillis();
+            this.capacityMillis = capacity * refillMillis;
+        }
+
+        /**
+         * @return true if taking another token would leave the bucket with less than none.
+         */
+        private boolean isEmpty(String key, long now) {
+            return fullAtMillis.get(stripe(key)) - now > capacityMillis - refillMillis;
+        }
+
+        private void take(String key, long now) {
+            int stripe = stripe(key);
+            long fullAt;
+            do {
+                fullAt = fullAtMillis.get(stripe);
+            } while (!fullAtMillis.compareAndSet(stripe, fullAt, Math.max(fullAt, now) + refillMillis));
+        }
+
+        private int stripe(String key) {
+            int hash = key.hashCode();
+            return (hash ^ (hash >>> 16)) & mask;
+        }
+    }
+}
@@ -0,0 +1,413 @@
+package com.jb.coupon_system.rest;
+
+import com.jb.coupon_system.common.CoarseClock;
+import com.jb.coupon_system.common.LoginType;
+import com.jb.coupon_system.common.TimingWheel;
+import com.jb.coupon_system.rest.ex.InvalidLoginException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A session store that keeps its sessions in a memory-mapped file, so they survive a restart of the application.
+ * The file is a hash table of fixed size records- one per slot, found by linear probing from the token's hash,
+ * holding the token, the client id and the time last accessed. Sessions therefore live outside the heap.
+ * Removed sessions leave a marker behind so probing goes on past them, and the table is rebuilt once too many
+ * markers pile up. Expiry is scheduled by slot on a timing wheel, which is rebuilt from the file at startup.
+ * Writes reach the file through the page cache, so sessions survive the application stopping but not the machine.
+ */
+@Component
+@ConditionalOnProperty(name = "session.store", havingValue = "mapped")
+public class MappedFileSessionStore implements SessionStore {
+    private static final int MAGIC = 0x53455353;
+    private static final int MAX_CAPACITY = 1 << 24;
+    private static final int HEADER_BYTES = 64;
+    private static final int RECORD_BYTES = 64;
+    private static final int MAX_TOKEN_BYTES = 40;
+
+    /*Record layout*/
+    private static final int STATE = 0;
+    private static final int TOKEN_LENGTH = 4;
+    private static final int CLIENT_ID = 8;
+    private static final int LAST_ACCESSED = 16;
+    private static final int TOKEN = 24;
+
+    /*Record states*/
+    private static final int EMPTY = 0;
+    private static final int LIVE = 1;
+    private static final int REMOVED = 2;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final AtomicIntegerArray liveByType = new AtomicIntegerArray(LoginType.values().length);
+    private final TokenGenerator tokenGenerator;
+    private final SessionMetrics metrics;
+    private final Path path;
+    private final long ttlMillis;
+    private final Duration cleanUpRate;
+    private Table table;
+    private TimingWheel<Integer> expiries;
+    private int live;
+    private int removed;
+
+    @Autowired
+    public MappedFileSessionStore(TokenGenerator tokenGenerator, SessionMetrics metrics,
+                                  @Value("${session.mapped.file}") String file,
+                                  @Value("${session.mapped.capacity}") int capacity,
+                                  @Value("${session.ttl}") Duration ttl,
+                                  @Value("${rate.delete.expired.tokens}") Duration cleanUpRate) throws IOException {
+        this.tokenGenerator = tokenGenerator;
+        this.metrics = metrics;
+        this.path = Paths.get(file);
+        this.ttlMillis = ttl.toMillis();
+        this.cleanUpRate = cleanUpRate;
+
+        int slots = Integer.highestOneBit(Math.max(2, Math.min(capacity, MAX_CAPACITY)) - 1) << 1;
+        this.table = Table.open(path, slots);
+        if (table.capacity != slots) {
+            /*The capacity was changed since the file was written*/
+            rebuild(slots);
+        } else {
+            recover();
+        }
+        metrics.registerActive(loginType -> liveByType.get(loginType.ordinal()));
+    }
+
+    @Override
+    public String open(LoginType loginType, ClientSession session) {
+        String token = tokenGenerator.generate(loginType);
+        if (token.length() > MAX_TOKEN_BYTES) {
+            throw new IllegalStateException(String.format("Tokens longer than %d chars cannot be stored", MAX_TOKEN_BYTES));
+        }
+        lock.writeLock().lock();
+        try {
+            makeRoom();
+            int slot = insert(table, token, session.getClientId(), session.getLastAccessedMillis());
+            expiries.schedule(slot, session.getLastAccessedMillis() + ttlMillis);
+            metrics.opened(loginType);
+            return token;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public long accessAndGetClientIdOrThrow(String token) throws InvalidLoginException {
+        long now = CoarseClock.millis();
+        lock.readLock().lock();
+        try {
+            int slot = find(token);
+            if (slot < 0 || isExpired(slot, now)) {
+                throw new InvalidLoginException("There's a problem with the token being used!");
+            }
+            /*Concurrent accesses of the same session all write about the same time, so any of them can win*/
+            int offset = table.offset(slot);
+            table.buffer.putLong(offset + LAST_ACCESSED, now);
+            return table.buffer.getLong(offset + CLIENT_ID);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close(String token) throws InvalidLoginException {
+        lock.writeLock().lock();
+        try {
+            int slot = find(token);
+            if (slot < 0 || isExpired(slot, CoarseClock.millis())) {
+                throw new InvalidLoginException("There's a problem with the token being used!");
+            }
+            /*The file keeps no login times, so no lifetime is recorded*/
+            metrics.closed(remove(slot), -1);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void removeExpired() {
+        lock.writeLock().lock();
+        try {
+            long now = CoarseClock.millis();
+            expiries.advance(now, slot -> {
+                int offset = table.offset(slot);
+                if (table.buffer.getInt(offset + STATE) != LIVE) {
+                    /*Logged out already*/
+                    return;
+                }
+                if (isExpired(slot, now)) {
+                    metrics.expired(remove(slot), -1);
+                } else {
+                    expiries.schedule(slot, table.buffer.getLong(offset + LAST_ACCESSED) + ttlMillis);
+                }
+            });
+            if (removed > table.capacity / 4) {
+                rebuild(table.capacity);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() throws IOException {
+        lock.writeLock().lock();
+        try {
+            table.buffer.force();
+            table.channel.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * A method that finds the slot of a live session without allocating.
+     *
+     * @param token
+     * @return the slot of the token's session, or -1 if there is none.
+     */
+    private int find(String token) {
+        int slot = spread(token.hashCode()) & table.mask;
+        for (int probes = 0; probes < table.capacity; probes++) {
+            int offset = table.offset(slot);
+            int state = table.buffer.getInt(offset + STATE);
+            if (state == EMPTY) {
+                return -1;
+            }
+            if (state == LIVE && matches(offset, token)) {
+                return slot;
+            }
+            slot = (slot + 1) & table.mask;
+        }
+        return -1;
+    }
+
+    private boolean matches(int offset, String token) {
+        int length = table.buffer.getInt(offset + TOKEN_LENGTH);
+        if (length != token.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (table.buffer.get(offset + TOKEN + i) != (byte) token.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A method that writes a session to the first free slot on its token's probe path,
+     * tokens being random enough to never be stored twice.
+     *
+     * @return the slot the session was written to
+     */
+    private int insert(Table into, String token, long clientId, long lastAccessedMillis) {
+        int slot = spread(token.hashCode()) & into.mask;
+        int offset = into.offset(slot);
+        while (into.buffer.getInt(offset + STATE) == LIVE) {
+            slot = (slot + 1) & into.mask;
+            offset = into.offset(slot);
+        }
+        if (into == table && into.buffer.getInt(offset + STATE) == REMOVED) {
+            removed--;
+        }
+        into.buffer.putInt(offset + TOKEN_LENGTH, token.length());
+        for (int i = 0; i < token.length(); i++) {
+            into.buffer.put(offset + TOKEN + i, (byte) token.charAt(i));
+        }
+        into.buffer.putLong(offset + CLIENT_ID, clientId);
+        into.buffer.putLong(offset + LAST_ACCESSED, lastAccessedMillis);
+        /*The state is written last, so a record is only ever live once it is whole*/
+        into.buffer.putInt(offset + STATE, LIVE);
+        if (into == table) {
+            live++;
+            liveByType.incrementAndGet(LoginType.ofToken(token).ordinal());
+        }
+        return slot;
+    }
+
+    /**
+     * @return the LoginType of the removed session
+     */
+    private LoginType remove(int slot) {
+        LoginType loginType = loginTypeAt(slot);
+        table.buffer.putInt(table.offset(slot) + STATE, REMOVED);
+        live--;
+        removed++;
+        if (loginType != null) {
+            liveByType.decrementAndGet(loginType.ordinal());
+        }
+        return loginType;
+    }
+
+    /**
+     * A method that finds the LoginType of a session by the name its token starts with, without allocating.
+     *
+     * @return the LoginType, or null if the token does not start with the name of one
+     */
+    private LoginType loginTypeAt(int slot) {
+        int offset = table.offset(slot);
+        int length = table.buffer.getInt(offset + TOKEN_LENGTH);
+        for (LoginType loginType : LoginType.values()) {
+            String name = loginType.name();
+            if (length > name.length() && table.buffer.get(offset + TOKEN + name.length()) == '_' && startsWith(offset, name)) {
+                return loginType;
+            }
+        }
+        return null;
+    }
+
+    private boolean startsWith(int offset, String name) {
+        for (int i = 0; i < name.length(); i++) {
+            if (table.buffer.get(offset + TOKEN + i) != (byte) name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isExpired(int slot, long now) {
+        return now - table.buffer.getLong(table.offset(slot) + LAST_ACCESSED) > ttlMillis;
+    }
+
+    /**
+     * A method that makes sure the table stays at most three quarters full, counting removed sessions,
+     * so probing always ends quickly at an empty slot.
+     */
+    private void makeRoom() {
+        int maxUsed = table.capacity / 4 * 3;
+        if (live + removed < maxUsed) {
+            return;
+        }
+        if (removed > 0) {
+            rebuild(table.capacity);
+        }
+        if (live >= maxUsed) {
+            throw new IllegalStateException(String.format("The session store is full, with %d live sessions", live));
+        }
+    }
+
+    /**
+     * A method that reads the sessions left in the file by the previous run of the application,
+     * dropping the ones that expired meanwhile and scheduling the expiry of the rest.
+     */
+    private void recover() {
+        expiries = newWheel();
+        live = 0;
+        removed = 0;
+        for (int i = 0; i < liveByType.length(); i++) {
+            liveByType.set(i, 0);
+        }
+        long now = CoarseClock.millis();
+        for (int slot = 0; slot < table.capacity; slot++) {
+            int state = table.buffer.getInt(table.offset(slot) + STATE);
+            if (state == LIVE) {
+                live++;
+                LoginType loginType = loginTypeAt(slot);
+                if (loginType != null) {
+                    liveByType.incrementAndGet(loginType.ordinal());
+                }
+                if (isExpired(slot, now)) {
+                    remove(slot);
+                } else {
+                    expiries.schedule(slot, table.buffer.getLong(table.offset(slot) + LAST_ACCESSED) + ttlMillis);
+                }
+            } else if (state == REMOVED) {
+                removed++;
+            }
+        }
+    }
+
+    /**
+     * A method that copies the live sessions to a new file without the removed ones, and replaces the old file with it.
+     *
+     * @param capacity of the new table
+     */
+    private void rebuild(int capacity) {
+        Path rebuilt = path.resolveSibling(path.getFileName() + ".rebuild");
+        try {
+            Files.deleteIfExists(rebuilt);
+            Table into = Table.open(rebuilt, capacity);
+            byte[] token = new byte[MAX_TOKEN_BYTES];
+            for (int slot = 0; slot < table.capacity; slot++) {
+                int offset = table.offset(slot);
+                if (table.buffer.getInt(offset + STATE) == LIVE) {
+                    int length = table.buffer.getInt(offset + TOKEN_LENGTH);
+                    for (int i = 0; i < length; i++) {
+                        token[i] = table.buffer.get(offset + TOKEN + i);
+                    }
+                    insert(into, new String(token, 0, length, StandardCharsets.US_ASCII),
+                            table.buffer.getLong(offset + CLIENT_ID), table.buffer.getLong(offset + LAST_ACCESSED));
+                }
+            }
+            into.buffer.force();
+            table.channel.close();
+            Files.move(rebuilt, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            table = into;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        recover();
+    }
+
+    private TimingWheel<Integer> newWheel() {
+        return new TimingWheel<>(cleanUpRate, (int) (ttlMillis / cleanUpRate.toMillis()) + 1, CoarseClock.millis());
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * A mapped file holding a header and a fixed number of session records.
+     */
+    private static final class Table {
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private final int capacity;
+        private final int mask;
+
+        private Table(FileChannel channel, MappedByteBuffer buffer, int capacity) {
+            this.channel = channel;
+            this.buffer = buffer;
+            this.capacity = capacity;
+            this.mask = capacity - 1;
+        }
+
+        /**
+         * A method that maps an existing file with the capacity it was written with,
+         * or a new file with the given capacity.
+         */
+        private static Table open(Path path, int capacity) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+            if (header.getInt(0) == MAGIC) {
+                capacity = header.getInt(4);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + (long) capacity * RECORD_BYTES);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, capacity);
+            return new Table(channel, buffer, capacity);
+        }
+
+        private int offset(int slot) {
+            return HEADER_BYTES + slot * RECORD_BYTES;
+        }
+    }
+}
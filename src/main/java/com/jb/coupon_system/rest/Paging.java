@@ -0,0 +1,183 @@
+package com.jb.coupon_system.rest;
+
+import com.jb.coupon_system.rest.ex.InvalidCursorException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * The keyset pagination of the list endpoints. A page is requested with a size and the cursor handed out with the previous page,
+ * and is found by seeking past the keys the cursor holds- the position of the last item of the previous page.
+ * A page that came back full is answered with the cursor of the next page in the X-Next-Cursor header.
+ * Cursors are opaque to clients, being the keys written as URL-safe base64.
+ * With pagination disabled, cursors and sizes are ignored and every list is returned whole, as it was before pagination.
+ * With it enabled, the company coupon lists reject the limit and offset they take otherwise.
+ */
+@Component
+public class Paging {
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+    private final boolean enabled;
+    private final int defaultSize;
+    private final int maxSize;
+
+    @Autowired
+    public Paging(@Value("${pagination.enabled}") boolean enabled,
+                  @Value("${pagination.default-size}") int defaultSize,
+                  @Value("${pagination.max-size}") int maxSize) {
+        this.enabled = enabled;
+        this.defaultSize = defaultSize;
+        this.maxSize = maxSize;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * A method that reads the page requested from a list ordered by id alone.
+     *
+     * @param cursor handed out with the previous page, or null for the first page
+     * @param size   of the page, or null for the default size
+     * @return Page
+     * @throws InvalidCursorException If the cursor does not hold a single key.
+     */
+    public Page page(String cursor, Integer size) throws InvalidCursorException {
+        return page(cursor, size, 1);
+    }
+
+    /**
+     * A method that reads the page requested from a list ordered by several keys.
+     *
+     * @param cursor handed out with the previous page, or null for the first page
+     * @param size   of the page, or null for the default size
+     * @param keys   number of keys the list is ordered by
+     * @return Page
+     * @throws InvalidCursorException If the cursor does not hold that number of keys.
+     */
+    public Page page(String cursor, Integer size, int keys) throws InvalidCursorException {
+        if (!enabled) {
+            return new Page(null, Integer.MAX_VALUE);
+        }
+        int limit = size == null ? defaultSize : Math.max(1, Math.min(size, maxSize));
+        return new Page(cursor == null ? null : decode(cursor, keys), limit);
+    }
+
+    /**
+     * A method that makes sure a list is not asked for by limit and offset while it is paged by cursor,
+     * as limit and offset are only read when paging is disabled.
+     *
+     * @param limit  requested, or null if none was
+     * @param offset requested, or null if none was
+     * @throws InvalidCursorException If paging is enabled and either of them was requested.
+     */
+    public void rejectLimitAndOffset(Integer limit, Integer offset) throws InvalidCursorException {
+        if (enabled && (limit != null || offset != null)) {
+            throw new InvalidCursorException("This list is paged by cursor and size, limit and offset can't be used!");
+        }
+    }
+
+    /**
+     * A method that answers a page of a list ordered by id alone.
+     *
+     * @param items of the page
+     * @param page  requested
+     * @param id    of an item
+     * @return the items, with the cursor of the next page if the page is full, or no content if there are none.
+     */
+    public <T> ResponseEntity<List<T>> respond(List<T> items, Page page, Function<T, Long> id) {
+        return respondByKeys(items, page, item -> new long[]{id.apply(item)});
+    }
+
+    /**
+     * A method that answers a page of a list ordered by several keys.
+     *
+     * @param items of the page
+     * @param page  requested
+     * @param keys  of an item, in the order the list is ordered by
+     * @return the items, with the cursor of the next page if the page is full, or no content if there are none.
+     */
+    public <T> ResponseEntity<List<T>> respondByKeys(List<T> items, Page page, Function<T, long[]> keys) {
+        if (items == null || items.isEmpty()) {
+            return ResponseEntity.noContent().build();
+        }
+        if (!enabled || items.size() < page.limit) {
+            return ResponseEntity.ok(items);
+        }
+        String next = encode(keys.apply(items.get(items.size() - 1)));
+        return ResponseEntity.ok().header(NEXT_CURSOR_HEADER, next).body(items);
+    }
+
+    private static String encode(long[] keys) {
+        ByteBuffer buffer = ByteBuffer.allocate(keys.length * Long.BYTES);
+        for (long key : keys) {
+            buffer.putLong(key);
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(buffer.array());
+    }
+
+    private static long[] decode(String cursor, int keys) throws InvalidCursorException {
+        byte[] bytes;
+        try {
+            bytes = Base64.getUrlDecoder().decode(cursor);
+        } catch (IllegalArgumentException e) {
+            bytes = null;
+        }
+        if (bytes == null || bytes.length != keys * Long.BYTES) {
+            String msg = String.format("The cursor %s was not handed out by this list!", cursor);
+            throw new InvalidCursorException(msg);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        long[] decoded = new long[keys];
+        for (int i = 0; i < keys; i++) {
+            decoded[i] = buffer.getLong();
+        }
+        return decoded;
+    }
+
+    /**
+     * A page requested from a list- the keys of the last item of the previous page and the maximal number of items.
+     */
+    public static final class Page {
+        private final long[] after;
+        private final int limit;
+
+        private Page(long[] after, int limit) {
+            this.after = after;
+            this.limit = limit;
+        }
+
+        /**
+         * @return the id of the last item of the previous page, or 0 for the first page.
+         */
+        public long afterId() {
+            return after(0, 0);
+        }
+
+        /**
+         * @param key          index of the key, in the order the list is ordered by
+         * @param firstPageKey the key to seek past for the first page
+         * @return the key of the last item of the previous page, or the given key for the first page.
+         */
+        public long after(int key, long firstPageKey) {
+            return after == null ? firstPageKey : after[key];
+        }
+
+        /**
+         * @return true if this is the first page, there being no previous page to seek past.
+         */
+        public boolean isFirst() {
+            return after == null;
+        }
+
+        public int limit() {
+            return limit;
+        }
+    }
+}
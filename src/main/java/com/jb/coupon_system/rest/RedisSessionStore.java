@@ -0,0 +1,163 @@
+package com.jb.coupon_system.rest;
+
+import com.jb.coupon_system.common.CoarseClock;
+import com.jb.coupon_system.common.LoginType;
+import com.jb.coupon_system.rest.ex.InvalidLoginException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A session store shared by all nodes, kept in a server speaking the Redis protocol.
+ * Every session is a key holding the client id, which the server expires once it has not been touched for the session ttl.
+ * A token validated by the server is kept in a small near-cache for a short while, so repeated requests skip the server.
+ * Accesses do not wait for their touch- tokens to touch are collected and sent as a single pipeline every touch interval.
+ * A node can go on accepting a token for up to the near-cache ttl after another node has logged it out.
+ */
+@Component
+@ConditionalOnProperty(name = "session.store", havingValue = "redis")
+public class RedisSessionStore implements SessionStore {
+    private static final String KEY_PREFIX = "session:";
+
+    private final Map<String, Validated> nearCache = new ConcurrentHashMap<>();
+    private final Set<String> pendingTouches = ConcurrentHashMap.newKeySet();
+    private final TokenGenerator tokenGenerator;
+    private final SessionMetrics metrics;
+    private final RespClient client;
+    private final RespClient touchClient;
+    private final ScheduledExecutorService toucher;
+    private final String ttlMillis;
+    private final int nearCacheSize;
+    private final long nearCacheTtlMillis;
+
+    @Autowired
+    public RedisSessionStore(TokenGenerator tokenGenerator, SessionMetrics metrics,
+                             @Value("${session.redis.host}") String host,
+                             @Value("${session.redis.port}") int port,
+                             @Value("${session.redis.pool-size}") int poolSize,
+                             @Value("${session.ttl}") Duration ttl,
+                             @Value("${session.redis.near-cache-size}") int nearCacheSize,
+                             @Value("${session.redis.near-cache-ttl}") Duration nearCacheTtl,
+                             @Value("${session.redis.touch-interval}") Duration touchInterval) {
+        this.tokenGenerator = tokenGenerator;
+        this.metrics = metrics;
+        this.client = new RespClient(host, port, poolSize);
+        this.touchClient = new RespClient(host, port, 1);
+        this.ttlMillis = Long.toString(ttl.toMillis());
+        this.nearCacheSize = nearCacheSize;
+        this.nearCacheTtlMillis = nearCacheTtl.toMillis();
+        this.toucher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "session-toucher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.toucher.scheduleWithFixedDelay(this::sendTouches, touchInterval.toMillis(), touchInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public String open(LoginType loginType, ClientSession session) {
+        String token = tokenGenerator.generate(loginType);
+        client.call("SET", KEY_PREFIX + token, Long.toString(session.getClientId()), "PX", ttlMillis);
+        metrics.opened(loginType);
+        return token;
+    }
+
+    @Override
+    public long accessAndGetClientIdOrThrow(String token) throws InvalidLoginException {
+        long now = CoarseClock.millis();
+        Validated validated = nearCache.get(token);
+        if (validated == null || now - validated.validatedMillis > nearCacheTtlMillis) {
+            Object clientId = client.call("GET", KEY_PREFIX + token);
+            if (clientId == null) {
+                nearCache.remove(token);
+                throw new InvalidLoginException("There's a problem with the token being used!");
+            }
+            validated = new Validated(Long.parseLong((String) clientId), now);
+            cache(token, validated);
+        }
+        pendingTouches.add(token);
+        return validated.clientId;
+    }
+
+    @Override
+    public void close(String token) throws InvalidLoginException {
+        Object deleted = client.call("DEL", KEY_PREFIX + token);
+        /*Only dropped once the server has deleted it, so a concurrent access can't cache it again in between*/
+        nearCache.remove(token);
+        pendingTouches.remove(token);
+        if (!Long.valueOf(1).equals(deleted)) {
+            throw new InvalidLoginException("There's a problem with the token being used!");
+        }
+        /*The server keeps no login times, so no lifetime is recorded*/
+        metrics.closed(LoginType.ofToken(token), -1);
+    }
+
+    @Override
+    public void removeExpired() {
+        /*The server expires the sessions themselves, only the near-cache is left to clean*/
+        long now = CoarseClock.millis();
+        nearCache.values().removeIf(validated -> now - validated.validatedMillis > nearCacheTtlMillis);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        toucher.shutdown();
+        sendTouches();
+        client.close();
+        touchClient.close();
+    }
+
+    /**
+     * A method that refreshes the expiry of every session accessed since the last time it ran, in a single pipeline.
+     */
+    private void sendTouches() {
+        if (pendingTouches.isEmpty()) {
+            return;
+        }
+        List<String[]> touches = new ArrayList<>();
+        Iterator<String> iterator = pendingTouches.iterator();
+        while (iterator.hasNext()) {
+            touches.add(new String[]{"PEXPIRE", KEY_PREFIX + iterator.next(), ttlMillis});
+            iterator.remove();
+        }
+        try {
+            touchClient.pipeline(touches);
+        } catch (RuntimeException e) {
+            /*A lost touch only shortens a session, and the next access touches it again*/
+        }
+    }
+
+    private void cache(String token, Validated validated) {
+        if (!nearCache.containsKey(token) && nearCache.size() >= nearCacheSize) {
+            Iterator<String> iterator = nearCache.keySet().iterator();
+            if (iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+            }
+        }
+        nearCache.put(token, validated);
+    }
+
+    private static final class Validated {
+        private final long clientId;
+        private final long validatedMillis;
+
+        private Validated(long clientId, long validatedMillis) {
+            this.clientId = clientId;
+            this.validatedMillis = validatedMillis;
+        }
+    }
+}
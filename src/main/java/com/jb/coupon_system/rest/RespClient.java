@@ -0,0 +1,250 @@
+package com.jb.coupon_system.rest;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A minimal client of the Redis serialization protocol (RESP) over a small pool of connections.
+ * Commands are sent one at a time or as a pipeline- all written at once, then all replies read,
+ * each on a connection of its own, so as many commands as there are connections are sent at the same time.
+ * Replies are returned as Long, String (simple or bulk), null, or a List of replies,
+ * while error replies are thrown as a RespClient.ErrorReply.
+ * A connection that fails is closed and opened again by the next command sent on it.
+ */
+public class RespClient implements AutoCloseable {
+    private static final int CONNECT_TIMEOUT_MILLIS = 2_000;
+    private static final int READ_TIMEOUT_MILLIS = 2_000;
+    private static final int BORROW_TIMEOUT_MILLIS = 2_000;
+
+    private final String host;
+    private final int port;
+    private final List<Connection> connections;
+    private final BlockingQueue<Connection> idle;
+
+    /**
+     * @param host
+     * @param port
+     * @param poolSize maximal number of connections, each opened when it is first used
+     */
+    public RespClient(String host, int port, int poolSize) {
+        this.host = host;
+        this.port = port;
+        this.connections = new ArrayList<>(poolSize);
+        this.idle = new ArrayBlockingQueue<>(poolSize);
+        for (int i = 0; i < poolSize; i++) {
+            Connection connection = new Connection();
+            connections.add(connection);
+            idle.add(connection);
+        }
+    }
+
+    /**
+     * A method that sends a single command and waits for its reply.
+     *
+     * @param args of the command, the first being its name
+     * @return the reply
+     */
+    public Object call(String... args) {
+        List<String[]> commands = new ArrayList<>(1);
+        commands.add(args);
+        return pipeline(commands).get(0);
+    }
+
+    /**
+     * A method that sends several commands in one write and then reads all of their replies.
+     * Waits for a free connection if all of them are in use.
+     *
+     * @param commands to send, each the args of a single command
+     * @return the replies in the order of the commands
+     */
+    public List<Object> pipeline(List<String[]> commands) {
+        Connection connection;
+        try {
+            connection = idle.poll(BORROW_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(new IOException("Interrupted while waiting for a connection", e));
+        }
+        if (connection == null) {
+            String msg = String.format("No connection was free within %d milliseconds", BORROW_TIMEOUT_MILLIS);
+            throw new UncheckedIOException(new IOException(msg));
+        }
+        try {
+            return connection.pipeline(commands);
+        } finally {
+            idle.add(connection);
+        }
+    }
+
+    @Override
+    public void close() {
+        for (Connection connection : connections) {
+            connection.close();
+        }
+    }
+
+    /**
+     * A single connection, used by one command or pipeline at a time.
+     */
+    private final class Connection {
+        private Socket socket;
+        private InputStream in;
+        private OutputStream out;
+
+        private List<Object> pipeline(List<String[]> commands) {
+            List<Object> replies = new ArrayList<>(commands.size());
+            ErrorReply error = null;
+            try {
+                connectIfClosed();
+                for (String[] args : commands) {
+                    writeCommand(args);
+                }
+                out.flush();
+                for (int i = 0; i < commands.size(); i++) {
+                    try {
+                        replies.add(readReply());
+                    } catch (ErrorReply e) {
+                        /*Read the rest of the replies so the connection can go on being used*/
+                        replies.add(null);
+                        error = error == null ? e : error;
+                    }
+                }
+            } catch (IOException e) {
+                close();
+                throw new UncheckedIOException(e);
+            } catch (RuntimeException e) {
+                /*A malformed reply leaves unread bytes behind, so the connection can't be used anymore*/
+                close();
+                throw e;
+            }
+            if (error != null) {
+                throw error;
+            }
+            return replies;
+        }
+
+        private synchronized void close() {
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    /*Closing anyway*/
+                }
+                socket = null;
+            }
+        }
+
+        private synchronized void connectIfClosed() throws IOException {
+            if (socket == null) {
+                Socket connected = new Socket();
+                connected.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+                connected.setSoTimeout(READ_TIMEOUT_MILLIS);
+                connected.setTcpNoDelay(true);
+                socket = connected;
+                in = new BufferedInputStream(connected.getInputStream());
+                out = new BufferedOutputStream(connected.getOutputStream());
+            }
+        }
+
+        private void writeCommand(String[] args) throws IOException {
+            out.write('*');
+            writeLine(Integer.toString(args.length).getBytes(StandardCharsets.US_ASCII));
+            for (String arg : args) {
+                byte[] bytes = arg.getBytes(StandardCharsets.UTF_8);
+                out.write('$');
+                writeLine(Integer.toString(bytes.length).getBytes(StandardCharsets.US_ASCII));
+                writeLine(bytes);
+            }
+        }
+
+        private void writeLine(byte[] bytes) throws IOException {
+            out.write(bytes);
+            out.write('\r');
+            out.write('\n');
+        }
+
+        private Object readReply() throws IOException {
+            int type = in.read();
+            switch (type) {
+                case '+':
+                    return readLine();
+                case '-':
+                    throw new ErrorReply(readLine());
+                case ':':
+                    return Long.parseLong(readLine());
+                case '$': {
+                    int length = Integer.parseInt(readLine());
+                    if (length < 0) {
+                        return null;
+                    }
+                    byte[] bytes = in.readNBytes(length);
+                    if (bytes.length < length || in.read() != '\r' || in.read() != '\n') {
+                        throw new IOException("Connection closed in the middle of a reply");
+                    }
+                    return new String(bytes, StandardCharsets.UTF_8);
+                }
+                case '*': {
+                    int length = Integer.parseInt(readLine());
+                    if (length < 0) {
+                        return null;
+                    }
+                    List<Object> replies = new ArrayList<>(length);
+                    ErrorReply error = null;
+                    for (int i = 0; i < length; i++) {
+                        try {
+                            replies.add(readReply());
+                        } catch (ErrorReply e) {
+                            /*Read the rest of the array so the replies after it are read from where they start*/
+                            replies.add(null);
+                            error = error == null ? e : error;
+                        }
+                    }
+                    if (error != null) {
+                        throw error;
+                    }
+                    return replies;
+                }
+                case -1:
+                    throw new IOException("Connection closed by the server");
+                default:
+                    throw new IOException(String.format("Unknown reply type %c", (char) type));
+            }
+        }
+
+        private String readLine() throws IOException {
+            StringBuilder line = new StringBuilder();
+            int c;
+            while ((c = in.read()) != '\r') {
+                if (c == -1) {
+                    throw new IOException("Connection closed in the middle of a reply");
+                }
+                line.append((char) c);
+            }
+            if (in.read() != '\n') {
+                throw new IOException("Malformed reply line");
+            }
+            return line.toString();
+        }
+    }
+
+    /**
+     * An error reply sent by the server in response to a command.
+     */
+    public static class ErrorReply extends RuntimeException {
+        public ErrorReply(String msg) {
+            super(msg);
+        }
+    }
+}
@@ -1,18 +1,36 @@
 package com.jb.coupon_system.rest;
 
-import org.springframework.context.annotation.Bean;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.web.method.support.HandlerMethodArgumentResolver;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
+
+import static com.jb.coupon_system.common.LoginType.*;
 
 @Configuration
 @EnableScheduling
-public class RestConfiguration {
+public class RestConfiguration implements WebMvcConfigurer {
+    private final SessionStore sessionStore;
+
+    @Autowired
+    public RestConfiguration(SessionStore sessionStore) {
+        this.sessionStore = sessionStore;
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        /*Every LoginType's paths only accept its own tokens*/
+        registry.addInterceptor(new SessionInterceptor(sessionStore, ADMIN)).addPathPatterns("/api/admin/**");
+        registry.addInterceptor(new SessionInterceptor(sessionStore, COMPANY)).addPathPatterns("/api/companies/**");
+        registry.addInterceptor(new SessionInterceptor(sessionStore, CUSTOMER)).addPathPatterns("/api/customers/**");
+    }
 
-    @Bean(name = "tokens")
-    public Map<String, ClientSession> tokensMap() {
-        return new HashMap<>();
+    @Override
+    public void addArgumentResolvers(List<HandlerMethodArgumentResolver> resolvers) {
+        resolvers.add(new ClientIdArgumentResolver());
     }
 }
@@ -5,18 +5,17 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
-import java.util.Map;
-
 @Component
 public class ScheduledCleanUp {
-    private static final long HALF_AN_HOUR = 1_800_000;
 
-    private final Map<String, ClientSession> tokensMap;
+    private final SessionStore sessionStore;
+    private final SessionMetrics sessionMetrics;
     private CouponRepository couponRepo;
 
     @Autowired
-    public ScheduledCleanUp(Map<String, ClientSession> tokensMap, CouponRepository couponRepo) {
-        this.tokensMap = tokensMap;
+    public ScheduledCleanUp(SessionStore sessionStore, SessionMetrics sessionMetrics, CouponRepository couponRepo) {
+        this.sessionStore = sessionStore;
+        this.sessionMetrics = sessionMetrics;
         this.couponRepo = couponRepo;
     }
 
@@ -27,7 +26,8 @@ public class ScheduledCleanUp {
 
     @Scheduled(initialDelayString = "${initial.delay.delete.expired.tokens}", fixedRateString = "${rate.delete.expired.tokens}")
     private void deleteExpiredTokens() {
-        long now = System.currentTimeMillis();
-        tokensMap.keySet().removeIf(key -> now - tokensMap.get(key).getLastAccessedMillis() > HALF_AN_HOUR);
+        long start = System.nanoTime();
+        sessionStore.removeExpired();
+        sessionMetrics.cleanedUp(System.nanoTime() - start);
     }
 }
\ No newline at end of file
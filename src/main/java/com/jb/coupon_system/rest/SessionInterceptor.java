@@ -0,0 +1,47 @@
+package com.jb.coupon_system.rest;
+
+import com.jb.coupon_system.common.LoginType;
+import com.jb.coupon_system.rest.ex.InvalidLoginException;
+import org.springframework.web.cors.CorsUtils;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * An interceptor guarding the paths of a single LoginType, resolving the session of every request once,
+ * before its handler's arguments (and body) are even read.
+ * A token not starting with the name of the LoginType is rejected by its prefix alone, without looking it up in the session store.
+ * The id of the client is left as a request attribute, for the ClientIdArgumentResolver to hand to the handler.
+ */
+public class SessionInterceptor implements HandlerInterceptor {
+    static final String CLIENT_ID_ATTRIBUTE = SessionInterceptor.class.getName() + ".clientId";
+
+    private final SessionStore sessionStore;
+    private final LoginType loginType;
+    private final String prefix;
+
+    public SessionInterceptor(SessionStore sessionStore, LoginType loginType) {
+        this.sessionStore = sessionStore;
+        this.loginType = loginType;
+        this.prefix = loginType.name() + "_";
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws InvalidLoginException {
+        /*CORS preflight requests carry no token*/
+        if (CorsUtils.isPreFlightRequest(request)) {
+            return true;
+        }
+
+        String token = request.getParameter("token");
+        if (token == null || !token.startsWith(prefix)) {
+            String msg = String.format("You cannot perform %s functions with %s token!", loginType, token);
+            throw new InvalidLoginException(msg);
+        }
+
+        long clientId = sessionStore.accessAndGetClientIdOrThrow(token);
+        request.setAttribute(CLIENT_ID_ATTRIBUTE, clientId);
+        return true;
+    }
+}
@@ -0,0 +1,110 @@
+package com.jb.coupon_system.rest;
+
+import com.jb.coupon_system.common.LoginType;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+
+/**
+ * The metrics of the session store, all tagged by login.type where it is known:
+ * sessions.opened, sessions.closed and sessions.expired count logins, logouts and expirations,
+ * sessions.lifetime is the time from login to logout or expiry, sessions.cleanup the time taken by every cleanup pass,
+ * and sessions.active the sessions currently open.
+ * Only a store that sees its sessions expire can count the open ones, so only such a store registers the gauges.
+ * Likewise, a lifetime is only recorded when the store knows when the session was opened.
+ */
+@Component
+public class SessionMetrics {
+    private static final String LOGIN_TYPE = "login.type";
+
+    private final MeterRegistry meterRegistry;
+    private final Map<LoginType, Counter> opened = new EnumMap<>(LoginType.class);
+    private final Map<LoginType, Counter> closed = new EnumMap<>(LoginType.class);
+    private final Map<LoginType, Counter> expired = new EnumMap<>(LoginType.class);
+    private final Timer lifetime;
+    private final Timer cleanup;
+
+    @Autowired
+    public SessionMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        for (LoginType loginType : LoginType.values()) {
+            opened.put(loginType, counter("sessions.opened", "Sessions opened by logging in", loginType));
+            closed.put(loginType, counter("sessions.closed", "Sessions closed by logging out", loginType));
+            expired.put(loginType, counter("sessions.expired", "Sessions removed once they expired", loginType));
+        }
+        this.lifetime = Timer.builder("sessions.lifetime")
+                .description("Time from opening a session to its logout or expiry")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+        this.cleanup = Timer.builder("sessions.cleanup")
+                .description("Time taken by a pass removing the expired sessions")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+    }
+
+    /**
+     * A method used by a store that knows how many sessions it holds, registering a sessions.active gauge per LoginType.
+     *
+     * @param activeSessions the number of open sessions of a LoginType
+     */
+    public void registerActive(ToLongFunction<LoginType> activeSessions) {
+        for (LoginType loginType : LoginType.values()) {
+            Gauge.builder("sessions.active", activeSessions, counts -> counts.applyAsLong(loginType))
+                    .description("Sessions currently open")
+                    .tag(LOGIN_TYPE, loginType.name())
+                    .strongReference(true)
+                    .register(meterRegistry);
+        }
+    }
+
+    public void opened(LoginType loginType) {
+        opened.get(loginType).increment();
+    }
+
+    /**
+     * @param loginType      of the session, or null if the token did not start with one
+     * @param lifetimeMillis of the session, or a negative number if it is not known
+     */
+    public void closed(LoginType loginType, long lifetimeMillis) {
+        if (loginType != null) {
+            closed.get(loginType).increment();
+        }
+        recordLifetime(lifetimeMillis);
+    }
+
+    /**
+     * @param loginType      of the session, or null if the token did not start with one
+     * @param lifetimeMillis of the session, or a negative number if it is not known
+     */
+    public void expired(LoginType loginType, long lifetimeMillis) {
+        if (loginType != null) {
+            expired.get(loginType).increment();
+        }
+        recordLifetime(lifetimeMillis);
+    }
+
+    public void cleanedUp(long nanos) {
+        cleanup.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void recordLifetime(long lifetimeMillis) {
+        if (lifetimeMillis >= 0) {
+            lifetime.record(lifetimeMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private Counter counter(String name, String description, LoginType loginType) {
+        return Counter.builder(name)
+                .description(description)
+                .tag(LOGIN_TYPE, loginType.name())
+                .register(meterRegistry);
+    }
+}
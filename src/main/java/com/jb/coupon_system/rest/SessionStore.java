@@ -0,0 +1,43 @@
+package com.jb.coupon_system.rest;
+
+import com.jb.coupon_system.common.LoginType;
+import com.jb.coupon_system.rest.ex.InvalidLoginException;
+
+/**
+ * The sessions of logged in clients, identified by the tokens handed out at login.
+ * Which implementation is used is set by the session.store property.
+ */
+public interface SessionStore {
+
+    /**
+     * A method that opens a session for a client that has just logged in.
+     *
+     * @param loginType of the client
+     * @param session   of the client
+     * @return the token identifying the session, starting with the name of the loginType
+     */
+    String open(LoginType loginType, ClientSession session);
+
+    /**
+     * A method used in the verification process of every request made with a token,
+     * marking the session as accessed and returning the id of its client.
+     *
+     * @param token
+     * @return id of the logged in ADMIN, COMPANY or CUSTOMER
+     * @throws InvalidLoginException If the token does not identify a live session.
+     */
+    long accessAndGetClientIdOrThrow(String token) throws InvalidLoginException;
+
+    /**
+     * A method that closes the session of a token, as done when the client logs out.
+     *
+     * @param token
+     * @throws InvalidLoginException If the token does not identify a live session.
+     */
+    void close(String token) throws InvalidLoginException;
+
+    /**
+     * A method that removes the sessions that expired since the last time it was called.
+     */
+    void removeExpired();
+}
@@ -0,0 +1,175 @@
+package com.jb.coupon_system.rest;
+
+import com.jb.coupon_system.common.CoarseClock;
+import com.jb.coupon_system.common.LoginType;
+import com.jb.coupon_system.rest.ex.InvalidLoginException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Base64;
+
+/**
+ * A session store that keeps no sessions at all- every token carries its own session, signed with HMAC-SHA256.
+ * A token is the login type, an underscore, the client id and expiry time as fixed width hex digits,
+ * followed by the first half of the signature of everything before it, also in hex.
+ * Verifying a token is pure CPU work that any node sharing the signing key can do, without allocating.
+ * As nothing is kept, a session expires a session ttl after login however often it is accessed,
+ * and logging out cannot revoke a token before it expires.
+ * A signing key left empty is generated at startup, which only works for a single node.
+ */
+@Component
+@ConditionalOnProperty(name = "session.store", havingValue = "signed")
+public class SignedSessionStore implements SessionStore {
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int ID_DIGITS = 16;
+    private static final int EXPIRY_DIGITS = 12;
+    private static final int SIGNATURE_BYTES = 16;
+    private static final int SIGNATURE_DIGITS = SIGNATURE_BYTES * 2;
+    private static final int MAX_SIGNED_LENGTH = 64;
+
+    private final SecretKeySpec key;
+    private final ThreadLocal<Signer> signers;
+    private final SessionMetrics metrics;
+    private final long ttlMillis;
+
+    @Autowired
+    public SignedSessionStore(SessionMetrics metrics, @Value("${session.signing-key}") String signingKey, @Value("${session.ttl}") Duration ttl) {
+        this.metrics = metrics;
+        byte[] keyBytes;
+        if (signingKey.isEmpty()) {
+            keyBytes = new byte[32];
+            new SecureRandom().nextBytes(keyBytes);
+        } else {
+            keyBytes = Base64.getDecoder().decode(signingKey);
+        }
+        this.key = new SecretKeySpec(keyBytes, ALGORITHM);
+        this.signers = ThreadLocal.withInitial(() -> new Signer(key));
+        this.ttlMillis = ttl.toMillis();
+    }
+
+    @Override
+    public String open(LoginType loginType, ClientSession session) {
+        long expiresMillis = CoarseClock.millis() + ttlMillis;
+        String signed = String.format("%s_%016x%012x", loginType.name(), session.getClientId(), expiresMillis);
+        byte[] signature = signers.get().sign(signed, signed.length());
+
+        StringBuilder token = new StringBuilder(signed.length() + SIGNATURE_DIGITS).append(signed);
+        for (int i = 0; i < SIGNATURE_BYTES; i++) {
+            token.append(Character.forDigit((signature[i] >> 4) & 0xf, 16))
+                    .append(Character.forDigit(signature[i] & 0xf, 16));
+        }
+        metrics.opened(loginType);
+        return token.toString();
+    }
+
+    @Override
+    public long accessAndGetClientIdOrThrow(String token) throws InvalidLoginException {
+        /*Make sure the token is laid out as a signed token*/
+        int signedLength = token.length() - SIGNATURE_DIGITS;
+        int idStart = token.indexOf('_') + 1;
+        if (idStart == 0 || signedLength - idStart != ID_DIGITS + EXPIRY_DIGITS || signedLength > MAX_SIGNED_LENGTH) {
+            throw new InvalidLoginException("There's a problem with the token being used!");
+        }
+
+        /*Make sure the token was signed with our key and has not been changed since*/
+        if (!signers.get().verify(token, signedLength)) {
+            throw new InvalidLoginException("There's a problem with the token being used!");
+        }
+
+        long clientId = parseHex(token, idStart, ID_DIGITS);
+        long expiresMillis = parseHex(token, idStart + ID_DIGITS, EXPIRY_DIGITS);
+        if (expiresMillis <= CoarseClock.millis()) {
+            throw new InvalidLoginException("The token being used has expired!");
+        }
+        return clientId;
+    }
+
+    @Override
+    public void close(String token) throws InvalidLoginException {
+        /*Nothing is kept, so all there is to do is make sure the token is valid*/
+        accessAndGetClientIdOrThrow(token);
+        long expiresMillis = parseHex(token, token.indexOf('_') + 1 + ID_DIGITS, EXPIRY_DIGITS);
+        metrics.closed(LoginType.ofToken(token), CoarseClock.millis() - (expiresMillis - ttlMillis));
+    }
+
+    @Override
+    public void removeExpired() {
+        /*Nothing is kept*/
+    }
+
+    /**
+     * A method that parses hex digits that were already verified by the signature.
+     */
+    private static long parseHex(String token, int start, int digits) {
+        long value = 0;
+        for (int i = start; i < start + digits; i++) {
+            value = (value << 4) | Character.digit(token.charAt(i), 16);
+        }
+        return value;
+    }
+
+    /**
+     * The Mac and buffers of a single thread, reused by every token the thread signs or verifies.
+     */
+    private static final class Signer {
+        private final Mac mac;
+        private final byte[] signed = new byte[MAX_SIGNED_LENGTH];
+        private final byte[] signature;
+
+        private Signer(SecretKeySpec key) {
+            try {
+                this.mac = Mac.getInstance(ALGORITHM);
+                this.mac.init(key);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+            this.signature = new byte[mac.getMacLength()];
+        }
+
+        /**
+         * @return the signature of the first length chars of the token, in a buffer that is reused by the next call.
+         */
+        private byte[] sign(String token, int length) {
+            for (int i = 0; i < length; i++) {
+                signed[i] = (byte) token.charAt(i);
+            }
+            mac.update(signed, 0, length);
+            try {
+                mac.doFinal(signature, 0);
+            } catch (ShortBufferException e) {
+                throw new IllegalStateException(e);
+            }
+            return signature;
+        }
+
+        /**
+         * @return true if the hex digits after the first signedLength chars of the token are their signature.
+         */
+        private boolean verify(String token, int signedLength) {
+            for (int i = 0; i < signedLength; i++) {
+                if (token.charAt(i) > 0x7f) {
+                    return false;
+                }
+            }
+            byte[] expected = sign(token, signedLength);
+
+            /*Compare every byte whatever the differences, so the time taken tells nothing about the signature*/
+            int difference = 0;
+            for (int i = 0; i < SIGNATURE_BYTES; i++) {
+                int high = Character.digit(token.charAt(signedLength + 2 * i), 16);
+                int low = Character.digit(token.charAt(signedLength + 2 * i + 1), 16);
+                difference |= (high | low) >>> 31;
+                difference |= (expected[i] ^ (high << 4 | low)) & 0xff;
+            }
+            return difference == 0;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.jb.coupon_system.rest;
+
+import com.jb.coupon_system.common.LoginType;
+import org.springframework.stereotype.Component;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+/**
+ * A generator of the random tokens handed out by session stores that keep their sessions.
+ * A token is the login type, an underscore and 128 random bits written as 22 URL-safe base64 chars.
+ * Every thread draws its bits from a DRBG of its own, seeded once, and writes the token into a buffer of its own,
+ * so logins made at the same time neither wait for each other nor allocate anything but the token itself.
+ */
+@Component
+public class TokenGenerator {
+    private static final char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+    private static final int RANDOM_BYTES = 16;
+    private static final int RANDOM_CHARS = (RANDOM_BYTES * 8 + 5) / 6;
+    private static final int MAX_PREFIX_LENGTH = maxPrefixLength();
+
+    private final ThreadLocal<Buffers> buffers = ThreadLocal.withInitial(Buffers::new);
+
+    /**
+     * A method that creates a specified login type token.
+     *
+     * @param loginType
+     * @return token
+     */
+    public String generate(LoginType loginType) {
+        Buffers buffers = this.buffers.get();
+        byte[] random = buffers.random;
+        char[] token = buffers.token;
+
+        String name = loginType.name();
+        name.getChars(0, name.length(), token, 0);
+        int length = name.length();
+        token[length++] = '_';
+
+        buffers.secureRandom.nextBytes(random);
+        /*Write the bits 6 at a time, the last char taking the 2 bits left over*/
+        int bits = 0;
+        int bitCount = 0;
+        for (byte b : random) {
+            bits = (bits << 8) | (b & 0xff);
+            bitCount += 8;
+            while (bitCount >= 6) {
+                bitCount -= 6;
+                token[length++] = ALPHABET[(bits >>> bitCount) & 0x3f];
+            }
+        }
+        if (bitCount > 0) {
+            token[length++] = ALPHABET[(bits << (6 - bitCount)) & 0x3f];
+        }
+        return new String(token, 0, length);
+    }
+
+    private static int maxPrefixLength() {
+        int max = 0;
+        for (LoginType loginType : LoginType.values()) {
+            max = Math.max(max, loginType.name().length() + 1);
+        }
+        return max;
+    }
+
+    /**
+     * The random source and buffers of a single thread, reused by every token the thread generates.
+     */
+    private static final class Buffers {
+        private final SecureRandom secureRandom;
+        private final byte[] random = new byte[RANDOM_BYTES];
+        private final char[] token = new char[MAX_PREFIX_LENGTH + RANDOM_CHARS];
+
+        private Buffers() {
+            try {
+                this.secureRandom = SecureRandom.getInstance("DRBG");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -7,58 +7,207 @@ import com.jb.coupon_system.data.entity.Customer;
 import com.jb.coupon_system.data.repo.CompanyRepository;
 import com.jb.coupon_system.data.repo.CustomerRepository;
 import com.jb.coupon_system.rest.ex.InvalidLoginException;
+import com.jb.coupon_system.rest.ex.TooManyAttemptsException;
+import com.jb.coupon_system.service.PasswordHasher;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
+/**
+ * The system logging users in. Passwords are verified against their hashes on a bounded executor of its own,
+ * so the cost of hashing is paid by its threads and never by the servlet threads serving everything else.
+ * A login that cannot be queued, or is not verified within the login latency budget, is turned away as too many attempts.
+ */
 @Service
 public class UserSystem {
     private final CustomerRepository customerRepo;
     private final CompanyRepository companyRepo;
+    private final LoginThrottle loginThrottle;
+    private final PasswordHasher passwordHasher;
+    private final ThreadPoolExecutor verifier;
+    private final long latencyBudgetMillis;
+    private final Timer latency;
 
     @Autowired
-    public UserSystem(CustomerRepository customerRepo, CompanyRepository companyRepo) {
+    public UserSystem(CustomerRepository customerRepo, CompanyRepository companyRepo, LoginThrottle loginThrottle,
+                      PasswordHasher passwordHasher, MeterRegistry meterRegistry,
+                      @Value("${login.verify.threads}") int verifyThreads,
+                      @Value("${login.verify.queue-size}") int verifyQueueSize,
+                      @Value("${login.latency-budget}") Duration latencyBudget) {
         this.customerRepo = customerRepo;
         this.companyRepo = companyRepo;
+        this.loginThrottle = loginThrottle;
+        this.passwordHasher = passwordHasher;
+        this.latencyBudgetMillis = latencyBudget.toMillis();
+        AtomicInteger threadCount = new AtomicInteger();
+        this.verifier = new ThreadPoolExecutor(verifyThreads, verifyThreads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(verifyQueueSize), runnable -> {
+            Thread thread = new Thread(runnable, "login-verifier-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.AbortPolicy());
+        this.latency = Timer.builder("login.latency")
+                .description("Time taken to login, whether or not it succeeded")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        verifier.shutdownNow();
     }
 
     /**
-     * A method with the purpose of logging a user into the system using the relevant credentials and loginType
+     * A method with the purpose of logging a user into the system using the relevant credentials and loginType.
+     * Attempts are first passed through the LoginThrottle, so only the ones worth checking reach the data base.
      *
      * @param email
      * @param password
      * @param loginType
+     * @param address   of the client logging in
      * @return the relevant ClientSession
-     * @throws InvalidLoginException
+     * @throws InvalidLoginException    If the credentials are wrong.
+     * @throws TooManyAttemptsException If too many failed attempts were made with the email or from the address,
+     *                                  or too many logins are being verified to verify this one within the latency budget.
      */
-    public ClientSession createSession(String email, String password, LoginType loginType) throws InvalidLoginException {
+    public ClientSession createSession(String email, String password, LoginType loginType, String address) throws InvalidLoginException, TooManyAttemptsException {
+        long start = System.nanoTime();
+        try {
+            return throttledSession(email, password, loginType, address);
+        } finally {
+            latency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * A method that checks a customer's credentials exactly as a login does- throttled, and verified on the verifier threads-
+     * without creating a session.
+     *
+     * @param email
+     * @param password
+     * @param address  of the client checking the credentials
+     * @return the id of the customer
+     * @throws InvalidLoginException    If the credentials are wrong.
+     * @throws TooManyAttemptsException As thrown by createSession.
+     */
+    public long verifyCustomer(String email, String password, String address) throws InvalidLoginException, TooManyAttemptsException {
+        return createSession(email, password, LoginType.CUSTOMER, address).getClientId();
+    }
+
+    private ClientSession throttledSession(String email, String password, LoginType loginType, String address) throws InvalidLoginException, TooManyAttemptsException {
+
+        switch (loginThrottle.check(loginType, email, password, address)) {
+            case THROTTLED:
+                String msg = String.format("Too many failed attempts to login with email = %s, try again later", email);
+                throw new TooManyAttemptsException(msg);
+
+            case KNOWN_BAD:
+                loginThrottle.recordFailure(loginType, email, password, address);
+                return throwWrongCredentials(email, password);
+
+            default:
+                try {
+                    return verifyWithinBudget(email, password, loginType);
+                } catch (InvalidLoginException e) {
+                    loginThrottle.recordFailure(loginType, email, password, address);
+                    throw e;
+                }
+        }
+    }
+
+    /**
+     * A method that hands the credential check to the verifier threads and waits for it for up to the latency budget.
+     */
+    private ClientSession verifyWithinBudget(String email, String password, LoginType loginType) throws InvalidLoginException, TooManyAttemptsException {
+        String msg = String.format("Too many logins are being verified, try again later with email = %s", email);
+        Future<ClientSession> future;
+        try {
+            future = verifier.submit(() -> checkCredentials(email, password, loginType));
+        } catch (RejectedExecutionException e) {
+            throw new TooManyAttemptsException(msg);
+        }
+
+        try {
+            return future.get(latencyBudgetMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof InvalidLoginException) {
+                throw (InvalidLoginException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw new TooManyAttemptsException(msg);
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new TooManyAttemptsException(msg);
+        }
+    }
+
+    private ClientSession checkCredentials(String email, String password, LoginType loginType) throws InvalidLoginException {
 
         switch (loginType) {
             case ADMIN:
                 Optional<Integer> optAdmin = Admin.getAdminByEmailAndPassword(email, password);
                 if (optAdmin.isPresent()) {
                     return ClientSession.create(optAdmin.get());
-                } else {
-                    throwWrongCredentials(email, password);
                 }
+                return throwWrongCredentials(email, password);
 
             case COMPANY:
-                Optional<Company> optCompany = companyRepo.findCompanyByEmailAndPassword(email, password);
+                /*Company emails are not unique, so check the password of every company using the email*/
+                List<Company> companies = companyRepo.findAllByEmail(email);
+                if (companies.isEmpty()) {
+                    /*Take as long as a wrong password would, so unknown emails cannot be told apart*/
+                    passwordHasher.matchesNone(password);
+                }
+                Optional<Company> optCompany = companies.stream()
+                        .filter(company -> passwordHasher.matches(password, company.getPassword()))
+                        .findFirst();
                 if (optCompany.isPresent()) {
-                    return ClientSession.create(optCompany.get().getId());
-                } else {
-                    throwWrongCredentials(email, password);
+                    Company company = optCompany.get();
+                    if (passwordHasher.needsRehash(company.getPassword())) {
+                        companyRepo.updatePassword(company.getId(), passwordHasher.hash(password));
+                    }
+                    return ClientSession.create(company.getId());
                 }
+                return throwWrongCredentials(email, password);
 
             case CUSTOMER:
-                Optional<Customer> optCustomer = customerRepo.findCustomerByEmailAndPassword(email, password);
+                Optional<Customer> optFound = customerRepo.findCustomerByEmail(email);
+                if (optFound.isEmpty()) {
+                    /*Take as long as a wrong password would, so unknown emails cannot be told apart*/
+                    passwordHasher.matchesNone(password);
+                }
+                Optional<Customer> optCustomer = optFound
+                        .filter(customer -> passwordHasher.matches(password, customer.getPassword()));
                 if (optCustomer.isPresent()) {
-                    return ClientSession.create(optCustomer.get().getId());
-                } else {
-                    throwWrongCredentials(email, password);
+                    Customer customer = optCustomer.get();
+                    if (passwordHasher.needsRehash(customer.getPassword())) {
+                        customerRepo.updatePassword(customer.getId(), passwordHasher.hash(password));
+                    }
+                    return ClientSession.create(customer.getId());
                 }
+                return throwWrongCredentials(email, password);
 
             default:
                 return throwWrongCredentials(email, password);
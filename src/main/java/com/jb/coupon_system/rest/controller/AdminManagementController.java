@@ -1,28 +1,38 @@
 package com.jb.coupon_system.rest.controller;
 
-import com.jb.coupon_system.common.ResourceUtils;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.jb.coupon_system.data.entity.Company;
 import com.jb.coupon_system.data.entity.Coupon;
 import com.jb.coupon_system.data.entity.Customer;
-import com.jb.coupon_system.rest.ClientSession;
+import com.jb.coupon_system.data.projection.CouponView;
+import com.jb.coupon_system.rest.IdempotencyCache;
+import com.jb.coupon_system.rest.Paging;
+import com.jb.coupon_system.rest.ex.IdempotencyKeyReusedException;
+import com.jb.coupon_system.rest.ex.InvalidCursorException;
 import com.jb.coupon_system.rest.ex.InvalidLoginException;
+import com.jb.coupon_system.rest.ex.RequestInProgressException;
 import com.jb.coupon_system.service.AdminService;
+import com.jb.coupon_system.service.BulkExport;
 import com.jb.coupon_system.service.CompanyService;
 import com.jb.coupon_system.service.CustomerService;
 import com.jb.coupon_system.service.ex.*;
+import com.jb.coupon_system.service.model.CustomerCoupon;
+import com.jb.coupon_system.service.model.PurchaseResult;
+import com.jb.coupon_system.service.model.ReturnResult;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
 import java.time.LocalDateTime;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 import java.util.Optional;
 
-import static com.jb.coupon_system.common.LoginType.ADMIN;
-
 @CrossOrigin("http://localhost:4200")
 @RestController
 @RequestMapping("/api")
@@ -31,36 +41,33 @@ public class AdminManagementController {
     private final AdminService adminService;
     private final CompanyService companyService;
     private final CustomerService customerService;
-    private final Map<String, ClientSession> tokensMap;
+    private final IdempotencyCache idempotencyCache;
+    private final Paging paging;
+    private final BulkExport bulkExport;
+    private final ObjectMapper objectMapper;
 
     @Autowired
-    public AdminManagementController(AdminService adminService, CompanyService companyService, CustomerService customerService, @Qualifier("tokens") Map<String, ClientSession> tokensMap) {
+    public AdminManagementController(AdminService adminService, CompanyService companyService, CustomerService customerService,
+                                     IdempotencyCache idempotencyCache, Paging paging, BulkExport bulkExport, ObjectMapper objectMapper) {
         this.adminService = adminService;
         this.companyService = companyService;
         this.customerService = customerService;
-        this.tokensMap = tokensMap;
+        this.idempotencyCache = idempotencyCache;
+        this.paging = paging;
+        this.bulkExport = bulkExport;
+        this.objectMapper = objectMapper;
     }
 
     /*Admin specified requests:*/
     @PostMapping("/admin/companies/add")
-    public ResponseEntity<Company> saveCompany(@RequestBody Company company, @RequestParam String token) throws DuplicateEntryException, InvalidLoginException {
-
-        verifyTokensLoginTypeOrThrow(token);
-
-        ResourceUtils.accessAndGetIdFromClientSessionOrThrow(tokensMap.get(token));
-
+    public ResponseEntity<Company> saveCompany(@RequestBody Company company) throws DuplicateEntryException {
         Optional<Company> optCompany = adminService.saveCompany(company);
 
         return optCompany.map(ResponseEntity::ok).orElseGet(() -> ResponseEntity.noContent().build());
     }
 
     @PostMapping("/admin/companies/update")
-    public ResponseEntity<Company> updateCompany(@RequestBody Company company, @RequestParam String token) throws DuplicateEntryException, InvalidLoginException, NoSuchIdException {
-
-        verifyTokensLoginTypeOrThrow(token);
-
-        ResourceUtils.accessAndGetIdFromClientSessionOrThrow(tokensMap.get(token));
-
+    public ResponseEntity<Company> updateCompany(@RequestBody Company company) throws DuplicateEntryException, NoSuchIdException {
         Optional<Company> optCompany = adminService.updateCompany(company);
 
         optCompany.orElseThrow();
@@ -69,62 +76,38 @@ public class AdminManagementController {
     }
 
     @DeleteMapping("/admin/companies/{id}")
-    public ResponseEntity<Void> deleteCompanyById(@PathVariable long id, @RequestParam String token) throws InvalidLoginException, NoSuchIdException {
-
-        verifyTokensLoginTypeOrThrow(token);
-
-        ResourceUtils.accessAndGetIdFromClientSessionOrThrow(tokensMap.get(token));
-
+    public ResponseEntity<Void> deleteCompanyById(@PathVariable long id) throws NoSuchIdException {
         adminService.deleteCompanyById(id);
 
         return ResponseEntity.ok().build();
     }
 
     @GetMapping("/admin/companies/{id}")
-    public ResponseEntity<Company> getCompanyById(@PathVariable long id, @RequestParam String token) throws InvalidLoginException {
-
-        verifyTokensLoginTypeOrThrow(token);
-
-        ResourceUtils.accessAndGetIdFromClientSessionOrThrow(tokensMap.get(token));
-
+    public ResponseEntity<Company> getCompanyById(@PathVariable long id) {
         Optional<Company> optCompany = adminService.getCompanyById(id);
 
         return optCompany.map(ResponseEntity::ok).orElseGet(() -> ResponseEntity.noContent().build());
     }
 
     @GetMapping("/admin/companies")
-    public ResponseEntity<List<Company>> getAllCompanies(@RequestParam String token) throws InvalidLoginException {
-
-        verifyTokensLoginTypeOrThrow(token);
+    public ResponseEntity<List<Company>> getAllCompanies(@RequestParam(required = false) String cursor,
+                                                         @RequestParam(required = false) Integer size) throws InvalidCursorException {
+        Paging.Page page = paging.page(cursor, size);
 
-        ResourceUtils.accessAndGetIdFromClientSessionOrThrow(tokensMap.get(token));
+        List<Company> companies = adminService.getAllCompanies(page.afterId(), page.limit());
 
-        List<Company> companies = adminService.getAllCompanies();
-        if (companies != null && !companies.isEmpty()) {
-            return ResponseEntity.ok(companies);
-        }
-        return ResponseEntity.noContent().build();
+        return paging.respond(companies, page, Company::getId);
     }
 
     @PostMapping("/admin/customers/add")
-    public ResponseEntity<Customer> saveCustomer(@RequestBody Customer customer, @RequestParam String token) throws DuplicateEntryException, InvalidLoginException {
-
-        verifyTokensLoginTypeOrThrow(token);
-
-        ResourceUtils.accessAndGetIdFromClientSessionOrThrow(tokensMap.get(token));
-
+    public ResponseEntity<Customer> saveCustomer(@RequestBody Customer customer) throws DuplicateEntryException {
         Optional<Customer> optCustomer = adminService.saveCustomer(customer);
 
         return optCustomer.map(ResponseEntity::ok).orElseGet(() -> ResponseEntity.noContent().build());
     }
 
     @PostMapping("/admin/customers/update")
-    public ResponseEntity<Customer> updateCustomer(@RequestBody Customer customer, @RequestParam String token) throws DuplicateEntryException, InvalidLoginException, NoSuchIdException {
-
-        verifyTokensLoginTypeOrThrow(token);
-
-        ResourceUtils.accessAndGetIdFromClientSessionOrThrow(tokensMap.get(token));
-
+    public ResponseEntity<Customer> updateCustomer(@RequestBody Customer customer) throws DuplicateEntryException, NoSuchIdException {
         Optional<Customer> optCustomer = adminService.updateCustomer(customer);
 
         optCustomer.orElseThrow();
@@ -133,233 +116,220 @@ public class AdminManagementController {
     }
 
     @DeleteMapping("/admin/customers/{id}")
-    public ResponseEntity<Void> deleteCustomerById(@PathVariable long id, @RequestParam String token) throws InvalidLoginException, NoSuchIdException {
-
-        verifyTokensLoginTypeOrThrow(token);
-
-        ResourceUtils.accessAndGetIdFromClientSessionOrThrow(tokensMap.get(token));
-
+    public ResponseEntity<Void> deleteCustomerById(@PathVariable long id) throws NoSuchIdException {
         adminService.deleteCustomerById(id);
 
         return ResponseEntity.ok().build();
     }
 
     @GetMapping("/admin/customers/{id}")
-    public ResponseEntity<Customer> getCustomerById(@PathVariable long id, @RequestParam String token) throws InvalidLoginException {
-
-        verifyTokensLoginTypeOrThrow(token);
-
-        ResourceUtils.accessAndGetIdFromClientSessionOrThrow(tokensMap.get(token));
-
+    public ResponseEntity<Customer> getCustomerById(@PathVariable long id) {
         Optional<Customer> optCustomer = adminService.getCustomerById(id);
 
         return optCustomer.map(ResponseEntity::ok).orElseGet(() -> ResponseEntity.noContent().build());
     }
 
     @GetMapping("/admin/customers")
-    public ResponseEntity<List<Customer>> getAllCustomers(@RequestParam String token) throws InvalidLoginException {
+    public ResponseEntity<List<Customer>> getAllCustomers(@RequestParam(required = false) String cursor,
+                                                          @RequestParam(required = false) Integer size) throws InvalidCursorException {
+        Paging.Page page = paging.page(cursor, size);
 
-        verifyTokensLoginTypeOrThrow(token);
+        List<Customer> customers = adminService.getAllCustomers(page.afterId(), page.limit());
 
-        ResourceUtils.accessAndGetIdFromClientSessionOrThrow(tokensMap.get(token));
-
-        List<Customer> customers = adminService.getAllCustomers();
-        if (customers != null && !customers.isEmpty()) {
-            return ResponseEntity.ok(customers);
-        }
-        return ResponseEntity.noContent().build();
+        return paging.respond(customers, page, Customer::getId);
     }
 
-    /*Company specified requests:*/
-    @PostMapping("/admin/companies/coupons/add")
-    public ResponseEntity<Coupon> saveCompanyCoupon(@RequestBody Coupon coupon, @RequestParam String token, @RequestParam long companyId) throws DuplicateEntryException, InvalidLoginException {
+    /*Exports of whole tables, written as they are read:*/
+    @GetMapping("/admin/companies/export")
+    public ResponseEntity<StreamingResponseBody> exportCompanies() {
+        return streamJsonArray(generator -> bulkExport.exportCompanies(generator::writeObject));
+    }
 
-        verifyTokensLoginTypeOrThrow(token);
+    @GetMapping("/admin/customers/export")
+    public ResponseEntity<StreamingResponseBody> exportCustomers() {
+        return streamJsonArray(generator -> bulkExport.exportCustomers(generator::writeObject));
+    }
 
-        ResourceUtils.accessAndGetIdFromClientSessionOrThrow(tokensMap.get(token));
+    @GetMapping("/admin/coupons/export")
+    public ResponseEntity<StreamingResponseBody> exportCoupons() {
+        return streamJsonArray(generator -> bulkExport.exportCoupons(generator::writeObject));
+    }
 
+    /*Company specified requests:*/
+    @PostMapping("/admin/companies/coupons/add")
+    public ResponseEntity<Coupon> saveCompanyCoupon(@RequestBody Coupon coupon, @RequestParam long companyId) throws DuplicateEntryException {
         Optional<Coupon> optCoupon = companyService.saveCoupon(companyId, coupon);
 
         return optCoupon.map(ResponseEntity::ok).orElseGet(() -> ResponseEntity.noContent().build());
     }
 
     @PostMapping("/admin/companies/coupons/update")
-    public ResponseEntity<Coupon> updateCompanyCoupon(@RequestBody Coupon coupon, @RequestParam String token, @RequestParam long companyId) throws DuplicateEntryException, InvalidLoginException, NoSuchIdException {
-
-        verifyTokensLoginTypeOrThrow(token);
-
-        ResourceUtils.accessAndGetIdFromClientSessionOrThrow(tokensMap.get(token));
-
+    public ResponseEntity<Coupon> updateCompanyCoupon(@RequestBody Coupon coupon, @RequestParam long companyId) throws DuplicateEntryException, InvalidLoginException, NoSuchIdException {
         Optional<Coupon> optCoupon = companyService.updateCoupon(companyId, coupon);
 
         return ResponseEntity.ok(optCoupon.get());//Checked in CompanyService.
     }
 
     @DeleteMapping("/admin/companies/coupons/{id}")
-    public ResponseEntity<Void> deleteCompanyCouponById(@PathVariable long id, @RequestParam String token, @RequestParam long companyId) throws InvalidLoginException, NoSuchIdException {
-
-        verifyTokensLoginTypeOrThrow(token);
-
-        ResourceUtils.accessAndGetIdFromClientSessionOrThrow(tokensMap.get(token));
-
+    public ResponseEntity<Void> deleteCompanyCouponById(@PathVariable long id, @RequestParam long companyId) throws InvalidLoginException, NoSuchIdException {
         companyService.deleteCouponById(companyId, id);
 
         return ResponseEntity.ok().build();
     }
 
     @GetMapping("/admin/companies/coupons/{id}")
-    public ResponseEntity<Coupon> getCompanyCouponById(@PathVariable long id, @RequestParam String token) throws InvalidLoginException {
-
-        verifyTokensLoginTypeOrThrow(token);
-
-        ResourceUtils.accessAndGetIdFromClientSessionOrThrow(tokensMap.get(token));
-
+    public ResponseEntity<Coupon> getCompanyCouponById(@PathVariable long id) {
         Optional<Coupon> optCoupon = companyService.getCouponById(id);
 
         return optCoupon.map(ResponseEntity::ok).orElseGet(() -> ResponseEntity.noContent().build());
     }
 
     @GetMapping("/admin/companies/coupons")
-    public ResponseEntity<List<Coupon>> getAllCompanyCoupons(@RequestParam String token, @RequestParam long companyId) throws InvalidLoginException {
-
-        verifyTokensLoginTypeOrThrow(token);
-
-        ResourceUtils.accessAndGetIdFromClientSessionOrThrow(tokensMap.get(token));
-
-        List<Coupon> companyCoupons = companyService.getAllCompanyCoupons(companyId);
-        if (companyCoupons != null && !companyCoupons.isEmpty()) {
-            return ResponseEntity.ok(companyCoupons);
-        }
-        return ResponseEntity.noContent().build();
+    public ResponseEntity<List<Coupon>> getAllCompanyCoupons(@RequestParam long companyId,
+                                                             @RequestParam(required = false) Integer limit,
+                                                             @RequestParam(required = false) Integer offset,
+                                                             @RequestParam(required = false) String cursor,
+                                                             @RequestParam(required = false) Integer size) throws InvalidCursorException {
+        paging.rejectLimitAndOffset(limit, offset);
+        /*Ranked by sold count and then id, so the cursor holds both*/
+        Paging.Page page = paging.page(cursor, size, 2);
+
+        List<Coupon> companyCoupons = paging.isEnabled()
+                ? companyService.getAllCompanyCouponsAfter(companyId, (int) page.after(0, Integer.MAX_VALUE), page.after(1, 0), page.limit())
+                : companyService.getAllCompanyCoupons(companyId, limit, offset == null ? 0 : offset);
+
+        return paging.respondByKeys(companyCoupons, page, coupon -> new long[]{coupon.getSoldCount(), coupon.getId()});
     }
 
     @GetMapping("/admin/companies/coupons/category")
-    public ResponseEntity<List<Coupon>> getAllCompanyCouponsByCategory(@RequestParam String token, @RequestParam int category, @RequestParam long companyId) throws InvalidLoginException {
+    public ResponseEntity<List<Coupon>> getAllCompanyCouponsByCategory(@RequestParam int category, @RequestParam long companyId,
+                                                                       @RequestParam(required = false) String cursor,
+                                                                       @RequestParam(required = false) Integer size) throws InvalidCursorException {
+        Paging.Page page = paging.page(cursor, size);
 
-        verifyTokensLoginTypeOrThrow(token);
+        List<Coupon> companyCoupons = companyService.getCompanyCouponsByCategory(companyId, category, page.afterId(), page.limit());
 
-        ResourceUtils.accessAndGetIdFromClientSessionOrThrow(tokensMap.get(token));
-
-        List<Coupon> companyCoupons = companyService.getCompanyCouponsByCategory(companyId, category);
-        if (companyCoupons != null && !companyCoupons.isEmpty()) {
-            return ResponseEntity.ok(companyCoupons);
-        }
-        return ResponseEntity.noContent().build();
+        return paging.respond(companyCoupons, page, Coupon::getId);
     }
 
     @GetMapping("/admin/companies/coupons/lower-than-price")
-    public ResponseEntity<List<Coupon>> getAllCompanyCouponsLowerThanPrice(@RequestParam String token, @RequestParam double price, @RequestParam long companyId) throws InvalidLoginException {
-
-        verifyTokensLoginTypeOrThrow(token);
+    public ResponseEntity<List<Coupon>> getAllCompanyCouponsLowerThanPrice(@RequestParam double price, @RequestParam long companyId,
+                                                                           @RequestParam(required = false) String cursor,
+                                                                           @RequestParam(required = false) Integer size) throws InvalidCursorException {
+        Paging.Page page = paging.page(cursor, size);
 
-        ResourceUtils.accessAndGetIdFromClientSessionOrThrow(tokensMap.get(token));
+        List<Coupon> companyCoupons = companyService.getCompanyCouponsLowerThanPrice(companyId, price, page.afterId(), page.limit());
 
-        List<Coupon> companyCoupons = companyService.getCompanyCouponsLowerThanPrice(companyId, price);
-        if (companyCoupons != null && !companyCoupons.isEmpty()) {
-            return ResponseEntity.ok(companyCoupons);
-        }
-        return ResponseEntity.noContent().build();
+        return paging.respond(companyCoupons, page, Coupon::getId);
     }
 
     @GetMapping("/admin/companies/coupons/before-end-date")
-    public ResponseEntity<List<Coupon>> getAllCompanyCouponsBeforeDate(@RequestParam String token,
-                                                                       @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+    public ResponseEntity<List<Coupon>> getAllCompanyCouponsBeforeDate(@DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
                                                                        @RequestParam LocalDateTime date,
-                                                                       @RequestParam long companyId) throws InvalidLoginException {
-        verifyTokensLoginTypeOrThrow(token);
+                                                                       @RequestParam long companyId,
+                                                                       @RequestParam(required = false) String cursor,
+                                                                       @RequestParam(required = false) Integer size) throws InvalidCursorException {
+        Paging.Page page = paging.page(cursor, size);
 
-        ResourceUtils.accessAndGetIdFromClientSessionOrThrow(tokensMap.get(token));
+        List<Coupon> companyCoupons = companyService.getCompanyCouponsBeforeEndDate(companyId, date, page.afterId(), page.limit());
 
-        List<Coupon> companyCoupons = companyService.getCompanyCouponsBeforeEndDate(companyId, date);
-        if (companyCoupons != null && !companyCoupons.isEmpty()) {
-            return ResponseEntity.ok(companyCoupons);
-        }
-        return ResponseEntity.noContent().build();
+        return paging.respond(companyCoupons, page, Coupon::getId);
     }
 
     /*Customer specified requests:*/
     @PostMapping("/admin/customers/coupons/purchase")
-    public ResponseEntity<Coupon> purchaseCustomersCoupon(@RequestParam long couponId, @RequestParam String token, @RequestParam long customerId) throws DuplicateEntryException, ZeroCouponAmountException, InvalidLoginException, NoSuchIdException {
+    public ResponseEntity<Coupon> purchaseCustomersCoupon(@RequestParam long couponId, @RequestParam long customerId,
+                                                          @RequestHeader(name = "Idempotency-Key", required = false) String idempotencyKey) throws DuplicateEntryException, ZeroCouponAmountException, NoSuchIdException, IdempotencyKeyReusedException, RequestInProgressException {
+        Optional<Coupon> optCoupon = idempotencyCache.execute("purchase:" + customerId, idempotencyKey, List.of(couponId),
+                () -> customerService.purchaseCoupon(customerId, couponId));
 
-        verifyTokensLoginTypeOrThrow(token);
+        optCoupon.orElseThrow();
 
-        ResourceUtils.accessAndGetIdFromClientSessionOrThrow(tokensMap.get(token));
+        return ResponseEntity.ok(optCoupon.get());
+    }
 
-        Optional<Coupon> optCoupon = customerService.purchaseCoupon(customerId, couponId);
+    @PostMapping("/admin/customers/coupons/purchase/bulk")
+    public ResponseEntity<List<PurchaseResult>> purchaseCustomersCoupons(@RequestBody List<Long> couponIds, @RequestParam long customerId,
+                                                                         @RequestParam(defaultValue = "true") boolean allOrNothing,
+                                                                         @RequestHeader(name = "Idempotency-Key", required = false) String idempotencyKey) throws DuplicateEntryException, ZeroCouponAmountException, NoSuchIdException, IdempotencyKeyReusedException, RequestInProgressException {
+        List<PurchaseResult> results = idempotencyCache.execute("purchase/bulk:" + customerId, idempotencyKey, Arrays.asList(couponIds, allOrNothing),
+                () -> customerService.purchaseCoupons(customerId, couponIds, allOrNothing));
 
-        optCoupon.orElseThrow();
+        return ResponseEntity.ok(results);
+    }
 
-        return ResponseEntity.ok(optCoupon.get());
+    @PostMapping("/admin/customers/coupons/return/bulk")
+    public ResponseEntity<List<ReturnResult>> returnCustomersCoupons(@RequestBody List<CustomerCoupon> purchases) {
+        List<ReturnResult> results = customerService.returnCoupons(purchases);
+
+        return ResponseEntity.ok(results);
     }
 
     @GetMapping("/admin/customers/coupons")
-    public ResponseEntity<List<Coupon>> getPurchasedCustomersCoupons(@RequestParam String token, @RequestParam long customerId) throws InvalidLoginException {
-
-        verifyTokensLoginTypeOrThrow(token);
+    public ResponseEntity<List<CouponView>> getPurchasedCustomersCoupons(@RequestParam long customerId,
+                                                                         @RequestParam(required = false) String cursor,
+                                                                         @RequestParam(required = false) Integer size) throws InvalidCursorException {
+        Paging.Page page = paging.page(cursor, size);
 
-        ResourceUtils.accessAndGetIdFromClientSessionOrThrow(tokensMap.get(token));
+        List<CouponView> purchasedCoupons = customerService.getMyPurchasedCoupons(customerId, page.afterId(), page.limit());
 
-        List<Coupon> purchasedCoupons = customerService.getMyPurchasedCoupons(customerId);
-        if (purchasedCoupons != null && !purchasedCoupons.isEmpty()) {
-            return ResponseEntity.ok(purchasedCoupons);
-        }
-        return ResponseEntity.noContent().build();
+        return paging.respond(purchasedCoupons, page, CouponView::getId);
     }
 
     @GetMapping("/admin/customers/coupons/category")
-    public ResponseEntity<List<Coupon>> getNonPurchasedCustomersCouponsByCategory(@RequestParam String token, @RequestParam int category, @RequestParam long customerId) throws InvalidLoginException {
+    public ResponseEntity<List<CouponView>> getNonPurchasedCustomersCouponsByCategory(@RequestParam int category, @RequestParam long customerId,
+                                                                                      @RequestParam(required = false) String cursor,
+                                                                                      @RequestParam(required = false) Integer size) throws InvalidCursorException {
+        Paging.Page page = paging.page(cursor, size);
 
-        verifyTokensLoginTypeOrThrow(token);
+        List<CouponView> couponsByCategory = customerService.getNonPurchasedCouponsByCategory(customerId, category, page.afterId(), page.limit());
 
-        ResourceUtils.accessAndGetIdFromClientSessionOrThrow(tokensMap.get(token));
-
-        List<Coupon> couponsByCategory = customerService.getNonPurchasedCouponsByCategory(customerId, category);
-        if (couponsByCategory != null && !couponsByCategory.isEmpty()) {
-            return ResponseEntity.ok(couponsByCategory);
-        }
-        return ResponseEntity.noContent().build();
+        return paging.respond(couponsByCategory, page, CouponView::getId);
     }
 
     @GetMapping("/admin/customers/coupons/lower-than-price")
-    public ResponseEntity<List<Coupon>> getNonPurchasedCustomersCouponsLowerThanPrice(@RequestParam String token, @RequestParam int price, @RequestParam long customerId) throws InvalidLoginException {
-
-        verifyTokensLoginTypeOrThrow(token);
+    public ResponseEntity<List<CouponView>> getNonPurchasedCustomersCouponsLowerThanPrice(@RequestParam int price, @RequestParam long customerId,
+                                                                                          @RequestParam(required = false) String cursor,
+                                                                                          @RequestParam(required = false) Integer size) throws InvalidCursorException {
+        Paging.Page page = paging.page(cursor, size);
 
-        ResourceUtils.accessAndGetIdFromClientSessionOrThrow(tokensMap.get(token));
+        List<CouponView> couponsLowerThanPrice = customerService.getNonPurchasedCouponsLowerThanPrice(customerId, price, page.afterId(), page.limit());
 
-        List<Coupon> couponsLowerThanPrice = customerService.getNonPurchasedCouponsLowerThanPrice(customerId, price);
-        if (couponsLowerThanPrice != null && !couponsLowerThanPrice.isEmpty()) {
-            return ResponseEntity.ok(couponsLowerThanPrice);
-        }
-        return ResponseEntity.noContent().build();
+        return paging.respond(couponsLowerThanPrice, page, CouponView::getId);
     }
 
     @GetMapping("/admin/customers/coupons/before-end-date")
-    public ResponseEntity<List<Coupon>> getAllCouponsBeforeDate(@RequestParam String token,
-                                                                @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
-                                                                @RequestParam LocalDateTime date) throws InvalidLoginException {
-        verifyTokensLoginTypeOrThrow(token);
-
-        ResourceUtils.accessAndGetIdFromClientSessionOrThrow(tokensMap.get(token));
-
-        List<Coupon> couponsBeforeDate = customerService.getAllCouponsBeforeDate(date);
-        if (couponsBeforeDate != null && !couponsBeforeDate.isEmpty()) {
-            return ResponseEntity.ok(couponsBeforeDate);
-        }
-        return ResponseEntity.noContent().build();
-    }
+    public ResponseEntity<List<Coupon>> getAllCouponsBeforeDate(@DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+                                                                @RequestParam LocalDateTime date,
+                                                                @RequestParam(required = false) String cursor,
+                                                                @RequestParam(required = false) Integer size) throws InvalidCursorException {
+        Paging.Page page = paging.page(cursor, size);
+
+        List<Coupon> couponsBeforeDate = customerService.getAllCouponsBeforeDate(date, page.afterId(), page.limit());
 
+        return paging.respond(couponsBeforeDate, page, Coupon::getId);
+    }
 
     /**
-     * A method that ensures that only an admin can have a logged in admins abilities
+     * A method that answers with a JSON array written element by element while the response is sent,
+     * instead of being serialized as a whole once the list is complete.
      *
-     * @param token provided by loginController
-     * @throws InvalidLoginException
+     * @param elements writing the elements of the array
+     * @return ResponseEntity<StreamingResponseBody>
      */
-    private void verifyTokensLoginTypeOrThrow(String token) throws InvalidLoginException {
-        if (!token.startsWith(ADMIN.name())) {
-            String msg = String.format("You cannot perform ADMIN functions with %s token!", token);
-            throw new InvalidLoginException(msg);
-        }
+    private ResponseEntity<StreamingResponseBody> streamJsonArray(ElementWriter elements) {
+        StreamingResponseBody body = out -> {
+            JsonGenerator generator = objectMapper.getFactory().createGenerator(out);
+            generator.writeStartArray();
+            elements.write(generator);
+            generator.writeEndArray();
+            generator.flush();
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+    }
+
+    private interface ElementWriter {
+        void write(JsonGenerator generator) throws IOException;
     }
+
 }
\ No newline at end of file
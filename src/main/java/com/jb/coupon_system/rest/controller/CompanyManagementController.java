@@ -1,59 +1,47 @@
 package com.jb.coupon_system.rest.controller;
 
-import com.jb.coupon_system.common.ResourceUtils;
 import com.jb.coupon_system.data.entity.Company;
 import com.jb.coupon_system.data.entity.Coupon;
-import com.jb.coupon_system.rest.ClientSession;
+import com.jb.coupon_system.rest.ClientId;
+import com.jb.coupon_system.rest.Paging;
+import com.jb.coupon_system.rest.ex.InvalidCursorException;
 import com.jb.coupon_system.rest.ex.InvalidLoginException;
 import com.jb.coupon_system.service.CompanyService;
 import com.jb.coupon_system.service.ex.DuplicateEntryException;
 import com.jb.coupon_system.service.ex.NoSuchIdException;
+import com.jb.coupon_system.service.model.CouponSearch;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import java.time.LocalDateTime;
 import java.util.List;
-import java.util.Map;
 import java.util.Optional;
 
-import static com.jb.coupon_system.common.LoginType.COMPANY;
-
 @CrossOrigin("http://localhost:4200")
 @RestController
 @RequestMapping("/api")
 public class CompanyManagementController {
 
     private final CompanyService service;
-    private final Map<String, ClientSession> tokensMap;
+    private final Paging paging;
 
     @Autowired
-    public CompanyManagementController(CompanyService service, @Qualifier("tokens") Map<String, ClientSession> tokensMap) {
+    public CompanyManagementController(CompanyService service, Paging paging) {
         this.service = service;
-        this.tokensMap = tokensMap;
+        this.paging = paging;
     }
 
     @GetMapping("companies/token")
-    public ResponseEntity<Company> getCompanyByToken(@RequestParam String token) throws InvalidLoginException {
-
-        verifyTokensLoginTypeOrThrow(token);
-
-        long companyId = ResourceUtils.accessAndGetIdFromClientSessionOrThrow(tokensMap.get(token));
-
+    public ResponseEntity<Company> getCompanyByToken(@ClientId long companyId) {
         Optional<Company> optCompany = service.getCompanyById(companyId);
 
         return optCompany.map(ResponseEntity::ok).orElseGet(() -> ResponseEntity.noContent().build());
     }
 
     @PostMapping("companies/update")
-    public ResponseEntity<Company> updateCompany(@RequestBody Company company, @RequestParam String token) throws DuplicateEntryException, InvalidLoginException, NoSuchIdException {
-
-        verifyTokensLoginTypeOrThrow(token);
-
-        ResourceUtils.accessAndGetIdFromClientSessionOrThrow(tokensMap.get(token));
-
+    public ResponseEntity<Company> updateCompany(@RequestBody Company company) throws DuplicateEntryException, NoSuchIdException {
         Optional<Company> optCompany = service.updateCompany(company);
 
         optCompany.orElseThrow();
@@ -62,120 +50,95 @@ public class CompanyManagementController {
     }
 
     @PostMapping("/companies/coupons/add")
-    public ResponseEntity<Coupon> saveCoupon(@RequestBody Coupon coupon, @RequestParam String token) throws DuplicateEntryException, InvalidLoginException {
-
-        verifyTokensLoginTypeOrThrow(token);
-
-        long companyId = ResourceUtils.accessAndGetIdFromClientSessionOrThrow(tokensMap.get(token));
-
+    public ResponseEntity<Coupon> saveCoupon(@RequestBody Coupon coupon, @ClientId long companyId) throws DuplicateEntryException {
         Optional<Coupon> optCoupon = service.saveCoupon(companyId, coupon);
 
         return optCoupon.map(ResponseEntity::ok).orElseGet(() -> ResponseEntity.noContent().build());
     }
 
     @PostMapping("/companies/coupons/update")
-    public ResponseEntity<Coupon> updateCoupon(@RequestBody Coupon coupon, @RequestParam String token) throws DuplicateEntryException, InvalidLoginException, NoSuchIdException {
-
-        verifyTokensLoginTypeOrThrow(token);
-
-        long companyId = ResourceUtils.accessAndGetIdFromClientSessionOrThrow(tokensMap.get(token));
-
+    public ResponseEntity<Coupon> updateCoupon(@RequestBody Coupon coupon, @ClientId long companyId) throws DuplicateEntryException, InvalidLoginException, NoSuchIdException {
         Optional<Coupon> optCoupon = service.updateCoupon(companyId, coupon);
 
         return ResponseEntity.ok(optCoupon.get());//Checked in CompanyService.
     }
 
     @DeleteMapping("/companies/coupons/{id}")
-    public ResponseEntity<Void> deleteCouponById(@PathVariable long id, @RequestParam String token) throws InvalidLoginException, NoSuchIdException {
-
-        verifyTokensLoginTypeOrThrow(token);
-
-        long companyId = ResourceUtils.accessAndGetIdFromClientSessionOrThrow(tokensMap.get(token));
-
+    public ResponseEntity<Void> deleteCouponById(@PathVariable long id, @ClientId long companyId) throws InvalidLoginException, NoSuchIdException {
         service.deleteCouponById(companyId, id);
 
         return ResponseEntity.ok().build();
     }
 
     @GetMapping("/companies/coupons/{id}")
-    public ResponseEntity<Coupon> getCouponById(@PathVariable long id, @RequestParam String token) throws InvalidLoginException {
-
-        verifyTokensLoginTypeOrThrow(token);
-
-        ResourceUtils.accessAndGetIdFromClientSessionOrThrow(tokensMap.get(token));
-
+    public ResponseEntity<Coupon> getCouponById(@PathVariable long id) {
         Optional<Coupon> optCoupon = service.getCouponById(id);
 
         return optCoupon.map(ResponseEntity::ok).orElseGet(() -> ResponseEntity.noContent().build());
     }
 
     @GetMapping("/companies/coupons")
-    public ResponseEntity<List<Coupon>> getAllCompanyCouponsByMostSold(@RequestParam String token) throws InvalidLoginException {
-
-        verifyTokensLoginTypeOrThrow(token);
-
-        long companyId = ResourceUtils.accessAndGetIdFromClientSessionOrThrow(tokensMap.get(token));
-
-        List<Coupon> companyCoupons = service.getAllCompanyCoupons(companyId);
-        if (companyCoupons != null && !companyCoupons.isEmpty()) {
-            return ResponseEntity.ok(companyCoupons);
-        }
-        return ResponseEntity.noContent().build();
+    public ResponseEntity<List<Coupon>> getAllCompanyCouponsByMostSold(@ClientId long companyId,
+                                                                       @RequestParam(required = false) Integer limit,
+                                                                       @RequestParam(required = false) Integer offset,
+                                                                       @RequestParam(required = false) String cursor,
+                                                                       @RequestParam(required = false) Integer size) throws InvalidCursorException {
+        paging.rejectLimitAndOffset(limit, offset);
+        /*Ranked by sold count and then id, so the cursor holds both*/
+        Paging.Page page = paging.page(cursor, size, 2);
+
+        List<Coupon> companyCoupons = paging.isEnabled()
+                ? service.getAllCompanyCouponsAfter(companyId, (int) page.after(0, Integer.MAX_VALUE), page.after(1, 0), page.limit())
+                : service.getAllCompanyCoupons(companyId, limit, offset == null ? 0 : offset);
+
+        return paging.respondByKeys(companyCoupons, page, coupon -> new long[]{coupon.getSoldCount(), coupon.getId()});
     }
 
     @GetMapping("/companies/coupons/category")
-    public ResponseEntity<List<Coupon>> getAllCompanyCouponsByCategory(@RequestParam String token, @RequestParam int category) throws InvalidLoginException {
-
-        verifyTokensLoginTypeOrThrow(token);
+    public ResponseEntity<List<Coupon>> getAllCompanyCouponsByCategory(@ClientId long companyId, @RequestParam int category,
+                                                                       @RequestParam(required = false) String cursor,
+                                                                       @RequestParam(required = false) Integer size) throws InvalidCursorException {
+        Paging.Page page = paging.page(cursor, size);
 
-        long companyId = ResourceUtils.accessAndGetIdFromClientSessionOrThrow(tokensMap.get(token));
+        List<Coupon> companyCoupons = service.getCompanyCouponsByCategory(companyId, category, page.afterId(), page.limit());
 
-        List<Coupon> companyCoupons = service.getCompanyCouponsByCategory(companyId, category);
-        if (companyCoupons != null && !companyCoupons.isEmpty()) {
-            return ResponseEntity.ok(companyCoupons);
-        }
-        return ResponseEntity.noContent().build();
+        return paging.respond(companyCoupons, page, Coupon::getId);
     }
 
     @GetMapping("/companies/coupons/lower-than-price")
-    public ResponseEntity<List<Coupon>> getAllCompanyCouponsLowerThanPrice(@RequestParam String token, @RequestParam double price) throws InvalidLoginException {
+    public ResponseEntity<List<Coupon>> getAllCompanyCouponsLowerThanPrice(@ClientId long companyId, @RequestParam double price,
+                                                                           @RequestParam(required = false) String cursor,
+                                                                           @RequestParam(required = false) Integer size) throws InvalidCursorException {
+        Paging.Page page = paging.page(cursor, size);
 
-        verifyTokensLoginTypeOrThrow(token);
+        List<Coupon> companyCoupons = service.getCompanyCouponsLowerThanPrice(companyId, price, page.afterId(), page.limit());
 
-        long companyId = ResourceUtils.accessAndGetIdFromClientSessionOrThrow(tokensMap.get(token));
-
-        List<Coupon> companyCoupons = service.getCompanyCouponsLowerThanPrice(companyId, price);
-        if (companyCoupons != null && !companyCoupons.isEmpty()) {
-            return ResponseEntity.ok(companyCoupons);
-        }
-        return ResponseEntity.noContent().build();
+        return paging.respond(companyCoupons, page, Coupon::getId);
     }
 
     @GetMapping("/companies/coupons/before-end-date")
-    public ResponseEntity<List<Coupon>> getAllCompanyCouponsBeforeDate(@RequestParam String token,
+    public ResponseEntity<List<Coupon>> getAllCompanyCouponsBeforeDate(@ClientId long companyId,
                                                                        @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
-                                                                       @RequestParam LocalDateTime date) throws InvalidLoginException {
-        verifyTokensLoginTypeOrThrow(token);
+                                                                       @RequestParam LocalDateTime date,
+                                                                       @RequestParam(required = false) String cursor,
+                                                                       @RequestParam(required = false) Integer size) throws InvalidCursorException {
+        Paging.Page page = paging.page(cursor, size);
 
-        long companyId = ResourceUtils.accessAndGetIdFromClientSessionOrThrow(tokensMap.get(token));
+        List<Coupon> companyCoupons = service.getCompanyCouponsBeforeEndDate(companyId, date, page.afterId(), page.limit());
 
-        List<Coupon> companyCoupons = service.getCompanyCouponsBeforeEndDate(companyId, date);
-        if (companyCoupons != null && !companyCoupons.isEmpty()) {
-            return ResponseEntity.ok(companyCoupons);
-        }
-        return ResponseEntity.noContent().build();
+        return paging.respond(companyCoupons, page, Coupon::getId);
     }
 
-    /**
-     * A method that ensures that only a company can have a logged in companies abilities.
-     *
-     * @param token provided by loginController.
-     * @throws InvalidLoginException
-     */
-    private void verifyTokensLoginTypeOrThrow(String token) throws InvalidLoginException {
-        if (!token.startsWith(COMPANY.name())) {
-            String msg = String.format("You cannot perform COMPANY functions with %s token!", token);
-            throw new InvalidLoginException(msg);
-        }
+    @GetMapping("/companies/coupons/search")
+    public ResponseEntity<List<Coupon>> searchCompanyCoupons(@ClientId long companyId, CouponSearch search,
+                                                             @RequestParam(required = false) String cursor,
+                                                             @RequestParam(required = false) Integer size) throws InvalidCursorException {
+        /*Ordered by the searched order and then id, so the cursor holds both*/
+        Paging.Page page = paging.page(cursor, size, 2);
+        Long afterKey = page.isFirst() ? null : page.after(0, 0);
+
+        List<Coupon> companyCoupons = service.searchCompanyCoupons(companyId, search, afterKey, page.after(1, 0), page.limit());
+
+        return paging.respondByKeys(companyCoupons, page, coupon -> new long[]{search.getOrder().keyOf(coupon), coupon.getId()});
     }
 }
\ No newline at end of file
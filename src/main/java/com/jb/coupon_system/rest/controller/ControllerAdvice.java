@@ -1,6 +1,10 @@
 package com.jb.coupon_system.rest.controller;
 
+import com.jb.coupon_system.rest.ex.IdempotencyKeyReusedException;
+import com.jb.coupon_system.rest.ex.InvalidCursorException;
 import com.jb.coupon_system.rest.ex.InvalidLoginException;
+import com.jb.coupon_system.rest.ex.RequestInProgressException;
+import com.jb.coupon_system.rest.ex.TooManyAttemptsException;
 import com.jb.coupon_system.rest.model.ErrorResponse;
 import com.jb.coupon_system.service.ex.*;
 import org.springframework.http.HttpStatus;
@@ -17,6 +21,30 @@ public class ControllerAdvice {
         return ErrorResponse.ofNow(ex.getMessage());
     }
 
+    @ExceptionHandler(TooManyAttemptsException.class)
+    @ResponseStatus(HttpStatus.TOO_MANY_REQUESTS)
+    public ErrorResponse handleTooManyRequests(TooManyAttemptsException ex) {
+        return ErrorResponse.ofNow(ex.getMessage());
+    }
+
+    @ExceptionHandler(InvalidCursorException.class)
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    public ErrorResponse handleBadRequest(InvalidCursorException ex) {
+        return ErrorResponse.ofNow(ex.getMessage());
+    }
+
+    @ExceptionHandler(IdempotencyKeyReusedException.class)
+    @ResponseStatus(HttpStatus.UNPROCESSABLE_ENTITY)
+    public ErrorResponse handleUnprocessableEntity(IdempotencyKeyReusedException ex) {
+        return ErrorResponse.ofNow(ex.getMessage());
+    }
+
+    @ExceptionHandler(RequestInProgressException.class)
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    public ErrorResponse handleServiceUnavailable(RequestInProgressException ex) {
+        return ErrorResponse.ofNow(ex.getMessage());
+    }
+
     @ExceptionHandler(DuplicateEntryException.class)
     @ResponseStatus(HttpStatus.CONFLICT)
     public ErrorResponse handleUnauthorized(DuplicateEntryException ex) {
@@ -1,84 +1,90 @@
 package com.jb.coupon_system.rest.controller;
 
-import com.jb.coupon_system.common.ResourceUtils;
 import com.jb.coupon_system.data.entity.Coupon;
 import com.jb.coupon_system.data.entity.Customer;
-import com.jb.coupon_system.rest.ClientSession;
+import com.jb.coupon_system.data.projection.CouponView;
+import com.jb.coupon_system.rest.ClientId;
+import com.jb.coupon_system.rest.IdempotencyCache;
+import com.jb.coupon_system.rest.Paging;
+import com.jb.coupon_system.rest.UserSystem;
+import com.jb.coupon_system.rest.ex.IdempotencyKeyReusedException;
+import com.jb.coupon_system.rest.ex.InvalidCursorException;
 import com.jb.coupon_system.rest.ex.InvalidLoginException;
+import com.jb.coupon_system.rest.ex.RequestInProgressException;
+import com.jb.coupon_system.rest.ex.TooManyAttemptsException;
 import com.jb.coupon_system.service.CustomerService;
+import com.jb.coupon_system.service.PurchaseAdmission;
 import com.jb.coupon_system.service.ex.DuplicateEntryException;
 import com.jb.coupon_system.service.ex.NoSuchIdException;
 import com.jb.coupon_system.service.ex.ZeroCouponAmountException;
+import com.jb.coupon_system.service.model.CouponSearch;
+import com.jb.coupon_system.service.model.CustomerCoupon;
+import com.jb.coupon_system.service.model.PurchaseResult;
+import com.jb.coupon_system.service.model.Reservation;
+import com.jb.coupon_system.service.model.ReturnResult;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import javax.servlet.http.HttpServletRequest;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 import java.util.Optional;
 
-import static com.jb.coupon_system.common.LoginType.CUSTOMER;
-
 @CrossOrigin("http://localhost:4200")
 @RestController
 @RequestMapping("/api")
 public class CustomerManagementController {
 
     private final CustomerService service;
-    private final Map<String, ClientSession> tokensMap;
+    private final IdempotencyCache idempotencyCache;
+    private final PurchaseAdmission purchaseAdmission;
+    private final Paging paging;
+    private final UserSystem userSystem;
 
     @Autowired
-    public CustomerManagementController(CustomerService service, @Qualifier("tokens") Map<String, ClientSession> tokensMap) {
+    public CustomerManagementController(CustomerService service, IdempotencyCache idempotencyCache, PurchaseAdmission purchaseAdmission,
+                                        Paging paging, UserSystem userSystem) {
         this.service = service;
-        this.tokensMap = tokensMap;
+        this.idempotencyCache = idempotencyCache;
+        this.purchaseAdmission = purchaseAdmission;
+        this.paging = paging;
+        this.userSystem = userSystem;
     }
 
     @GetMapping("customers/{id}")
-    public ResponseEntity<Customer> getCustomerById(@PathVariable long id, @RequestParam String token) throws InvalidLoginException {
-
-        verifyTokensLoginTypeOrThrow(token);
-
-        ResourceUtils.accessAndGetIdFromClientSessionOrThrow(tokensMap.get(token));
-
+    public ResponseEntity<Customer> getCustomerById(@PathVariable long id) {
         Optional<Customer> optCustomer = service.getCustomerById(id);
 
         return optCustomer.map(ResponseEntity::ok).orElseGet(() -> ResponseEntity.noContent().build());
     }
 
     @GetMapping("customers/token")
-    public ResponseEntity<Customer> getCustomerByToken(@RequestParam String token) throws InvalidLoginException {
-
-        verifyTokensLoginTypeOrThrow(token);
-
-        long customerId = ResourceUtils.accessAndGetIdFromClientSessionOrThrow(tokensMap.get(token));
-
+    public ResponseEntity<Customer> getCustomerByToken(@ClientId long customerId) {
         Optional<Customer> optCustomer = service.getCustomerById(customerId);
 
         return optCustomer.map(ResponseEntity::ok).orElseGet(() -> ResponseEntity.noContent().build());
     }
 
     @GetMapping("customers")
-    public ResponseEntity<Customer> getCustomerByEmailAndPassword(@RequestParam String email, @RequestParam String password, @RequestParam String token) throws InvalidLoginException {
-
-        verifyTokensLoginTypeOrThrow(token);
-
-        ResourceUtils.accessAndGetIdFromClientSessionOrThrow(tokensMap.get(token));
-
-        Optional<Customer> optCustomer = service.getCustomerByEmailAndPassword(email, password);
+    public ResponseEntity<Customer> getCustomerByEmailAndPassword(@RequestParam String email, @RequestParam String password,
+                                                                  HttpServletRequest request) throws TooManyAttemptsException {
+        /*The password is checked like a login's, off the servlet thread and counted by the login throttle*/
+        Optional<Customer> optCustomer;
+        try {
+            optCustomer = service.getCustomerById(userSystem.verifyCustomer(email, password, request.getRemoteAddr()));
+        } catch (InvalidLoginException e) {
+            optCustomer = Optional.empty();
+        }
 
         return optCustomer.map(ResponseEntity::ok).orElseGet(() -> ResponseEntity.noContent().build());
     }
 
     @PostMapping("customers/update")
-    public ResponseEntity<Customer> updateCustomer(@RequestBody Customer customer, @RequestParam String token) throws DuplicateEntryException, InvalidLoginException, NoSuchIdException {
-
-        verifyTokensLoginTypeOrThrow(token);
-
-        ResourceUtils.accessAndGetIdFromClientSessionOrThrow(tokensMap.get(token));
-
+    public ResponseEntity<Customer> updateCustomer(@RequestBody Customer customer) throws DuplicateEntryException, NoSuchIdException {
         Optional<Customer> optCustomer = service.updateCustomer(customer);
 
         optCustomer.orElseThrow();
@@ -87,122 +93,138 @@ public class CustomerManagementController {
     }
 
     @PostMapping("/customers/coupons/purchase")
-    public ResponseEntity<Coupon> purchaseCoupon(@RequestParam Long couponId, @RequestParam String token) throws DuplicateEntryException, ZeroCouponAmountException, InvalidLoginException, NoSuchIdException {
-
-        verifyTokensLoginTypeOrThrow(token);
-
-        long customerId = ResourceUtils.accessAndGetIdFromClientSessionOrThrow(tokensMap.get(token));
-
-        Optional<Coupon> optCoupon = service.purchaseCoupon(customerId, couponId);
+    public ResponseEntity<Coupon> purchaseCoupon(@RequestParam Long couponId, @ClientId long customerId,
+                                                 @RequestHeader(name = "Idempotency-Key", required = false) String idempotencyKey) throws DuplicateEntryException, ZeroCouponAmountException, NoSuchIdException, IdempotencyKeyReusedException, RequestInProgressException {
+        Optional<Coupon> optCoupon = idempotencyCache.execute("purchase:" + customerId, idempotencyKey, List.of(couponId),
+                () -> purchaseAdmission.purchaseCoupon(customerId, couponId));
 
         return ResponseEntity.ok(optCoupon.get());//Checked in CustomerService
     }
 
-    @PostMapping("/customers/coupons/purchase/cancel")
-    public ResponseEntity<Coupon> returnCoupon(@RequestParam Long couponId, @RequestParam String token) throws DuplicateEntryException, ZeroCouponAmountException, InvalidLoginException, NoSuchIdException {
+    @PostMapping("/customers/coupons/purchase/bulk")
+    public ResponseEntity<List<PurchaseResult>> purchaseCoupons(@RequestBody List<Long> couponIds, @ClientId long customerId,
+                                                                @RequestParam(defaultValue = "true") boolean allOrNothing,
+                                                                @RequestHeader(name = "Idempotency-Key", required = false) String idempotencyKey) throws DuplicateEntryException, ZeroCouponAmountException, NoSuchIdException, IdempotencyKeyReusedException, RequestInProgressException {
+        List<PurchaseResult> results = idempotencyCache.execute("purchase/bulk:" + customerId, idempotencyKey, Arrays.asList(couponIds, allOrNothing),
+                () -> service.purchaseCoupons(customerId, couponIds, allOrNothing));
 
-        verifyTokensLoginTypeOrThrow(token);
+        return ResponseEntity.ok(results);
+    }
 
-        long customerId = ResourceUtils.accessAndGetIdFromClientSessionOrThrow(tokensMap.get(token));
+    @PostMapping("/customers/coupons/reserve")
+    public ResponseEntity<Reservation> reserveCoupon(@RequestParam Long couponId, @ClientId long customerId) throws DuplicateEntryException, ZeroCouponAmountException, NoSuchIdException {
+        Reservation reservation = service.reserveCoupon(customerId, couponId);
 
-        Optional<Coupon> optCoupon = service.returnCoupon(customerId, couponId);
+        return ResponseEntity.ok(reservation);
+    }
+
+    @PostMapping("/customers/coupons/reserve/confirm")
+    public ResponseEntity<Coupon> purchaseReservedCoupon(@RequestParam Long couponId, @ClientId long customerId,
+                                                         @RequestHeader(name = "Idempotency-Key", required = false) String idempotencyKey) throws DuplicateEntryException, ZeroCouponAmountException, NoSuchIdException, IdempotencyKeyReusedException, RequestInProgressException {
+        Optional<Coupon> optCoupon = idempotencyCache.execute("reserve/confirm:" + customerId, idempotencyKey, List.of(couponId),
+                () -> service.purchaseReservedCoupon(customerId, couponId));
 
         return ResponseEntity.ok(optCoupon.get());//Checked in CustomerService
     }
 
-    @GetMapping("/customers/coupons")
-    public ResponseEntity<List<Coupon>> getMyPurchasedCoupons(@RequestParam String token) throws InvalidLoginException {
+    @PostMapping("/customers/coupons/reserve/release")
+    public ResponseEntity<Void> releaseReservation(@RequestParam Long couponId, @ClientId long customerId) throws NoSuchIdException {
+        service.releaseReservation(customerId, couponId);
 
-        verifyTokensLoginTypeOrThrow(token);
+        return ResponseEntity.ok().build();
+    }
+
+    @PostMapping("/customers/coupons/purchase/cancel")
+    public ResponseEntity<Coupon> returnCoupon(@RequestParam Long couponId, @ClientId long customerId) throws DuplicateEntryException, ZeroCouponAmountException, NoSuchIdException {
+        Optional<Coupon> optCoupon = service.returnCoupon(customerId, couponId);
 
-        long customerId = ResourceUtils.accessAndGetIdFromClientSessionOrThrow(tokensMap.get(token));
+        return ResponseEntity.ok(optCoupon.get());//Checked in CustomerService
+    }
 
-        List<Coupon> purchasedCoupons = service.getMyPurchasedCoupons(customerId);
-        if (purchasedCoupons != null && !purchasedCoupons.isEmpty()) {
-            return ResponseEntity.ok(purchasedCoupons);
+    @PostMapping("/customers/coupons/purchase/cancel/bulk")
+    public ResponseEntity<List<ReturnResult>> returnCoupons(@RequestBody List<Long> couponIds, @ClientId long customerId) {
+        List<CustomerCoupon> purchases = new ArrayList<>(couponIds.size());
+        for (Long couponId : couponIds) {
+            purchases.add(new CustomerCoupon(customerId, couponId));
         }
-        return ResponseEntity.noContent().build();
+        List<ReturnResult> results = service.returnCoupons(purchases);
+
+        return ResponseEntity.ok(results);
     }
 
-    @GetMapping("customers/coupons/amount")
-    public ResponseEntity<Integer> getMyPurchasedCouponsAmount(@RequestParam String token) throws InvalidLoginException {
+    @GetMapping("/customers/coupons")
+    public ResponseEntity<List<CouponView>> getMyPurchasedCoupons(@ClientId long customerId,
+                                                                  @RequestParam(required = false) String cursor,
+                                                                  @RequestParam(required = false) Integer size) throws InvalidCursorException {
+        Paging.Page page = paging.page(cursor, size);
 
-        verifyTokensLoginTypeOrThrow(token);
+        List<CouponView> purchasedCoupons = service.getMyPurchasedCoupons(customerId, page.afterId(), page.limit());
 
-        long customerId = ResourceUtils.accessAndGetIdFromClientSessionOrThrow(tokensMap.get(token));
+        return paging.respond(purchasedCoupons, page, CouponView::getId);
+    }
 
+    @GetMapping("customers/coupons/amount")
+    public ResponseEntity<Integer> getMyPurchasedCouponsAmount(@ClientId long customerId) {
         Optional<Integer> optCustomerAmount = service.getMyPurchasedCouponsAmount(customerId);
 
         return optCustomerAmount.map(ResponseEntity::ok).orElseGet(() -> ResponseEntity.noContent().build());
     }
 
     @GetMapping("/customers/coupons/category")
-    public ResponseEntity<List<Coupon>> getNonPurchasedCouponsByCategory(@RequestParam String token, @RequestParam int category) throws InvalidLoginException {
-
-        verifyTokensLoginTypeOrThrow(token);
+    public ResponseEntity<List<CouponView>> getNonPurchasedCouponsByCategory(@ClientId long customerId, @RequestParam int category,
+                                                                             @RequestParam(required = false) String cursor,
+                                                                             @RequestParam(required = false) Integer size) throws InvalidCursorException {
+        Paging.Page page = paging.page(cursor, size);
 
-        long customerId = ResourceUtils.accessAndGetIdFromClientSessionOrThrow(tokensMap.get(token));
+        List<CouponView> couponsByCategory = service.getNonPurchasedCouponsByCategory(customerId, category, page.afterId(), page.limit());
 
-        List<Coupon> couponsByCategory = service.getNonPurchasedCouponsByCategory(customerId, category);
-        if (couponsByCategory != null && !couponsByCategory.isEmpty()) {
-            return ResponseEntity.ok(couponsByCategory);
-        }
-        return ResponseEntity.noContent().build();
+        return paging.respond(couponsByCategory, page, CouponView::getId);
     }
 
     @GetMapping("/customers/coupons/all")
-    public ResponseEntity<List<Coupon>> getNonPurchasedCouponsByCategory(@RequestParam String token) throws InvalidLoginException {
-
-        verifyTokensLoginTypeOrThrow(token);
+    public ResponseEntity<List<CouponView>> getNonPurchasedCouponsByCategory(@ClientId long customerId,
+                                                                             @RequestParam(required = false) String cursor,
+                                                                             @RequestParam(required = false) Integer size) throws InvalidCursorException {
+        Paging.Page page = paging.page(cursor, size);
 
-        long customerId = ResourceUtils.accessAndGetIdFromClientSessionOrThrow(tokensMap.get(token));
+        List<CouponView> allCoupons = service.getAllNonPurchasedCoupons(customerId, page.afterId(), page.limit());
 
-        List<Coupon> allCoupons = service.getAllNonPurchasedCoupons(customerId);
-        if (allCoupons != null && !allCoupons.isEmpty()) {
-            return ResponseEntity.ok(allCoupons);
-        }
-        return ResponseEntity.noContent().build();
+        return paging.respond(allCoupons, page, CouponView::getId);
     }
 
     @GetMapping("/customers/coupons/lower-than-price")
-    public ResponseEntity<List<Coupon>> getNonPurchasedCouponsLowerThanPrice(@RequestParam String token, @RequestParam int price) throws InvalidLoginException {
+    public ResponseEntity<List<CouponView>> getNonPurchasedCouponsLowerThanPrice(@ClientId long customerId, @RequestParam int price,
+                                                                                 @RequestParam(required = false) String cursor,
+                                                                                 @RequestParam(required = false) Integer size) throws InvalidCursorException {
+        Paging.Page page = paging.page(cursor, size);
 
-        verifyTokensLoginTypeOrThrow(token);
+        List<CouponView> couponsLowerThanPrice = service.getNonPurchasedCouponsLowerThanPrice(customerId, price, page.afterId(), page.limit());
 
-        long customerId = ResourceUtils.accessAndGetIdFromClientSessionOrThrow(tokensMap.get(token));
-
-        List<Coupon> couponsLowerThanPrice = service.getNonPurchasedCouponsLowerThanPrice(customerId, price);
-        if (couponsLowerThanPrice != null && !couponsLowerThanPrice.isEmpty()) {
-            return ResponseEntity.ok(couponsLowerThanPrice);
-        }
-        return ResponseEntity.noContent().build();
+        return paging.respond(couponsLowerThanPrice, page, CouponView::getId);
     }
 
     @GetMapping("/customers/coupons/before-end-date")
-    public ResponseEntity<List<Coupon>> getAllCouponsBeforeDate(@RequestParam String token,
-                                                                @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
-                                                                @RequestParam LocalDateTime date) throws InvalidLoginException {
-        verifyTokensLoginTypeOrThrow(token);
+    public ResponseEntity<List<Coupon>> getAllCouponsBeforeDate(@DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+                                                                @RequestParam LocalDateTime date,
+                                                                @RequestParam(required = false) String cursor,
+                                                                @RequestParam(required = false) Integer size) throws InvalidCursorException {
+        Paging.Page page = paging.page(cursor, size);
 
-        ResourceUtils.accessAndGetIdFromClientSessionOrThrow(tokensMap.get(token));
+        List<Coupon> couponsBeforeDate = service.getAllCouponsBeforeDate(date, page.afterId(), page.limit());
 
-        List<Coupon> couponsBeforeDate = service.getAllCouponsBeforeDate(date);
-        if (couponsBeforeDate != null && !couponsBeforeDate.isEmpty()) {
-            return ResponseEntity.ok(couponsBeforeDate);
-        }
-        return ResponseEntity.noContent().build();
-    }
-
-    /**
-     * A method that ensures that only a customer can have a logged in customers abilities.
-     *
-     * @param token provided by loginController
-     * @throws InvalidLoginException
-     */
-    private void verifyTokensLoginTypeOrThrow(String token) throws InvalidLoginException {
-        if (!token.startsWith(CUSTOMER.name())) {
-            String msg = String.format("You cannot perform CUSTOMER functions with %s token!", token);
-            throw new InvalidLoginException(msg);
-        }
+        return paging.respond(couponsBeforeDate, page, Coupon::getId);
+    }
+
+    @GetMapping("/customers/coupons/search")
+    public ResponseEntity<List<Coupon>> searchCoupons(@ClientId long customerId, CouponSearch search,
+                                                      @RequestParam(required = false) String cursor,
+                                                      @RequestParam(required = false) Integer size) throws InvalidCursorException {
+        /*Ordered by the searched order and then id, so the cursor holds both*/
+        Paging.Page page = paging.page(cursor, size, 2);
+        Long afterKey = page.isFirst() ? null : page.after(0, 0);
+
+        List<Coupon> coupons = service.searchCoupons(customerId, search, afterKey, page.after(1, 0), page.limit());
+
+        return paging.respondByKeys(coupons, page, coupon -> new long[]{search.getOrder().keyOf(coupon), coupon.getId()});
     }
 }
\ No newline at end of file
@@ -1,36 +1,34 @@
 package com.jb.coupon_system.rest.controller;
 
 import com.jb.coupon_system.common.LoginType;
-import com.jb.coupon_system.common.ResourceUtils;
 import com.jb.coupon_system.rest.ClientSession;
+import com.jb.coupon_system.rest.SessionStore;
 import com.jb.coupon_system.rest.UserSystem;
 import com.jb.coupon_system.rest.ex.InvalidLoginException;
+import com.jb.coupon_system.rest.ex.TooManyAttemptsException;
 import com.jb.coupon_system.rest.model.Token;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
-import java.util.Map;
-import java.util.UUID;
+import javax.servlet.http.HttpServletRequest;
 
 @CrossOrigin("http://localhost:4200")
 @RestController
 @RequestMapping("/api")
 public class LoginController {
-    private static final int LENGTH_TOKEN = 15;
-
-    private final Map<String, ClientSession> tokensMap;
+    private final SessionStore sessionStore;
     private final UserSystem userSystem;
 
     @Autowired
-    public LoginController(@Qualifier("tokens") Map<String, ClientSession> tokensMap, UserSystem userSystem) {
-        this.tokensMap = tokensMap;
+    public LoginController(SessionStore sessionStore, UserSystem userSystem) {
+        this.sessionStore = sessionStore;
         this.userSystem = userSystem;
     }
 
     @PostMapping("/login")
-    public ResponseEntity<Token> login(@RequestParam String email, @RequestParam String password, @RequestParam String stringLoginType) throws InvalidLoginException {
+    public ResponseEntity<Token> login(@RequestParam String email, @RequestParam String password, @RequestParam String stringLoginType,
+                                       HttpServletRequest request) throws InvalidLoginException, TooManyAttemptsException {
         /*Make stringLoginType provided non case sensitive*/
         stringLoginType = stringLoginType.toUpperCase();
 
@@ -38,13 +36,10 @@ public class LoginController {
         LoginType enumLoginType = convertStringToEnumOrThrow(stringLoginType);
 
         /*Create ClientSession using the enumLoginType*/
-        ClientSession session = userSystem.createSession(email, password, enumLoginType);
-
-        /*Generate specified stringLoginType token*/
-        String token = generateToken(stringLoginType);
+        ClientSession session = userSystem.createSession(email, password, enumLoginType, request.getRemoteAddr());
 
-        /*Store the token in the tokensMap*/
-        tokensMap.put(token, session);
+        /*Open the session, getting back its specified stringLoginType token*/
+        String token = sessionStore.open(enumLoginType, session);
 
         Token tokenToReturn = new Token(token);
         /*Return the token*/
@@ -54,9 +49,7 @@ public class LoginController {
     @PostMapping("/logout")
     public ResponseEntity<Void> logout(@RequestParam String token) throws InvalidLoginException {
 
-        ResourceUtils.accessAndGetIdFromClientSessionOrThrow(tokensMap.get(token));
-
-        tokensMap.remove(token);
+        sessionStore.close(token);
 
         return ResponseEntity.ok().build()  ;
     }
@@ -79,19 +72,4 @@ public class LoginController {
         }
         return enumLoginType;
     }
-
-    /**
-     * A method that creates a specified login type token using the stringLoginType
-     *
-     * @param loginType
-     * @return token
-     */
-    private String generateToken(String loginType) {
-        return loginType
-                + "_"
-                + UUID.randomUUID()
-                .toString()
-                .replace("-", "")
-                .substring(0, LENGTH_TOKEN);
-    }
 }
\ No newline at end of file
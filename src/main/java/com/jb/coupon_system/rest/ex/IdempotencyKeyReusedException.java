@@ -0,0 +1,9 @@
+package com.jb.coupon_system.rest.ex;
+
+public class IdempotencyKeyReusedException extends Exception {
+    /*An exception that is thrown when an idempotency key is sent again with a request that differs from the one it was first sent with.
+    */
+    public IdempotencyKeyReusedException(String msg) {
+        super(msg);
+    }
+}
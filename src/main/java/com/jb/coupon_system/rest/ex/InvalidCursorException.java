@@ -0,0 +1,10 @@
+package com.jb.coupon_system.rest.ex;
+
+public class InvalidCursorException extends Exception {
+    /*An exception that is thrown when a page is requested with a cursor that was not handed out by the list being paged,
+    for example one that was cut short or taken from another list, or by limit and offset while lists are paged by cursor.
+    */
+    public InvalidCursorException(String msg) {
+        super(msg);
+    }
+}
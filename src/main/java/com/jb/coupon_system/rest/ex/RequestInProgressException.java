@@ -0,0 +1,10 @@
+package com.jb.coupon_system.rest.ex;
+
+public class RequestInProgressException extends Exception {
+    /*An exception that is thrown when a request retried with an idempotency key gives up waiting for the first request made with it,
+    which is still running and may be retried again later.
+    */
+    public RequestInProgressException(String msg) {
+        super(msg);
+    }
+}
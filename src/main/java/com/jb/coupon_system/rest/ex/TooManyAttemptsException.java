@@ -0,0 +1,10 @@
+package com.jb.coupon_system.rest.ex;
+
+public class TooManyAttemptsException extends Exception {
+    /*An exception that is thrown when logging in is refused without checking the credentials,
+    since too many failed attempts were made with the same email or from the same address.
+    */
+    public TooManyAttemptsException(String msg) {
+        super(msg);
+    }
+}
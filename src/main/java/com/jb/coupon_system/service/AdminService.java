@@ -16,7 +16,14 @@ public interface AdminService {
 
     void deleteCompanyById(long companyId) throws NoSuchIdException;
 
-    List<Company> getAllCompanies();
+    /**
+     * A method that retrieves a page of the companies ordered by id.
+     *
+     * @param afterId id of the last company of the previous page, or 0 for the first page
+     * @param limit   maximal number of companies to retrieve
+     * @return List<Company>
+     */
+    List<Company> getAllCompanies(long afterId, int limit);
 
     Optional<Company> getCompanyById(long companyId);
 
@@ -26,7 +33,14 @@ public interface AdminService {
 
     void deleteCustomerById(long customerId) throws NoSuchIdException;
 
-    List<Customer> getAllCustomers();
+    /**
+     * A method that retrieves a page of the customers ordered by id.
+     *
+     * @param afterId id of the last customer of the previous page, or 0 for the first page
+     * @param limit   maximal number of customers to retrieve
+     * @return List<Customer>
+     */
+    List<Customer> getAllCustomers(long afterId, int limit);
 
     Optional<Customer> getCustomerById(long customerId);
 }
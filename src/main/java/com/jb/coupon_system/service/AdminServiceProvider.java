@@ -3,12 +3,17 @@ package com.jb.coupon_system.service;
 import com.jb.coupon_system.data.entity.Company;
 import com.jb.coupon_system.data.entity.Customer;
 import com.jb.coupon_system.data.repo.CompanyRepository;
+import com.jb.coupon_system.data.repo.CouponRepository;
 import com.jb.coupon_system.data.repo.CustomerRepository;
+import com.jb.coupon_system.data.repo.InventoryCheckpointRepository;
+import com.jb.coupon_system.service.catalog.CouponCatalog;
 import com.jb.coupon_system.service.ex.DuplicateEntryException;
 import com.jb.coupon_system.service.ex.NoSuchIdException;
+import com.jb.coupon_system.service.inventory.Inventory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
 import java.util.Optional;
@@ -18,17 +23,32 @@ public class AdminServiceProvider implements AdminService {
 
     private final CustomerRepository customerRepo;
     private final CompanyRepository companyRepo;
+    private final CouponRepository couponRepo;
+    private final InventoryCheckpointRepository checkpointRepo;
+    private final OwnedCouponFilter ownedCoupons;
+    private final PasswordHasher passwordHasher;
+    private final CouponCatalog catalog;
+    private final Inventory inventory;
 
     @Autowired
-    public AdminServiceProvider(CustomerRepository customerRepo, CompanyRepository companyRepo) {
+    public AdminServiceProvider(CustomerRepository customerRepo, CompanyRepository companyRepo, CouponRepository couponRepo,
+                                InventoryCheckpointRepository checkpointRepo, OwnedCouponFilter ownedCoupons, PasswordHasher passwordHasher,
+                                CouponCatalog catalog, Inventory inventory) {
         this.customerRepo = customerRepo;
         this.companyRepo = companyRepo;
+        this.couponRepo = couponRepo;
+        this.checkpointRepo = checkpointRepo;
+        this.ownedCoupons = ownedCoupons;
+        this.passwordHasher = passwordHasher;
+        this.catalog = catalog;
+        this.inventory = inventory;
     }
 
     @Override
     public Optional<Company> saveCompany(Company company) throws DuplicateEntryException {
         /*Make sure a new company is put in the data base by setting company id field to 0*/
         company.setId(0);
+        company.setPassword(passwordHasher.hashOrKeep(company.getPassword(), null));
 
         /*Make sure that the company has a unique name*/
         try {
@@ -47,6 +67,7 @@ public class AdminServiceProvider implements AdminService {
             String msg = String.format("A company with id %d does not exist", company.getId());
             throw new NoSuchIdException(msg);
         }
+        company.setPassword(passwordHasher.hashOrKeep(company.getPassword(), optCompany.get().getPassword()));
 
         /*Make sure that the company being updated has a unique name*/
         try {
@@ -65,7 +86,13 @@ public class AdminServiceProvider implements AdminService {
             String msg = String.format("A company with id %d does not exist", companyId);
             throw new NoSuchIdException(msg);
         }
+        /*The company's coupons are deleted along with it, so whatever the inventory holds for them is dropped too*/
+        List<Long> couponIds = couponRepo.findAllIdsByCompanyId(companyId);
         companyRepo.deleteById(companyId);
+        for (long couponId : couponIds) {
+            inventory.evict(couponId);
+        }
+        catalog.companyDeleted(companyId);
     }
 
     @Override
@@ -74,14 +101,15 @@ public class AdminServiceProvider implements AdminService {
     }
 
     @Override
-    public List<Company> getAllCompanies() {
-        return companyRepo.findAll();
+    public List<Company> getAllCompanies(long afterId, int limit) {
+        return companyRepo.findAllAfter(afterId, limit);
     }
 
     @Override
     public Optional<Customer> saveCustomer(Customer customer) throws DuplicateEntryException {
         /*In order to make sure a new customer is put in the data base customer id is set to 0*/
         customer.setId(0);
+        customer.setPassword(passwordHasher.hashOrKeep(customer.getPassword(), null));
 
         /*Make sure that the customer has a unique email*/
         try {
@@ -100,6 +128,7 @@ public class AdminServiceProvider implements AdminService {
             String msg = String.format("A customer with id %d does not exist", customer.getId());
             throw new NoSuchIdException(msg);
         }
+        customer.setPassword(passwordHasher.hashOrKeep(customer.getPassword(), optCustomer.get().getPassword()));
 
         /*Make sure that the updated customer has a unique email*/
         try {
@@ -111,6 +140,7 @@ public class AdminServiceProvider implements AdminService {
     }
 
     @Override
+    @Transactional
     public void deleteCustomerById(long customerId) throws NoSuchIdException {
         /*Make sure the customer being deleted exists*/
         Optional<Customer> optCustomer = customerRepo.findById(customerId);
@@ -118,7 +148,12 @@ public class AdminServiceProvider implements AdminService {
             String msg = String.format("A customer with id %d does not exist", customerId);
             throw new NoSuchIdException(msg);
         }
+        /*The customers' purchases are deleted without being returned to stock, so they are no longer counted as sold.
+        All three statements are committed together, so the sold counts never disagree with the customer coupon joined table*/
+        couponRepo.releaseCustomerSales(customerId);
+        checkpointRepo.releaseCustomerSales(customerId);
         customerRepo.deleteById(customerId);
+        ownedCoupons.forget(customerId);
     }
 
     @Override
@@ -127,7 +162,7 @@ public class AdminServiceProvider implements AdminService {
     }
 
     @Override
-    public List<Customer> getAllCustomers() {
-        return customerRepo.findAll();
+    public List<Customer> getAllCustomers(long afterId, int limit) {
+        return customerRepo.findAllAfter(afterId, limit);
     }
 }
\ No newline at end of file
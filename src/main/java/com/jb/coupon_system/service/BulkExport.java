@@ -0,0 +1,99 @@
+package com.jb.coupon_system.service;
+
+import com.jb.coupon_system.data.entity.Company;
+import com.jb.coupon_system.data.entity.Coupon;
+import com.jb.coupon_system.data.entity.Customer;
+import com.jb.coupon_system.data.repo.CompanyRepository;
+import com.jb.coupon_system.data.repo.CouponRepository;
+import com.jb.coupon_system.data.repo.CustomerRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * An exporter of whole tables, handing every row to a sink as it is read from the data base.
+ * Rows are streamed by the driver rather than read as a whole, and the persistence context is cleared
+ * every chunk of rows, so the memory taken stays the same however many rows there are.
+ * Every export runs in a read only transaction of its own, for as long as the sink takes.
+ */
+@Service
+public class BulkExport {
+
+    private final CouponRepository couponRepo;
+    private final CustomerRepository customerRepo;
+    private final CompanyRepository companyRepo;
+    private final EntityManager entityManager;
+    private final int chunkSize;
+
+    @Autowired
+    public BulkExport(CouponRepository couponRepo, CustomerRepository customerRepo, CompanyRepository companyRepo,
+                      EntityManager entityManager, @Value("${export.chunk-size}") int chunkSize) {
+        this.couponRepo = couponRepo;
+        this.customerRepo = customerRepo;
+        this.companyRepo = companyRepo;
+        this.entityManager = entityManager;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * @param sink of every coupon, in order of id
+     * @return the number of coupons exported
+     * @throws IOException thrown by the sink
+     */
+    @Transactional(readOnly = true)
+    public long exportCoupons(Sink<Coupon> sink) throws IOException {
+        try (Stream<Coupon> coupons = couponRepo.streamAll()) {
+            return drain(coupons, sink);
+        }
+    }
+
+    /**
+     * @param sink of every customer, in order of id
+     * @return the number of customers exported
+     * @throws IOException thrown by the sink
+     */
+    @Transactional(readOnly = true)
+    public long exportCustomers(Sink<Customer> sink) throws IOException {
+        try (Stream<Customer> customers = customerRepo.streamAll()) {
+            return drain(customers, sink);
+        }
+    }
+
+    /**
+     * @param sink of every company, in order of id
+     * @return the number of companies exported
+     * @throws IOException thrown by the sink
+     */
+    @Transactional(readOnly = true)
+    public long exportCompanies(Sink<Company> sink) throws IOException {
+        try (Stream<Company> companies = companyRepo.streamAll()) {
+            return drain(companies, sink);
+        }
+    }
+
+    private <T> long drain(Stream<T> rows, Sink<T> sink) throws IOException {
+        long count = 0;
+        Iterator<T> iterator = rows.iterator();
+        while (iterator.hasNext()) {
+            sink.accept(iterator.next());
+            if (++count % chunkSize == 0) {
+                /*Detach the chunk just written, so it can be collected*/
+                entityManager.clear();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * A receiver of the exported rows, such as a response being written.
+     */
+    public interface Sink<T> {
+        void accept(T row) throws IOException;
+    }
+}
@@ -5,6 +5,7 @@ import com.jb.coupon_system.data.entity.Coupon;
 import com.jb.coupon_system.rest.ex.InvalidLoginException;
 import com.jb.coupon_system.service.ex.DuplicateEntryException;
 import com.jb.coupon_system.service.ex.NoSuchIdException;
+import com.jb.coupon_system.service.model.CouponSearch;
 
 import java.time.LocalDateTime;
 import java.util.List;
@@ -58,36 +59,69 @@ public interface CompanyService {
      * sorted by the amount of times a coupon was sold- from most to least.
      *
      * @param companyId
+     * @param limit     maximal number of coupons to retrieve, or null for all of them.
+     * @param offset    number of coupons to skip.
      * @return List<Coupon>
      */
-    List<Coupon> getAllCompanyCoupons(long companyId);
+    List<Coupon> getAllCompanyCoupons(long companyId, Integer limit, int offset);
 
     /**
-     * A method that retrieves a categorically specified list of a specific company's coupons.
+     * A method that retrieves a page of a specific company's coupons,
+     * sorted by the amount of times a coupon was sold- from most to least, continuing after the last coupon of the previous page.
+     *
+     * @param companyId
+     * @param afterSoldCount sold count of the last coupon of the previous page, or Integer.MAX_VALUE for the first page.
+     * @param afterId        id of the last coupon of the previous page, or 0 for the first page.
+     * @param limit          maximal number of coupons to retrieve.
+     * @return List<Coupon>
+     */
+    List<Coupon> getAllCompanyCouponsAfter(long companyId, int afterSoldCount, long afterId, int limit);
+
+    /**
+     * A method that retrieves a page of a specific company's coupons matching every criterion of a search,
+     * in the order the search asks for and then by id. The owned criterion of the search is ignored.
+     *
+     * @param companyId
+     * @param search   criteria of the search
+     * @param afterKey sort key of the last coupon of the previous page, or null for the first page
+     * @param afterId  id of the last coupon of the previous page
+     * @param limit    maximal number of coupons to retrieve
+     * @return List<Coupon>
+     */
+    List<Coupon> searchCompanyCoupons(long companyId, CouponSearch search, Long afterKey, long afterId, int limit);
+
+    /**
+     * A method that retrieves a page of a categorically specified list of a specific company's coupons, ordered by id.
      *
      * @param companyId
      * @param category
+     * @param afterId id of the last item of the previous page, or 0 for the first page
+     * @param limit   maximal number of items to retrieve
      * @return List<Coupon>
      */
-    List<Coupon> getCompanyCouponsByCategory(long companyId, int category);
+    List<Coupon> getCompanyCouponsByCategory(long companyId, int category, long afterId, int limit);
 
     /**
-     * A method that retrieves a price range specified list of a specific company's coupons.
+     * A method that retrieves a page of a price range specified list of a specific company's coupons, ordered by id.
      *
      * @param companyId
      * @param price
+     * @param afterId id of the last item of the previous page, or 0 for the first page
+     * @param limit   maximal number of items to retrieve
      * @return List<Coupon>
      */
-    List<Coupon> getCompanyCouponsLowerThanPrice(long companyId, double price);
+    List<Coupon> getCompanyCouponsLowerThanPrice(long companyId, double price, long afterId, int limit);
 
     /**
-     * A method that retrieves a date range specified list of a specific company's coupons.
+     * A method that retrieves a page of a date range specified list of a specific company's coupons, ordered by id.
      *
      * @param companyId
      * @param date
+     * @param afterId id of the last item of the previous page, or 0 for the first page
+     * @param limit   maximal number of items to retrieve
      * @return List<Coupon>
      */
-    List<Coupon> getCompanyCouponsBeforeEndDate(long companyId, LocalDateTime date);
+    List<Coupon> getCompanyCouponsBeforeEndDate(long companyId, LocalDateTime date, long afterId, int limit);
 
     Optional<Company> getCompanyById(long companyId);
 
@@ -4,27 +4,40 @@ import com.jb.coupon_system.data.entity.Company;
 import com.jb.coupon_system.data.entity.Coupon;
 import com.jb.coupon_system.data.repo.CompanyRepository;
 import com.jb.coupon_system.data.repo.CouponRepository;
+import com.jb.coupon_system.data.repo.CouponSearchRepository;
 import com.jb.coupon_system.rest.ex.InvalidLoginException;
+import com.jb.coupon_system.service.catalog.CouponCatalog;
 import com.jb.coupon_system.service.ex.DuplicateEntryException;
 import com.jb.coupon_system.service.ex.NoSuchIdException;
+import com.jb.coupon_system.service.inventory.Inventory;
+import com.jb.coupon_system.service.model.CouponSearch;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDateTime;
-import java.util.*;
-import java.util.stream.Collectors;
+import java.util.List;
+import java.util.Optional;
 
 @Service
 public class CompanyServiceProvider implements CompanyService {
 
     private CouponRepository couponRepo;
     private CompanyRepository companyRepo;
+    private Inventory inventory;
+    private PasswordHasher passwordHasher;
+    private CouponSearchRepository searchRepo;
+    private CouponCatalog catalog;
 
     @Autowired
-    public CompanyServiceProvider(CouponRepository couponRepo, CompanyRepository companyRepo) {
+    public CompanyServiceProvider(CouponRepository couponRepo, CompanyRepository companyRepo, Inventory inventory, PasswordHasher passwordHasher,
+                                  CouponSearchRepository searchRepo, CouponCatalog catalog) {
         this.couponRepo = couponRepo;
         this.companyRepo = companyRepo;
+        this.inventory = inventory;
+        this.passwordHasher = passwordHasher;
+        this.searchRepo = searchRepo;
+        this.catalog = catalog;
     }
 
     @Override
@@ -37,12 +50,16 @@ public class CompanyServiceProvider implements CompanyService {
         optCompany.ifPresent(coupon::setCompany);
 
         /*Make sure that the coupon has a unique title*/
+        Coupon saved;
         try {
-            return Optional.of(couponRepo.save(coupon));
+            saved = couponRepo.save(coupon);
         } catch (DataIntegrityViolationException e) {
             String msg = String.format("A coupon with the title %s has already been used", coupon.getTitle());
             throw new DuplicateEntryException(msg);
         }
+
+        catalog.saved(saved);
+        return Optional.of(saved);
     }
 
     @Override
@@ -61,15 +78,24 @@ public class CompanyServiceProvider implements CompanyService {
         } else {
             Optional<Company> optCompany = companyRepo.findById(companyId);
             optCompany.ifPresent(coupon::setCompany);
+
+            /*The sold count is never updated by saving, keep the current one in the returned coupon*/
+            coupon.setSoldCount(optCoupon.get().getSoldCount());
         }
 
         /*Make sure that, if title field has been changed, the coupon still has a unique title*/
+        Coupon updated;
         try {
-            return Optional.of(couponRepo.save(coupon));
+            updated = couponRepo.save(coupon);
         } catch (DataIntegrityViolationException e) {
             String msg = String.format("A coupon with the title %s has already been used", coupon.getTitle());
             throw new DuplicateEntryException(msg);
         }
+
+        /*The amount column has been overwritten, so whatever the inventory holds for the coupon is stale*/
+        inventory.evict(coupon.getId());
+        catalog.saved(updated);
+        return Optional.of(updated);
     }
 
     @Override
@@ -85,6 +111,8 @@ public class CompanyServiceProvider implements CompanyService {
             throw new InvalidLoginException("You cannot delete a coupon that belongs to a different company");
         }
         couponRepo.deleteById(couponId);
+        inventory.evict(couponId);
+        catalog.deleted(couponId);
     }
 
     @Override
@@ -93,33 +121,34 @@ public class CompanyServiceProvider implements CompanyService {
     }
 
     @Override
-    public List<Coupon> getAllCompanyCoupons(long companyId) {
-        /*get company coupons*/
-        List<Coupon> companyCoupons = couponRepo.findAllByCompanyId(companyId);
-        /*create map of coupons with the amount of times the coupon was sold*/
-        Map<Coupon, Integer> map = new HashMap<>();
-        for (Coupon coupon : companyCoupons) {
-            map.put(coupon, couponRepo.findCouponAmountSold(coupon.getId()));
-        }
-        /*sort coupons by most bought to least bought*/
-        return companyCoupons.stream()
-                .sorted(Comparator.comparing(map::get).reversed())
-                .collect(Collectors.toList());
+    public List<Coupon> getAllCompanyCoupons(long companyId, Integer limit, int offset) {
+        /*get company coupons sorted by most bought to least bought, using the amount of times each coupon was sold*/
+        return couponRepo.findAllByCompanyIdOrderByMostSold(companyId, limit == null ? Integer.MAX_VALUE : limit, offset);
+    }
+
+    @Override
+    public List<Coupon> getAllCompanyCouponsAfter(long companyId, int afterSoldCount, long afterId, int limit) {
+        return couponRepo.findAllByCompanyIdOrderByMostSoldAfter(companyId, afterSoldCount, afterId, limit);
+    }
+
+    @Override
+    public List<Coupon> searchCompanyCoupons(long companyId, CouponSearch search, Long afterKey, long afterId, int limit) {
+        return searchRepo.search(search.toCriteria(), companyId, null, afterKey, afterId, limit);
     }
 
     @Override
-    public List<Coupon> getCompanyCouponsByCategory(long companyId, int category) {
-        return couponRepo.findAllByCompanyIdAndCategory(companyId, category);
+    public List<Coupon> getCompanyCouponsByCategory(long companyId, int category, long afterId, int limit) {
+        return couponRepo.findAllByCompanyIdAndCategory(companyId, category, afterId, limit);
     }
 
     @Override
-    public List<Coupon> getCompanyCouponsLowerThanPrice(long companyId, double price) {
-        return couponRepo.findAllByPriceLessThanAndCompanyId(price, companyId);
+    public List<Coupon> getCompanyCouponsLowerThanPrice(long companyId, double price, long afterId, int limit) {
+        return couponRepo.findAllByPriceLessThanAndCompanyId(price, companyId, afterId, limit);
     }
 
     @Override
-    public List<Coupon> getCompanyCouponsBeforeEndDate(long companyId, LocalDateTime date) {
-        return couponRepo.findAllByEndDateBeforeAndCompanyId(date, companyId);
+    public List<Coupon> getCompanyCouponsBeforeEndDate(long companyId, LocalDateTime date, long afterId, int limit) {
+        return couponRepo.findAllByEndDateBeforeAndCompanyId(date, companyId, afterId, limit);
     }
 
     @Override
@@ -135,6 +164,7 @@ public class CompanyServiceProvider implements CompanyService {
             String msg = String.format("A company with id %d does not exist", company.getId());
             throw new NoSuchIdException(msg);
         }
+        company.setPassword(passwordHasher.hashOrKeep(company.getPassword(), optCompany.get().getPassword()));
 
         /*Make sure that the company being updated has a unique name*/
         try {
@@ -2,36 +2,110 @@ package com.jb.coupon_system.service;
 
 import com.jb.coupon_system.data.entity.Coupon;
 import com.jb.coupon_system.data.entity.Customer;
+import com.jb.coupon_system.data.projection.CouponView;
 import com.jb.coupon_system.service.ex.DuplicateEntryException;
 import com.jb.coupon_system.service.ex.NoSuchIdException;
 import com.jb.coupon_system.service.ex.ZeroCouponAmountException;
+import com.jb.coupon_system.service.model.CouponSearch;
+import com.jb.coupon_system.service.model.CustomerCoupon;
+import com.jb.coupon_system.service.model.PurchaseOutcome;
+import com.jb.coupon_system.service.model.PurchaseResult;
+import com.jb.coupon_system.service.model.Reservation;
+import com.jb.coupon_system.service.model.ReturnResult;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 public interface CustomerService {
     /**
      * A method used in order to add a coupon to a customer.
      * The ids' of customer and coupon will be added in the customer_coupon joined table
-     * and the amount column in the coupon will be decremented.
+     * and the amount column in the coupon will be decremented, both in a single transaction.
      *
      * @param customerId
      * @param couponId
      * @return Optional<Coupon>
-     * @throws DuplicateEntryException   If the coupon amount column is not > 0.
-     * @throws ZeroCouponAmountException If the customer has already purchased the coupon.
-     * @throws NoSuchIdException         If the coupon is not found.
+     * @throws DuplicateEntryException   If the customer has already purchased the coupon.
+     * @throws ZeroCouponAmountException If the coupon amount column is not > 0.
+     * @throws NoSuchIdException         If the coupon or the customer is not found.
      */
     Optional<Coupon> purchaseCoupon(long customerId, long couponId) throws DuplicateEntryException, ZeroCouponAmountException, NoSuchIdException;
 
     /**
-     * A method that retrieves a list of a customers purchased coupons.
+     * A method used in order to add several coupons to a customer in a single transaction.
+     * All coupon ids are validated with one query, and the amount updates and the customer_coupon rows
+     * are each sent to the data base as a single batch.
+     * In all-or-nothing mode, either every coupon is purchased or none is;
+     * otherwise every coupon that can be purchased is, regardless of the others.
      *
      * @param customerId
-     * @return List<Coupon>
+     * @param couponIds    of the coupons to purchase, duplicates are ignored
+     * @param allOrNothing
+     * @return List<PurchaseResult> holding the outcome of every coupon, in the order given
+     * @throws NoSuchIdException If the customer is not found.
+     */
+    List<PurchaseResult> purchaseCoupons(long customerId, List<Long> couponIds, boolean allOrNothing) throws NoSuchIdException;
+
+    /**
+     * A method used in order to add a single coupon to a group of customers in a single transaction,
+     * as done by the PurchaseAdmission when many customers purchase the same coupon at once.
+     * The coupon's stock is decremented once for the whole group and the customer_coupon rows are sent as a single batch.
+     * When there are not enough coupons left for the whole group, the customers given first are the ones that get them.
+     *
+     * @param couponId
+     * @param customerIds of the purchasing customers, duplicates are ignored
+     * @return Map<Long, PurchaseOutcome> holding the outcome of every customer id, in the order given
+     */
+    Map<Long, PurchaseOutcome> purchaseCouponForCustomers(long couponId, List<Long> customerIds);
+
+    /**
+     * A method used in order to hold a coupon for a customer during checkout.
+     * The coupon is taken out of stock until the reservation is purchased or released, or it expires.
+     * Reserving a coupon the customer already holds extends the reservation.
+     *
+     * @param customerId
+     * @param couponId
+     * @return Reservation
+     * @throws DuplicateEntryException   If the customer has already purchased the coupon.
+     * @throws ZeroCouponAmountException If the coupon amount column is not > 0.
+     * @throws NoSuchIdException         If the coupon is not found.
      */
-    List<Coupon> getMyPurchasedCoupons(long customerId);
+    Reservation reserveCoupon(long customerId, long couponId) throws DuplicateEntryException, ZeroCouponAmountException, NoSuchIdException;
+
+    /**
+     * A method used in order to turn a customer's reservation into a purchase.
+     * The held coupon is only now taken off the amount column, along with adding the customer_coupon row.
+     * If the purchase fails, the reservation is kept as it was.
+     *
+     * @param customerId
+     * @param couponId
+     * @return Optional<Coupon>
+     * @throws DuplicateEntryException    If the customer has already purchased the coupon.
+     * @throws ZeroCouponAmountException If the held coupon was sold out after all, in which case the reservation is gone.
+     * @throws NoSuchIdException          If the customer holds no live reservation of the coupon, or the customer is not found.
+     */
+    Optional<Coupon> purchaseReservedCoupon(long customerId, long couponId) throws DuplicateEntryException, ZeroCouponAmountException, NoSuchIdException;
+
+    /**
+     * A method used in order to release a customer's reservation, putting the coupon back in stock.
+     *
+     * @param customerId
+     * @param couponId
+     * @throws NoSuchIdException If the customer holds no reservation of the coupon.
+     */
+    void releaseReservation(long customerId, long couponId) throws NoSuchIdException;
+
+    /**
+     * A method that retrieves a page of a customers purchased coupons, ordered by id.
+     *
+     * @param customerId
+     * @param afterId id of the last item of the previous page, or 0 for the first page
+     * @param limit   maximal number of items to retrieve
+     * @return List<CouponView>
+     */
+    List<CouponView> getMyPurchasedCoupons(long customerId, long afterId, int limit);
 
     /**
      * A method that retrieves the number of a customers purchased coupons.
@@ -42,38 +116,84 @@ public interface CustomerService {
     Optional<Integer> getMyPurchasedCouponsAmount(long customerId);
 
     /**
-     * A method that retrieves a categorically specified list of the coupons that have not yet been purchased by the customer.
+     * A method that retrieves a page of a categorically specified list of the coupons that have not yet been purchased by the customer, ordered by id.
      *
      * @param customerId
      * @param category
-     * @return List<Coupon>
+     * @param afterId id of the last item of the previous page, or 0 for the first page
+     * @param limit   maximal number of items to retrieve
+     * @return List<CouponView>
      */
-    List<Coupon> getNonPurchasedCouponsByCategory(long customerId, int category);
+    List<CouponView> getNonPurchasedCouponsByCategory(long customerId, int category, long afterId, int limit);
 
     /**
-     * A method that retrieves a price range specified list of the coupons that have not yet been purchased by the customer.
+     * A method that retrieves a page of a price range specified list of the coupons that have not yet been purchased by the customer, ordered by id.
      *
      * @param customerId
      * @param price
-     * @return List<Coupon>
+     * @param afterId id of the last item of the previous page, or 0 for the first page
+     * @param limit   maximal number of items to retrieve
+     * @return List<CouponView>
      */
-    List<Coupon> getNonPurchasedCouponsLowerThanPrice(long customerId, double price);
+    List<CouponView> getNonPurchasedCouponsLowerThanPrice(long customerId, double price, long afterId, int limit);
 
     /**
-     * A method that retrieves a date range specified list of all the coupons.
+     * A method that retrieves a page of a date range specified list of all the coupons, ordered by id.
      *
      * @param date
+     * @param afterId id of the last item of the previous page, or 0 for the first page
+     * @param limit   maximal number of items to retrieve
      * @return List<Coupon>
      */
-    List<Coupon> getAllCouponsBeforeDate(LocalDateTime date);
+    List<Coupon> getAllCouponsBeforeDate(LocalDateTime date, long afterId, int limit);
 
     Optional<Customer> updateCustomer(Customer customer) throws NoSuchIdException, DuplicateEntryException;
 
-    Optional<Customer> getCustomerByEmailAndPassword(String email, String password);
-
     Optional<Customer> getCustomerById(long id);
 
-    List<Coupon> getAllNonPurchasedCoupons(long customerId);
+    /**
+     * A method that retrieves a page of the coupons that have not yet been purchased by the customer, ordered by id.
+     *
+     * @param customerId
+     * @param afterId id of the last item of the previous page, or 0 for the first page
+     * @param limit   maximal number of items to retrieve
+     * @return List<CouponView>
+     */
+    List<CouponView> getAllNonPurchasedCoupons(long customerId, long afterId, int limit);
 
+    /**
+     * A method that retrieves a page of the coupons matching every criterion of a search,
+     * whose owned criterion refers to the coupons purchased by the customer,
+     * in the order the search asks for and then by id.
+     *
+     * @param customerId
+     * @param search     criteria of the search
+     * @param afterKey   sort key of the last coupon of the previous page, or null for the first page
+     * @param afterId    id of the last coupon of the previous page
+     * @param limit      maximal number of coupons to retrieve
+     * @return List<Coupon>
+     */
+    List<Coupon> searchCoupons(long customerId, CouponSearch search, Long afterKey, long afterId, int limit);
+
+    /**
+     * A method used in order to return a coupon purchased by a customer.
+     * The single customer_coupon row is deleted and the coupon is put back in stock only if a row was actually deleted,
+     * both in a single transaction.
+     *
+     * @param customerId
+     * @param couponId
+     * @return Optional<Coupon>
+     * @throws NoSuchIdException If the coupon or the customer is not found, or the customer does not own the coupon.
+     */
     Optional<Coupon> returnCoupon(long customerId, long couponId) throws NoSuchIdException;
+
+    /**
+     * A method used in order to return many purchases at once, as done by refund runs.
+     * All customer_coupon rows are deleted in a single batch and the returned coupons are put back in stock
+     * with a single statement per coupon, all in one transaction.
+     *
+     * @param purchases to return
+     * @return List<ReturnResult> holding the result of every purchase, in the order given
+     */
+    List<ReturnResult> returnCoupons(List<CustomerCoupon> purchases);
 }
@@ -2,134 +2,382 @@ package com.jb.coupon_system.service;
 
 import com.jb.coupon_system.data.entity.Coupon;
 import com.jb.coupon_system.data.entity.Customer;
+import com.jb.coupon_system.data.projection.CouponView;
 import com.jb.coupon_system.data.repo.CouponRepository;
+import com.jb.coupon_system.data.repo.CouponSearchRepository;
 import com.jb.coupon_system.data.repo.CustomerRepository;
+import com.jb.coupon_system.data.repo.PurchaseJdbcRepository;
+import com.jb.coupon_system.service.catalog.CouponCatalog;
 import com.jb.coupon_system.service.ex.DuplicateEntryException;
 import com.jb.coupon_system.service.ex.NoSuchIdException;
 import com.jb.coupon_system.service.ex.ZeroCouponAmountException;
+import com.jb.coupon_system.service.inventory.Inventory;
+import com.jb.coupon_system.service.inventory.ReservationBook;
+import com.jb.coupon_system.service.model.CouponSearch;
+import com.jb.coupon_system.service.model.CustomerCoupon;
+import com.jb.coupon_system.service.model.PurchaseOutcome;
+import com.jb.coupon_system.service.model.PurchaseResult;
+import com.jb.coupon_system.service.model.Reservation;
+import com.jb.coupon_system.service.model.ReturnResult;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.interceptor.TransactionAspectSupport;
 
+import java.time.Instant;
 import java.time.LocalDateTime;
-import java.util.List;
-import java.util.Optional;
+import java.time.ZoneId;
+import java.util.*;
 
 @Service
 public class CustomerServiceProvider implements CustomerService {
 
     private final CouponRepository couponRepo;
     private final CustomerRepository customerRepo;
+    private final PurchaseJdbcRepository purchaseRepo;
+    private final Inventory inventory;
+    private final OwnedCouponFilter ownedCoupons;
+    private final ReservationBook reservations;
+    private final PasswordHasher passwordHasher;
+    private final CouponSearchRepository searchRepo;
+    private final CouponCatalog catalog;
 
     @Autowired
-    public CustomerServiceProvider(CouponRepository couponRepo, CustomerRepository customerRepo) {
+    public CustomerServiceProvider(CouponRepository couponRepo, CustomerRepository customerRepo, PurchaseJdbcRepository purchaseRepo,
+                                   Inventory inventory, OwnedCouponFilter ownedCoupons, ReservationBook reservations,
+                                   PasswordHasher passwordHasher, CouponSearchRepository searchRepo, CouponCatalog catalog) {
         this.couponRepo = couponRepo;
         this.customerRepo = customerRepo;
+        this.purchaseRepo = purchaseRepo;
+        this.inventory = inventory;
+        this.ownedCoupons = ownedCoupons;
+        this.reservations = reservations;
+        this.passwordHasher = passwordHasher;
+        this.searchRepo = searchRepo;
+        this.catalog = catalog;
     }
 
     @Override
+    @Transactional(rollbackFor = {DuplicateEntryException.class, NoSuchIdException.class})
     public Optional<Coupon> purchaseCoupon(long customerId, long couponId) throws DuplicateEntryException, ZeroCouponAmountException, NoSuchIdException {
-        /*Make sure the coupon exists*/
-        Optional<Coupon> optCoupon = couponRepo.findById(couponId);
-        if (optCoupon.isPresent()) {
-            Coupon coupon = optCoupon.get();
-
-            /*Make sure the existing coupons' amount indicates there are more coupons to be purchased*/
-            int amount = coupon.getAmount();
-            if (amount > 0) {
-
-                /*Make sure the customer exists*/
-                Optional<Customer> optCustomer = customerRepo.findById(customerId);
-                if (optCustomer.isPresent()) {
-
-                    /*Decrement and update coupon amount*/
-                    coupon.setAmount(--amount);
-                    couponRepo.save(coupon);
-
-                    /*Add new saved coupon to the customers list of coupons,
-                    providing said customer doesn't already own the coupon*/
-                    Customer customer = optCustomer.get();
-                    customer.getCoupons().add(coupon);
-                    try {
-                        customerRepo.save(customer);
-                    } catch (DataIntegrityViolationException e) {
-
-                        /*since the customer already owns the coupon and the purchase didn't go through,
-                        reinstate the coupon back to its previous amount*/
-                        coupon.setAmount(++amount);
-                        couponRepo.save(coupon);
-
-                        String msg = String.format("customer with id = %d has already purchased coupon with id = %d", customerId, couponId);
-                        throw new DuplicateEntryException(msg);
-                    }
-                    /*Successful purchase*/
-                    return Optional.of(coupon);
-                }
+        /*Reject a coupon the customer is already known to own before any SQL runs*/
+        if (ownedCoupons.owns(customerId, couponId)) {
+            String msg = String.format("customer with id = %d has already purchased coupon with id = %d", customerId, couponId);
+            throw new DuplicateEntryException(msg);
+        }
+
+        /*Take a coupon out of stock, providing the coupon exists and there are more coupons to be purchased*/
+        if (!inventory.take(couponId)) {
+
+            /*Nothing was taken- find out whether the coupon is missing or sold out*/
+            if (!couponRepo.existsById(couponId)) {
+                String msg = String.format("A coupon with id %d does not exist", couponId);
+                throw new NoSuchIdException(msg);
+            }
+            String msg = String.format("Unable to purchase coupon with id %d , no coupons left!", couponId);
+            throw new ZeroCouponAmountException(msg);
+        }
+
+        /*Add a single row to the customer coupon joined table,
+        providing the customer exists and doesn't already own the coupon*/
+        if (customerRepo.insertCustomerCoupon(customerId, couponId) == 0) {
+
+            /*Nothing was inserted- the coupon taken out of stock is given back as the exception rolls back*/
+            if (!customerRepo.existsById(customerId)) {
                 String msg = String.format("A customer with id %d does not exist", customerId);
                 throw new NoSuchIdException(msg);
             }
+            if (!couponRepo.existsById(couponId)) {
+                String msg = String.format("A coupon with id %d does not exist", couponId);
+                throw new NoSuchIdException(msg);
+            }
+            ownedCoupons.recordOwned(customerId, couponId);
+            String msg = String.format("customer with id = %d has already purchased coupon with id = %d", customerId, couponId);
+            throw new DuplicateEntryException(msg);
+        }
+
+        /*Successful purchase*/
+        ownedCoupons.recordPurchase(customerId, couponId);
+        return couponRepo.findById(couponId);
+    }
+
+
+    @Override
+    @Transactional(rollbackFor = NoSuchIdException.class)
+    public List<PurchaseResult> purchaseCoupons(long customerId, List<Long> couponIds, boolean allOrNothing) throws NoSuchIdException {
+        /*Make sure the customer exists*/
+        if (!customerRepo.existsById(customerId)) {
+            String msg = String.format("A customer with id %d does not exist", customerId);
+            throw new NoSuchIdException(msg);
+        }
+
+        /*Ignore duplicate ids while keeping the order they were given in*/
+        Map<Long, PurchaseOutcome> outcomes = new LinkedHashMap<>();
+        for (Long couponId : couponIds) {
+            outcomes.putIfAbsent(couponId, PurchaseOutcome.PURCHASED);
+        }
+        if (outcomes.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        /*Find the missing and already owned coupons with a single query each*/
+        Set<Long> existing = new HashSet<>(couponRepo.findExistingIds(outcomes.keySet()));
+        Set<Long> owned = new HashSet<>();
+        for (Number couponId : customerRepo.findOwnedCouponIds(customerId, outcomes.keySet())) {
+            owned.add(couponId.longValue());
+            ownedCoupons.recordOwned(customerId, couponId.longValue());
+        }
+        List<Long> candidates = new ArrayList<>();
+        for (Long couponId : outcomes.keySet()) {
+            if (!existing.contains(couponId)) {
+                outcomes.put(couponId, PurchaseOutcome.NO_SUCH_COUPON);
+            } else if (owned.contains(couponId)) {
+                outcomes.put(couponId, PurchaseOutcome.ALREADY_OWNED);
+            } else {
+                candidates.add(couponId);
+            }
+        }
+        if (allOrNothing && candidates.size() < outcomes.size()) {
+            return notPurchased(outcomes);
+        }
+
+        /*Take the remaining coupons out of stock in a single batch*/
+        boolean[] taken = inventory.takeAll(candidates);
+        List<Long> purchased = new ArrayList<>();
+        for (int i = 0; i < taken.length; i++) {
+            if (taken[i]) {
+                purchased.add(candidates.get(i));
+            } else {
+                outcomes.put(candidates.get(i), PurchaseOutcome.SOLD_OUT);
+            }
+        }
+        if (allOrNothing && purchased.size() < candidates.size()) {
+            TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+            return notPurchased(outcomes);
+        }
+
+        /*Add all the customer_coupon rows in a single batch,
+        a coupon the customer has purchased in the meantime is given back to stock*/
+        int[] inserted = purchaseRepo.insertCustomerCoupons(customerId, purchased);
+        for (int i = 0; i < inserted.length; i++) {
+            if (inserted[i] == 0) {
+                outcomes.put(purchased.get(i), PurchaseOutcome.ALREADY_OWNED);
+                if (allOrNothing) {
+                    TransactionAspectSupport.currentTransactionStatus().setRollbackOnly();
+                    return notPurchased(outcomes);
+                }
+                inventory.giveBack(purchased.get(i));
+            }
+        }
+        outcomes.forEach((couponId, outcome) -> {
+            if (outcome == PurchaseOutcome.PURCHASED) {
+                ownedCoupons.recordPurchase(customerId, couponId);
+            }
+        });
+        return toResults(outcomes);
+    }
+
+    @Override
+    @Transactional
+    public Map<Long, PurchaseOutcome> purchaseCouponForCustomers(long couponId, List<Long> customerIds) {
+        /*Ignore duplicate ids while keeping the order they were given in*/
+        Map<Long, PurchaseOutcome> outcomes = new LinkedHashMap<>();
+        for (Long customerId : customerIds) {
+            outcomes.putIfAbsent(customerId, PurchaseOutcome.PURCHASED);
+        }
+        if (outcomes.isEmpty()) {
+            return outcomes;
+        }
+
+        /*Find the missing customers and the customers already owning the coupon with a single query each*/
+        Set<Long> existing = new HashSet<>(customerRepo.findExistingIds(outcomes.keySet()));
+        Set<Long> owners = new HashSet<>();
+        for (Number customerId : customerRepo.findOwnerIds(couponId, outcomes.keySet())) {
+            owners.add(customerId.longValue());
+            ownedCoupons.recordOwned(customerId.longValue(), couponId);
+        }
+        List<Long> candidates = new ArrayList<>();
+        for (Long customerId : outcomes.keySet()) {
+            if (!existing.contains(customerId)) {
+                outcomes.put(customerId, PurchaseOutcome.NO_SUCH_CUSTOMER);
+            } else if (owners.contains(customerId) || ownedCoupons.owns(customerId, couponId)) {
+                outcomes.put(customerId, PurchaseOutcome.ALREADY_OWNED);
+            } else {
+                candidates.add(customerId);
+            }
+        }
+        if (candidates.isEmpty()) {
+            return outcomes;
+        }
+
+        /*Take the coupons of the whole group out of stock at once, the customers left over get none*/
+        int taken = inventory.takeUpTo(couponId, candidates.size());
+        if (taken == 0 && !couponRepo.existsById(couponId)) {
+            candidates.forEach(customerId -> outcomes.put(customerId, PurchaseOutcome.NO_SUCH_COUPON));
+            return outcomes;
+        }
+        for (Long customerId : candidates.subList(taken, candidates.size())) {
+            outcomes.put(customerId, PurchaseOutcome.SOLD_OUT);
+        }
+
+        /*Add all the customer_coupon rows in a single batch,
+        a coupon a customer has purchased in the meantime is given back to stock*/
+        List<Long> buyers = candidates.subList(0, taken);
+        int[] inserted = purchaseRepo.insertCouponCustomers(couponId, buyers);
+        int notInserted = 0;
+        for (int i = 0; i < inserted.length; i++) {
+            if (inserted[i] == 0) {
+                outcomes.put(buyers.get(i), PurchaseOutcome.ALREADY_OWNED);
+                notInserted++;
+            } else {
+                ownedCoupons.recordPurchase(buyers.get(i), couponId);
+            }
+        }
+        if (notInserted > 0) {
+            inventory.giveBackAll(Collections.singletonMap(couponId, notInserted));
+        }
+        return outcomes;
+    }
+
+    @Override
+    public Reservation reserveCoupon(long customerId, long couponId) throws DuplicateEntryException, ZeroCouponAmountException, NoSuchIdException {
+        /*Reject a coupon the customer already owns, it could never be purchased*/
+        if (ownedCoupons.owns(customerId, couponId) || !customerRepo.findOwnedCouponIds(customerId, Collections.singleton(couponId)).isEmpty()) {
+            String msg = String.format("customer with id = %d has already purchased coupon with id = %d", customerId, couponId);
+            throw new DuplicateEntryException(msg);
+        }
+
+        /*Hold a coupon, providing the coupon exists and there are more coupons to be purchased*/
+        long expiresMillis = reservations.hold(customerId, couponId);
+        if (expiresMillis == 0) {
+            if (!couponRepo.existsById(couponId)) {
+                String msg = String.format("A coupon with id %d does not exist", couponId);
+                throw new NoSuchIdException(msg);
+            }
+            String msg = String.format("Unable to reserve coupon with id %d , no coupons left!", couponId);
+            throw new ZeroCouponAmountException(msg);
+        }
+        LocalDateTime expiresAt = LocalDateTime.ofInstant(Instant.ofEpochMilli(expiresMillis), ZoneId.systemDefault());
+        return new Reservation(customerId, couponId, expiresAt);
+    }
+
+    @Override
+    @Transactional(rollbackFor = {DuplicateEntryException.class, NoSuchIdException.class})
+    public Optional<Coupon> purchaseReservedCoupon(long customerId, long couponId) throws DuplicateEntryException, ZeroCouponAmountException, NoSuchIdException {
+        /*Claim the held coupon, it is held again if the purchase rolls back*/
+        if (!reservations.claim(customerId, couponId)) {
+            String msg = String.format("customer with id = %d holds no reservation of coupon with id = %d", customerId, couponId);
+            throw new NoSuchIdException(msg);
+        }
+
+        /*Take the held coupon out of stock, the first write the reservation makes*/
+        if (!inventory.takeHeld(couponId)) {
             String msg = String.format("Unable to purchase coupon with id %d , no coupons left!", couponId);
             throw new ZeroCouponAmountException(msg);
         }
-        String msg = String.format("A coupon with id %d does not exist", couponId);
-        throw new NoSuchIdException(msg);
+
+        /*Add a single row to the customer coupon joined table*/
+        if (customerRepo.insertCustomerCoupon(customerId, couponId) == 0) {
+            if (!customerRepo.existsById(customerId)) {
+                String msg = String.format("A customer with id %d does not exist", customerId);
+                throw new NoSuchIdException(msg);
+            }
+            ownedCoupons.recordOwned(customerId, couponId);
+            String msg = String.format("customer with id = %d has already purchased coupon with id = %d", customerId, couponId);
+            throw new DuplicateEntryException(msg);
+        }
+
+        /*Successful purchase*/
+        ownedCoupons.recordPurchase(customerId, couponId);
+        return couponRepo.findById(couponId);
     }
 
+    @Override
+    public void releaseReservation(long customerId, long couponId) throws NoSuchIdException {
+        if (!reservations.release(customerId, couponId)) {
+            String msg = String.format("customer with id = %d holds no reservation of coupon with id = %d", customerId, couponId);
+            throw new NoSuchIdException(msg);
+        }
+    }
 
     @Override
+    @Transactional(rollbackFor = NoSuchIdException.class)
     public Optional<Coupon> returnCoupon(long customerId, long couponId) throws NoSuchIdException {
-        /*Make sure the coupon exists*/
-        Optional<Coupon> optCoupon = couponRepo.findById(couponId);
-        if (optCoupon.isPresent()) {
-            Coupon coupon = optCoupon.get();
-
-            /*Make sure the customer exists*/
-            Optional<Customer> optCustomer = customerRepo.findById(customerId);
-            if (optCustomer.isPresent()) {
-
-                /*increment and update coupon amount*/
-                int amount = coupon.getAmount();
-                coupon.setAmount(++amount);
-                couponRepo.save(coupon);
-
-                /*Remove coupon from the customers list of coupons*/
-                Customer customer = optCustomer.get();
-                customer.getCoupons().remove(coupon);
-                customerRepo.save(customer);
-
-                /*Successful return of coupon*/
-                return Optional.of(coupon);
-            }
+        /*Remove the single row of the coupon from the customer coupon joined table,
+        and only if there was one, put the coupon back in stock*/
+        if (customerRepo.deleteCustomerCoupon(customerId, couponId) == 1) {
+            inventory.giveBack(couponId);
+            ownedCoupons.recordReturn(customerId, couponId);
+
+            /*Successful return of coupon*/
+            return couponRepo.findById(couponId);
+        }
+
+        /*Nothing was deleted- find out whether the coupon or the customer are missing*/
+        if (!couponRepo.existsById(couponId)) {
+            String msg = String.format("A coupon with id %d does not exist", couponId);
+            throw new NoSuchIdException(msg);
+        }
+        if (!customerRepo.existsById(customerId)) {
             String msg = String.format("A customer with id %d does not exist", customerId);
             throw new NoSuchIdException(msg);
         }
-        String msg = String.format("A coupon with id %d does not exist", couponId);
+        String msg = String.format("customer with id = %d has not purchased coupon with id = %d", customerId, couponId);
         throw new NoSuchIdException(msg);
     }
 
     @Override
-    public List<Coupon> getMyPurchasedCoupons(long customerId) {
-        return customerRepo.getMyPurchasedCoupons(customerId);
+    @Transactional
+    public List<ReturnResult> returnCoupons(List<CustomerCoupon> purchases) {
+        /*Remove all the customer_coupon rows in a single batch*/
+        List<Long> customerIds = new ArrayList<>(purchases.size());
+        List<Long> couponIds = new ArrayList<>(purchases.size());
+        for (CustomerCoupon purchase : purchases) {
+            customerIds.add(purchase.getCustomerId());
+            couponIds.add(purchase.getCouponId());
+        }
+        int[] deleted = purchaseRepo.deleteCustomerCoupons(customerIds, couponIds);
+
+        /*Put back in stock only the coupons whose rows were actually deleted*/
+        Map<Long, Integer> returnedByCouponId = new HashMap<>();
+        List<ReturnResult> results = new ArrayList<>(purchases.size());
+        for (int i = 0; i < deleted.length; i++) {
+            CustomerCoupon purchase = purchases.get(i);
+            boolean returned = deleted[i] == 1;
+            if (returned) {
+                returnedByCouponId.merge(purchase.getCouponId(), 1, Integer::sum);
+                ownedCoupons.recordReturn(purchase.getCustomerId(), purchase.getCouponId());
+            }
+            results.add(new ReturnResult(purchase.getCustomerId(), purchase.getCouponId(), returned));
+        }
+        inventory.giveBackAll(returnedByCouponId);
+        return results;
+    }
+
+    @Override
+    public List<CouponView> getMyPurchasedCoupons(long customerId, long afterId, int limit) {
+        return customerRepo.getMyPurchasedCoupons(customerId, afterId, limit);
     }
 
     @Override
     public Optional<Integer> getMyPurchasedCouponsAmount(long customerId) {
-        return Optional.of(customerRepo.getMyPurchasedCoupons(customerId).size());
+        return Optional.of(customerRepo.countPurchasedCoupons(customerId));
     }
 
     @Override
-    public List<Coupon> getNonPurchasedCouponsByCategory(long customerId, int category) {
-        return customerRepo.getNonPurchasedCouponsByCategory(customerId, category);
+    public List<CouponView> getNonPurchasedCouponsByCategory(long customerId, int category, long afterId, int limit) {
+        return catalog.getNonPurchasedCouponsByCategory(customerId, category, afterId, limit);
     }
 
     @Override
-    public List<Coupon> getNonPurchasedCouponsLowerThanPrice(long customerId, double price) {
-        return customerRepo.getNonPurchasedCouponsLowerThanPrice(customerId, price);
+    public List<CouponView> getNonPurchasedCouponsLowerThanPrice(long customerId, double price, long afterId, int limit) {
+        return catalog.getNonPurchasedCouponsLowerThanPrice(customerId, price, afterId, limit);
     }
 
     @Override
-    public List<Coupon> getAllCouponsBeforeDate(LocalDateTime date) {
-        return couponRepo.findAllByEndDateBefore(date);
+    public List<Coupon> getAllCouponsBeforeDate(LocalDateTime date, long afterId, int limit) {
+        return couponRepo.findAllByEndDateBefore(date, afterId, limit);
     }
 
     @Override
@@ -140,6 +388,7 @@ public class CustomerServiceProvider implements CustomerService {
             String msg = String.format("A customer with id %d does not exist", customer.getId());
             throw new NoSuchIdException(msg);
         }
+        customer.setPassword(passwordHasher.hashOrKeep(customer.getPassword(), optCustomer.get().getPassword()));
 
         /*Make sure that the updated customer has a unique email*/
         try {
@@ -151,17 +400,34 @@ public class CustomerServiceProvider implements CustomerService {
     }
 
     @Override
-    public Optional<Customer> getCustomerByEmailAndPassword(String email, String password) {
-        return customerRepo.findCustomerByEmailAndPassword(email, password);
+    public Optional<Customer> getCustomerById(long customerId) {
+        return customerRepo.findById(customerId);
     }
 
     @Override
-    public Optional<Customer> getCustomerById(long customerId) {
-        return customerRepo.findById(customerId);
+    public List<CouponView> getAllNonPurchasedCoupons(long customerId, long afterId, int limit) {
+        return catalog.getAllNonPurchasedCoupons(customerId, afterId, limit);
     }
 
     @Override
-    public List<Coupon> getAllNonPurchasedCoupons(long customerId) {
-        return customerRepo.getAllNonPurchasedCoupons(customerId);
+    public List<Coupon> searchCoupons(long customerId, CouponSearch search, Long afterKey, long afterId, int limit) {
+        return searchRepo.search(search.toCriteria(), null, customerId, afterKey, afterId, limit);
+    }
+
+    /**
+     * A method used when an all-or-nothing purchase fails, marking every coupon that would have been purchased as not purchased.
+     *
+     * @param outcomes of the failed purchase
+     * @return List<PurchaseResult>
+     */
+    private List<PurchaseResult> notPurchased(Map<Long, PurchaseOutcome> outcomes) {
+        outcomes.replaceAll((couponId, outcome) -> outcome == PurchaseOutcome.PURCHASED ? PurchaseOutcome.NOT_PURCHASED : outcome);
+        return toResults(outcomes);
+    }
+
+    private List<PurchaseResult> toResults(Map<Long, PurchaseOutcome> outcomes) {
+        List<PurchaseResult> results = new ArrayList<>(outcomes.size());
+        outcomes.forEach((couponId, outcome) -> results.add(new PurchaseResult(couponId, outcome)));
+        return results;
     }
 }
\ No newline at end of file
@@ -0,0 +1,154 @@
+package com.jb.coupon_system.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An in-memory record of coupons that customers are known to own,
+ * used in order to reject duplicate purchases before any SQL runs.
+ * Only ownership seen by this application is recorded, so a coupon missing from the filter may still be owned
+ * (the data base decides), while a recorded coupon is always owned- apart from returns made by a different node,
+ * which is why every customer's record expires after a while.
+ * The number of customers tracked is bounded, evicting an arbitrary customer when full.
+ */
+@Component
+public class OwnedCouponFilter {
+
+    private final Map<Long, OwnedCoupons> customers = new ConcurrentHashMap<>();
+    private final int maxCustomers;
+    private final long ttlMillis;
+
+    @Autowired
+    public OwnedCouponFilter(@Value("${purchase.owned-filter.max-customers}") int maxCustomers,
+                             @Value("${purchase.owned-filter.ttl}") Duration ttl) {
+        this.maxCustomers = maxCustomers;
+        this.ttlMillis = ttl.toMillis();
+    }
+
+    /**
+     * A method that checks whether a customer is known to own a coupon.
+     *
+     * @param customerId
+     * @param couponId
+     * @return true if the customer owns the coupon, false if that is unknown.
+     */
+    public boolean owns(long customerId, long couponId) {
+        OwnedCoupons owned = customers.get(customerId);
+        if (owned == null) {
+            return false;
+        }
+        if (System.currentTimeMillis() - owned.createdMillis > ttlMillis) {
+            customers.remove(customerId, owned);
+            return false;
+        }
+        return owned.contains(couponId);
+    }
+
+    /**
+     * A method that records a coupon purchased in the current transaction, once the transaction commits.
+     *
+     * @param customerId
+     * @param couponId
+     */
+    public void recordPurchase(long customerId, long couponId) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    recordOwned(customerId, couponId);
+                }
+            });
+        } else {
+            recordOwned(customerId, couponId);
+        }
+    }
+
+    /**
+     * A method that records a coupon the data base has shown the customer to own.
+     *
+     * @param customerId
+     * @param couponId
+     */
+    public void recordOwned(long customerId, long couponId) {
+        if (!customers.containsKey(customerId) && customers.size() >= maxCustomers) {
+            Iterator<Long> iterator = customers.keySet().iterator();
+            if (iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+            }
+        }
+        customers.computeIfAbsent(customerId, id -> new OwnedCoupons(System.currentTimeMillis())).add(couponId);
+    }
+
+    /**
+     * A method that forgets a coupon returned by a customer.
+     *
+     * @param customerId
+     * @param couponId
+     */
+    public void recordReturn(long customerId, long couponId) {
+        OwnedCoupons owned = customers.get(customerId);
+        if (owned != null) {
+            owned.remove(couponId);
+        }
+    }
+
+    /**
+     * A method that forgets everything recorded for a customer, called when the customer is deleted.
+     *
+     * @param customerId
+     */
+    public void forget(long customerId) {
+        customers.remove(customerId);
+    }
+
+    /**
+     * The coupon ids owned by a single customer, kept as a sorted array that is copied on every change.
+     * Customers own few coupons compared with how often purchases are checked, so lookups are a lock free binary search.
+     */
+    private static final class OwnedCoupons {
+        private final long createdMillis;
+        private volatile long[] couponIds = new long[0];
+
+        private OwnedCoupons(long createdMillis) {
+            this.createdMillis = createdMillis;
+        }
+
+        private boolean contains(long couponId) {
+            return Arrays.binarySearch(couponIds, couponId) >= 0;
+        }
+
+        private synchronized void add(long couponId) {
+            long[] current = couponIds;
+            int index = Arrays.binarySearch(current, couponId);
+            if (index < 0) {
+                int insertAt = -index - 1;
+                long[] updated = new long[current.length + 1];
+                System.arraycopy(current, 0, updated, 0, insertAt);
+                updated[insertAt] = couponId;
+                System.arraycopy(current, insertAt, updated, insertAt + 1, current.length - insertAt);
+                couponIds = updated;
+            }
+        }
+
+        private synchronized void remove(long couponId) {
+            long[] current = couponIds;
+            int index = Arrays.binarySearch(current, couponId);
+            if (index >= 0) {
+                long[] updated = new long[current.length - 1];
+                System.arraycopy(current, 0, updated, 0, index);
+                System.arraycopy(current, index + 1, updated, index, current.length - index - 1);
+                couponIds = updated;
+            }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.jb.coupon_system.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * A hasher of the passwords of companies and customers, using PBKDF2 with HMAC-SHA256.
+ * A hash is stored as pbkdf2$iterations$salt$hash, so the cost factor can be raised at any time-
+ * hashes made with a different number of iterations still verify, and are rehashed at the next login.
+ * Any stored password not in this form is a plaintext password left over from before passwords were hashed.
+ */
+@Component
+public class PasswordHasher {
+    private static final String PREFIX = "pbkdf2$";
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+
+    private final SecureRandom random = new SecureRandom();
+    private final int iterations;
+    private final String dummyHash;
+
+    @Autowired
+    public PasswordHasher(@Value("${password.hash.iterations}") int iterations) {
+        this.iterations = iterations;
+        byte[] dummyPassword = new byte[SALT_BYTES];
+        random.nextBytes(dummyPassword);
+        this.dummyHash = hash(Base64.getEncoder().encodeToString(dummyPassword));
+    }
+
+    /**
+     * A method that hashes a password with a new random salt.
+     *
+     * @param password in plaintext
+     * @return the hash to store
+     */
+    public String hash(String password) {
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        Base64.Encoder encoder = Base64.getEncoder();
+        return PREFIX + iterations + '$' + encoder.encodeToString(salt) + '$' + encoder.encodeToString(derive(password, salt, iterations));
+    }
+
+    /**
+     * A method used when a company or customer is saved, hashing the password sent with it.
+     *
+     * @param password     sent in plaintext, or null if it was not sent
+     * @param existingHash of the company or customer being updated, or null for a new one
+     * @return the hash to store- the existing hash if no password was sent
+     */
+    public String hashOrKeep(String password, String existingHash) {
+        return password == null ? existingHash : hash(password);
+    }
+
+    /**
+     * A method that checks a password against a stored hash, or against a legacy plaintext password.
+     *
+     * @param password in plaintext
+     * @param stored   hash or legacy plaintext password
+     * @return true if the password matches, false for a malformed hash
+     */
+    public boolean matches(String password, String stored) {
+        if (password == null || stored == null) {
+            return false;
+        }
+        if (!stored.startsWith(PREFIX)) {
+            return MessageDigest.isEqual(password.getBytes(StandardCharsets.UTF_8), stored.getBytes(StandardCharsets.UTF_8));
+        }
+        String[] parts = stored.split("\\$");
+        if (parts.length != 4) {
+            return false;
+        }
+        Base64.Decoder decoder = Base64.getDecoder();
+        try {
+            byte[] expected = decoder.decode(parts[3]);
+            return MessageDigest.isEqual(expected, derive(password, decoder.decode(parts[2]), Integer.parseInt(parts[1])));
+        } catch (IllegalArgumentException e) {
+            /*A malformed hash (an iteration count or Base64 that does not parse) matches no password*/
+            return false;
+        }
+    }
+
+    /**
+     * A method that checks a password against a hash of a random password, taking as long as checking a real hash.
+     * Used when no user has the email, so a login with an unknown email is not turned away any faster than a wrong password.
+     *
+     * @param password in plaintext
+     */
+    public void matchesNone(String password) {
+        matches(password == null ? "" : password, dummyHash);
+    }
+
+    /**
+     * @param stored hash or legacy plaintext password
+     * @return true if the password should be hashed again at the next login, with the current cost factor
+     */
+    public boolean needsRehash(String stored) {
+        return stored == null || !stored.startsWith(PREFIX + iterations + '$');
+    }
+
+    private static byte[] derive(String password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
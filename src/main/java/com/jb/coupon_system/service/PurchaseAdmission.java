@@ -0,0 +1,231 @@
+package com.jb.coupon_system.service;
+
+import com.jb.coupon_system.data.entity.Coupon;
+import com.jb.coupon_system.data.repo.CouponRepository;
+import com.jb.coupon_system.service.ex.DuplicateEntryException;
+import com.jb.coupon_system.service.ex.NoSuchIdException;
+import com.jb.coupon_system.service.ex.ZeroCouponAmountException;
+import com.jb.coupon_system.service.model.PurchaseOutcome;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An admission queue in front of CustomerService.purchaseCoupon, settling concurrent purchases of the same coupon as a group.
+ * The first purchase of a coupon to arrive leads a group- it waits until the group is full or the linger time has passed,
+ * then purchases the coupon for the whole group in a single transaction, with one change to the coupon's stock
+ * and one batch of customer_coupon rows. Every other purchase joining the group waits for its own outcome.
+ * A group of a single purchase is settled by CustomerService.purchaseCoupon as if there were no queue.
+ */
+@Component
+public class PurchaseAdmission {
+
+    private final Map<Long, Group> openGroups = new ConcurrentHashMap<>();
+    private final CustomerService service;
+    private final CouponRepository couponRepo;
+    private final DistributionSummary batchSizes;
+    private final boolean enabled;
+    private final int maxBatchSize;
+    private final long maxLingerNanos;
+
+    @Autowired
+    public PurchaseAdmission(CustomerService service, CouponRepository couponRepo, MeterRegistry meterRegistry,
+                             @Value("${purchase.batch.enabled}") boolean enabled,
+                             @Value("${purchase.batch.max-size}") int maxBatchSize,
+                             @Value("${purchase.batch.max-linger}") Duration maxLinger) {
+        this.service = service;
+        this.couponRepo = couponRepo;
+        this.batchSizes = DistributionSummary.builder("purchase.batch.size")
+                .description("Number of purchases settled together as a single group")
+                .register(meterRegistry);
+        this.enabled = enabled;
+        this.maxBatchSize = maxBatchSize;
+        this.maxLingerNanos = maxLinger.toNanos();
+    }
+
+    /**
+     * A method used in order to add a coupon to a customer, the same as CustomerService.purchaseCoupon,
+     * only settled together with the concurrent purchases of the same coupon.
+     *
+     * @param customerId
+     * @param couponId
+     * @return Optional<Coupon>
+     * @throws DuplicateEntryException   If the customer has already purchased the coupon.
+     * @throws ZeroCouponAmountException If the coupon amount column is not > 0.
+     * @throws NoSuchIdException         If the coupon or the customer is not found.
+     */
+    public Optional<Coupon> purchaseCoupon(long customerId, long couponId) throws DuplicateEntryException, ZeroCouponAmountException, NoSuchIdException {
+        if (!enabled) {
+            return service.purchaseCoupon(customerId, couponId);
+        }
+
+        Purchase purchase = new Purchase(customerId);
+        Group group;
+        int position;
+        do {
+            group = openGroups.computeIfAbsent(couponId, id -> new Group());
+            position = group.join(purchase, maxBatchSize);
+            if (position < 0) {
+                /*The group was closed or filled up before it could be joined*/
+                openGroups.remove(couponId, group);
+            }
+        } while (position < 0);
+
+        if (position + 1 >= maxBatchSize) {
+            /*The group is full- new purchases go to a new group*/
+            openGroups.remove(couponId, group);
+            group.full.countDown();
+        }
+        if (position == 0) {
+            lead(couponId, group);
+        }
+        return await(purchase, customerId, couponId);
+    }
+
+    /**
+     * A method that waits for the group to fill up or linger, then settles it.
+     *
+     * @param couponId
+     * @param group    led by the calling purchase
+     */
+    private void lead(long couponId, Group group) {
+        try {
+            group.full.await(maxLingerNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            /*Settle right away, the followers are waiting*/
+            Thread.currentThread().interrupt();
+        }
+        openGroups.remove(couponId, group);
+        List<Purchase> purchases = group.close();
+        batchSizes.record(purchases.size());
+
+        try {
+            if (purchases.size() == 1) {
+                settleAlone(purchases.get(0), couponId);
+            } else {
+                settle(purchases, couponId);
+            }
+        } catch (RuntimeException | Error e) {
+            for (Purchase purchase : purchases) {
+                purchase.result.completeExceptionally(e);
+            }
+            throw e;
+        }
+    }
+
+    private void settleAlone(Purchase purchase, long couponId) {
+        try {
+            service.purchaseCoupon(purchase.customerId, couponId);
+            purchase.result.complete(PurchaseOutcome.PURCHASED);
+        } catch (DuplicateEntryException | ZeroCouponAmountException | NoSuchIdException e) {
+            purchase.result.completeExceptionally(e);
+        }
+    }
+
+    private void settle(List<Purchase> purchases, long couponId) {
+        List<Long> customerIds = new ArrayList<>(purchases.size());
+        for (Purchase purchase : purchases) {
+            customerIds.add(purchase.customerId);
+        }
+        Map<Long, PurchaseOutcome> outcomes = service.purchaseCouponForCustomers(couponId, customerIds);
+
+        /*A customer purchasing twice in the same group gets the coupon only once*/
+        Set<Long> settled = new HashSet<>();
+        for (Purchase purchase : purchases) {
+            PurchaseOutcome outcome = outcomes.get(purchase.customerId);
+            if (!settled.add(purchase.customerId) && outcome == PurchaseOutcome.PURCHASED) {
+                outcome = PurchaseOutcome.ALREADY_OWNED;
+            }
+            purchase.result.complete(outcome);
+        }
+    }
+
+    private Optional<Coupon> await(Purchase purchase, long customerId, long couponId) throws DuplicateEntryException, ZeroCouponAmountException, NoSuchIdException {
+        PurchaseOutcome outcome;
+        try {
+            outcome = purchase.result.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof DuplicateEntryException) {
+                throw (DuplicateEntryException) cause;
+            }
+            if (cause instanceof ZeroCouponAmountException) {
+                throw (ZeroCouponAmountException) cause;
+            }
+            if (cause instanceof NoSuchIdException) {
+                throw (NoSuchIdException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw e;
+        }
+
+        switch (outcome) {
+            case PURCHASED:
+                /*Successful purchase*/
+                return couponRepo.findById(couponId);
+            case ALREADY_OWNED: {
+                String msg = String.format("customer with id = %d has already purchased coupon with id = %d", customerId, couponId);
+                throw new DuplicateEntryException(msg);
+            }
+            case SOLD_OUT: {
+                String msg = String.format("Unable to purchase coupon with id %d , no coupons left!", couponId);
+                throw new ZeroCouponAmountException(msg);
+            }
+            case NO_SUCH_CUSTOMER: {
+                String msg = String.format("A customer with id %d does not exist", customerId);
+                throw new NoSuchIdException(msg);
+            }
+            default: {
+                String msg = String.format("A coupon with id %d does not exist", couponId);
+                throw new NoSuchIdException(msg);
+            }
+        }
+    }
+
+    /**
+     * The purchases of a single coupon settled together.
+     * Purchases can join the group until its leader closes it.
+     */
+    private static final class Group {
+        private final List<Purchase> purchases = new ArrayList<>();
+        private final CountDownLatch full = new CountDownLatch(1);
+        private boolean closed;
+
+        /**
+         * @return the position of the purchase in the group, or -1 if the group is closed or full.
+         */
+        private synchronized int join(Purchase purchase, int maxSize) {
+            if (closed || purchases.size() >= maxSize) {
+                return -1;
+            }
+            purchases.add(purchase);
+            return purchases.size() - 1;
+        }
+
+        private synchronized List<Purchase> close() {
+            closed = true;
+            return purchases;
+        }
+    }
+
+    private static final class Purchase {
+        private final long customerId;
+        private final CompletableFuture<PurchaseOutcome> result = new CompletableFuture<>();
+
+        private Purchase(long customerId) {
+            this.customerId = customerId;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.jb.coupon_system.service;
+
+import com.jb.coupon_system.data.repo.CouponRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * A one-time job that fills the sold count column of every coupon from the customer coupon joined table.
+ * It is meant to run once, after the column is added to an existing data base, by starting the application
+ * with coupon.sold-count.backfill=true. From then on purchases and returns keep the column up to date.
+ */
+@Component
+@ConditionalOnProperty(name = "coupon.sold-count.backfill", havingValue = "true")
+public class SoldCountBackfill {
+
+    private final CouponRepository couponRepo;
+
+    @Autowired
+    public SoldCountBackfill(CouponRepository couponRepo) {
+        this.couponRepo = couponRepo;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfillSoldCounts() {
+        couponRepo.backfillSoldCounts();
+    }
+}
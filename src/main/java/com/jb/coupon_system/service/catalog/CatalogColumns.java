@@ -0,0 +1,355 @@
+package com.jb.coupon_system.service.catalog;
+
+import com.jb.coupon_system.data.projection.CouponView;
+
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable, columnar snapshot of the catalog. Coupons are rows ordered by id, and every column is a primitive array
+ * indexed by row- ids, end dates as epoch seconds, and the coupons themselves for answering.
+ * Prices are kept sorted, with the row of every sorted price, so the rows cheaper than a price are a prefix of them,
+ * and every category has a bitmap of its rows. A change creates a new snapshot, leaving this one to its readers.
+ * It splices the changed row into copies of the columns it touches, sharing the others, rather than building them again.
+ */
+final class CatalogColumns {
+    private final CatalogCoupon[] coupons;
+    private final long[] ids;
+    private final long[] endEpochSeconds;
+    private final double[] sortedPrices;
+    private final int[] rowsByPrice;
+    private final Map<Integer, long[]> categoryRows;
+
+    /**
+     * @param coupons ordered by id, never changed once given
+     */
+    CatalogColumns(CatalogCoupon[] coupons) {
+        int rows = coupons.length;
+        this.coupons = coupons;
+        this.ids = new long[rows];
+        this.endEpochSeconds = new long[rows];
+        this.sortedPrices = new double[rows];
+        this.rowsByPrice = new int[rows];
+        this.categoryRows = new HashMap<>();
+
+        Integer[] byPrice = new Integer[rows];
+        for (int row = 0; row < rows; row++) {
+            CatalogCoupon coupon = coupons[row];
+            ids[row] = coupon.getId();
+            endEpochSeconds[row] = endEpochSeconds(coupon);
+            categoryRows.computeIfAbsent(coupon.getCategory(), category -> new long[words(rows)])[row >>> 6] |= 1L << row;
+            byPrice[row] = row;
+        }
+        Arrays.sort(byPrice, (a, b) -> Double.compare(coupons[a].getPrice(), coupons[b].getPrice()));
+        for (int i = 0; i < rows; i++) {
+            rowsByPrice[i] = byPrice[i];
+            sortedPrices[i] = coupons[byPrice[i]].getPrice();
+        }
+    }
+
+    private CatalogColumns(CatalogCoupon[] coupons, long[] ids, long[] endEpochSeconds, double[] sortedPrices,
+                           int[] rowsByPrice, Map<Integer, long[]> categoryRows) {
+        this.coupons = coupons;
+        this.ids = ids;
+        this.endEpochSeconds = endEpochSeconds;
+        this.sortedPrices = sortedPrices;
+        this.rowsByPrice = rowsByPrice;
+        this.categoryRows = categoryRows;
+    }
+
+    /**
+     * @param coupon saved or updated
+     * @return a snapshot holding the coupon, in place of its previous version if there was one.
+     */
+    CatalogColumns withCoupon(CatalogCoupon coupon) {
+        int row = Arrays.binarySearch(ids, coupon.getId());
+        return row >= 0 ? replaced(row, coupon) : inserted(-row - 1, coupon);
+    }
+
+    /**
+     * @param couponId deleted
+     * @return a snapshot without the coupon, or this one if it does not hold the coupon.
+     */
+    CatalogColumns withoutCoupon(long couponId) {
+        int row = Arrays.binarySearch(ids, couponId);
+        if (row < 0) {
+            return this;
+        }
+        int rows = coupons.length - 1;
+        CatalogCoupon[] changedCoupons = new CatalogCoupon[rows];
+        long[] changedIds = new long[rows];
+        long[] changedEnds = new long[rows];
+        System.arraycopy(coupons, 0, changedCoupons, 0, row);
+        System.arraycopy(coupons, row + 1, changedCoupons, row, rows - row);
+        System.arraycopy(ids, 0, changedIds, 0, row);
+        System.arraycopy(ids, row + 1, changedIds, row, rows - row);
+        System.arraycopy(endEpochSeconds, 0, changedEnds, 0, row);
+        System.arraycopy(endEpochSeconds, row + 1, changedEnds, row, rows - row);
+
+        /*Take the row out of the prices, then renumber the rows after it*/
+        int position = pricePositionOf(row);
+        double[] changedPrices = new double[rows];
+        int[] changedRowsByPrice = new int[rows];
+        System.arraycopy(sortedPrices, 0, changedPrices, 0, position);
+        System.arraycopy(sortedPrices, position + 1, changedPrices, position, rows - position);
+        for (int i = 0, j = 0; i <= rows; i++) {
+            if (i != position) {
+                int byPrice = rowsByPrice[i];
+                changedRowsByPrice[j++] = byPrice > row ? byPrice - 1 : byPrice;
+            }
+        }
+
+        Map<Integer, long[]> changedCategories = new HashMap<>();
+        categoryRows.forEach((category, bits) -> changedCategories.put(category, removeBit(bits, row, rows)));
+        return new CatalogColumns(changedCoupons, changedIds, changedEnds, changedPrices, changedRowsByPrice, changedCategories);
+    }
+
+    private CatalogColumns inserted(int row, CatalogCoupon coupon) {
+        int rows = coupons.length + 1;
+        CatalogCoupon[] changedCoupons = new CatalogCoupon[rows];
+        long[] changedIds = new long[rows];
+        long[] changedEnds = new long[rows];
+        System.arraycopy(coupons, 0, changedCoupons, 0, row);
+        System.arraycopy(coupons, row, changedCoupons, row + 1, rows - row - 1);
+        System.arraycopy(ids, 0, changedIds, 0, row);
+        System.arraycopy(ids, row, changedIds, row + 1, rows - row - 1);
+        System.arraycopy(endEpochSeconds, 0, changedEnds, 0, row);
+        System.arraycopy(endEpochSeconds, row, changedEnds, row + 1, rows - row - 1);
+        changedCoupons[row] = coupon;
+        changedIds[row] = coupon.getId();
+        changedEnds[row] = endEpochSeconds(coupon);
+
+        /*Renumber the rows from the new one on, then put it after the prices that are not higher*/
+        int position = pricePositionAfter(coupon.getPrice());
+        double[] changedPrices = new double[rows];
+        int[] changedRowsByPrice = new int[rows];
+        System.arraycopy(sortedPrices, 0, changedPrices, 0, position);
+        System.arraycopy(sortedPrices, position, changedPrices, position + 1, rows - position - 1);
+        changedPrices[position] = coupon.getPrice();
+        for (int i = 0, j = 0; j < rows; j++) {
+            if (j == position) {
+                changedRowsByPrice[j] = row;
+            } else {
+                int byPrice = rowsByPrice[i++];
+                changedRowsByPrice[j] = byPrice >= row ? byPrice + 1 : byPrice;
+            }
+        }
+
+        Map<Integer, long[]> changedCategories = new HashMap<>();
+        categoryRows.forEach((category, bits) -> changedCategories.put(category, insertBit(bits, row, rows)));
+        changedCategories.computeIfAbsent(coupon.getCategory(), category -> new long[words(rows)])[row >>> 6] |= 1L << row;
+        return new CatalogColumns(changedCoupons, changedIds, changedEnds, changedPrices, changedRowsByPrice, changedCategories);
+    }
+
+    private CatalogColumns replaced(int row, CatalogCoupon coupon) {
+        CatalogCoupon previous = coupons[row];
+        CatalogCoupon[] changedCoupons = coupons.clone();
+        long[] changedEnds = endEpochSeconds.clone();
+        changedCoupons[row] = coupon;
+        changedEnds[row] = endEpochSeconds(coupon);
+
+        /*Move the row from its previous price to its new one, shifting the prices between them by one*/
+        double[] changedPrices = sortedPrices;
+        int[] changedRowsByPrice = rowsByPrice;
+        if (Double.compare(previous.getPrice(), coupon.getPrice()) != 0) {
+            changedPrices = sortedPrices.clone();
+            changedRowsByPrice = rowsByPrice.clone();
+            int from = pricePositionOf(row);
+            int to = pricePositionAfter(coupon.getPrice());
+            if (to > from) {
+                to--;
+                System.arraycopy(sortedPrices, from + 1, changedPrices, from, to - from);
+                System.arraycopy(rowsByPrice, from + 1, changedRowsByPrice, from, to - from);
+            } else {
+                System.arraycopy(sortedPrices, to, changedPrices, to + 1, from - to);
+                System.arraycopy(rowsByPrice, to, changedRowsByPrice, to + 1, from - to);
+            }
+            changedPrices[to] = coupon.getPrice();
+            changedRowsByPrice[to] = row;
+        }
+
+        Map<Integer, long[]> changedCategories = categoryRows;
+        if (previous.getCategory() != coupon.getCategory()) {
+            changedCategories = new HashMap<>(categoryRows);
+            long[] previousBits = changedCategories.get(previous.getCategory()).clone();
+            previousBits[row >>> 6] &= ~(1L << row);
+            changedCategories.put(previous.getCategory(), previousBits);
+            long[] bits = changedCategories.containsKey(coupon.getCategory())
+                    ? changedCategories.get(coupon.getCategory()).clone() : new long[words(coupons.length)];
+            bits[row >>> 6] |= 1L << row;
+            changedCategories.put(coupon.getCategory(), bits);
+        }
+        return new CatalogColumns(changedCoupons, ids, changedEnds, changedPrices, changedRowsByPrice, changedCategories);
+    }
+
+    /*The position of a row among the sorted prices, searched among the prices equal to its own*/
+    private int pricePositionOf(int row) {
+        double price = coupons[row].getPrice();
+        int position = 0;
+        int high = sortedPrices.length;
+        while (position < high) {
+            int middle = (position + high) >>> 1;
+            if (Double.compare(sortedPrices[middle], price) < 0) {
+                position = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        while (rowsByPrice[position] != row) {
+            position++;
+        }
+        return position;
+    }
+
+    /*The position after every sorted price that is not higher than a price*/
+    private int pricePositionAfter(double price) {
+        int position = 0;
+        int high = sortedPrices.length;
+        while (position < high) {
+            int middle = (position + high) >>> 1;
+            if (Double.compare(sortedPrices[middle], price) <= 0) {
+                position = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return position;
+    }
+
+    /*A copy of a bitmap of rows with a clear bit inserted at a row, moving the bits from it on up by one*/
+    private static long[] insertBit(long[] bits, int row, int rows) {
+        long[] changed = new long[words(rows)];
+        int word = row >>> 6;
+        System.arraycopy(bits, 0, changed, 0, Math.min(word, bits.length));
+        for (int w = word; w < changed.length; w++) {
+            long current = w < bits.length ? bits[w] : 0;
+            long carried = w > word ? bits[w - 1] >>> 63 : 0;
+            if (w == word) {
+                long below = (1L << row) - 1;
+                changed[w] = (current & below) | ((current & ~below) << 1);
+            } else {
+                changed[w] = (current << 1) | carried;
+            }
+        }
+        return changed;
+    }
+
+    /*A copy of a bitmap of rows without the bit of a row, moving the bits after it down by one*/
+    private static long[] removeBit(long[] bits, int row, int rows) {
+        long[] changed = new long[words(rows)];
+        int word = row >>> 6;
+        System.arraycopy(bits, 0, changed, 0, Math.min(word, changed.length));
+        for (int w = word; w < changed.length; w++) {
+            long current = bits[w];
+            long carried = w + 1 < bits.length ? bits[w + 1] << 63 : 0;
+            if (w == word) {
+                long below = (1L << row) - 1;
+                changed[w] = (current & below) | ((current >>> 1) & ~below) | carried;
+            } else {
+                changed[w] = (current >>> 1) | carried;
+            }
+        }
+        return changed;
+    }
+
+    int size() {
+        return coupons.length;
+    }
+
+    /**
+     * A method that finds a page of the active coupons that are not owned, ordered by id.
+     *
+     * @param owned       ids of the coupons to skip, sorted
+     * @param afterId     id of the last coupon of the previous page, or 0 for the first page
+     * @param limit       maximal number of coupons to find
+     * @param nowSeconds  the time as epoch seconds, coupons ending by which are no longer active
+     * @return List<CouponView>
+     */
+    List<CouponView> findAll(long[] owned, long afterId, int limit, long nowSeconds) {
+        List<CouponView> found = new ArrayList<>(Math.min(limit, coupons.length));
+        for (int row = firstRowAfter(afterId); row < coupons.length && found.size() < limit; row++) {
+            addIfListed(found, row, owned, nowSeconds);
+        }
+        return found;
+    }
+
+    /**
+     * A method that finds a page of the active coupons of a category that are not owned, ordered by id.
+     *
+     * @see #findAll(long[], long, int, long)
+     */
+    List<CouponView> findByCategory(int category, long[] owned, long afterId, int limit, long nowSeconds) {
+        long[] rows = categoryRows.get(category);
+        return rows == null ? Collections.emptyList() : find(rows, owned, afterId, limit, nowSeconds);
+    }
+
+    /**
+     * A method that finds a page of the active coupons cheaper than a price that are not owned, ordered by id.
+     *
+     * @see #findAll(long[], long, int, long)
+     */
+    List<CouponView> findLowerThanPrice(double price, long[] owned, long afterId, int limit, long nowSeconds) {
+        /*The cheaper rows are the sorted prices before the first that is not lower, set in a bitmap to be read in order of id*/
+        int cheaper = 0;
+        int high = sortedPrices.length;
+        while (cheaper < high) {
+            int middle = (cheaper + high) >>> 1;
+            if (sortedPrices[middle] < price) {
+                cheaper = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        if (cheaper == 0) {
+            return Collections.emptyList();
+        }
+        long[] rows = new long[words(coupons.length)];
+        for (int i = 0; i < cheaper; i++) {
+            int row = rowsByPrice[i];
+            rows[row >>> 6] |= 1L << row;
+        }
+        return find(rows, owned, afterId, limit, nowSeconds);
+    }
+
+    private List<CouponView> find(long[] rows, long[] owned, long afterId, int limit, long nowSeconds) {
+        List<CouponView> found = new ArrayList<>(Math.min(limit, coupons.length));
+        int first = firstRowAfter(afterId);
+        for (int word = first >>> 6; word < rows.length && found.size() < limit; word++) {
+            long bits = rows[word];
+            if (word == first >>> 6) {
+                bits &= -1L << first;
+            }
+            while (bits != 0 && found.size() < limit) {
+                int row = (word << 6) | Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                addIfListed(found, row, owned, nowSeconds);
+            }
+        }
+        return found;
+    }
+
+    private void addIfListed(List<CouponView> found, int row, long[] owned, long nowSeconds) {
+        if (endEpochSeconds[row] > nowSeconds && Arrays.binarySearch(owned, ids[row]) < 0) {
+            found.add(coupons[row]);
+        }
+    }
+
+    private int firstRowAfter(long afterId) {
+        int row = Arrays.binarySearch(ids, afterId);
+        return row >= 0 ? row + 1 : -row - 1;
+    }
+
+    private static long endEpochSeconds(CatalogCoupon coupon) {
+        /*End dates are compared with LocalDateTime.now(), so both are read as if they were UTC*/
+        return coupon.getEndDate() == null ? Long.MAX_VALUE : coupon.getEndDate().toEpochSecond(ZoneOffset.UTC);
+    }
+
+    private static int words(int rows) {
+        return (rows + 63) >>> 6;
+    }
+}
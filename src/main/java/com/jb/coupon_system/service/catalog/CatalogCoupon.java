@@ -0,0 +1,96 @@
+package com.jb.coupon_system.service.catalog;
+
+import com.jb.coupon_system.data.entity.Coupon;
+import com.jb.coupon_system.data.projection.CouponView;
+
+import java.time.LocalDateTime;
+
+/**
+ * An immutable copy of the displayed columns of a coupon, as kept by the CatalogIndex.
+ */
+final class CatalogCoupon implements CouponView {
+    private final long id;
+    private final String title;
+    private final LocalDateTime startDate;
+    private final LocalDateTime endDate;
+    private final int category;
+    private final int amount;
+    private final int soldCount;
+    private final String description;
+    private final double price;
+    private final String imageURL;
+
+    CatalogCoupon(CouponView view) {
+        this(view.getId(), view.getTitle(), view.getStartDate(), view.getEndDate(), view.getCategory(), view.getAmount(),
+                view.getSoldCount(), view.getDescription(), view.getPrice(), view.getImageURL());
+    }
+
+    CatalogCoupon(Coupon coupon) {
+        this(coupon.getId(), coupon.getTitle(), coupon.getStartDate(), coupon.getEndDate(), coupon.getCategory(), coupon.getAmount(),
+                coupon.getSoldCount(), coupon.getDescription(), coupon.getPrice(), coupon.getImageURL());
+    }
+
+    CatalogCoupon(long id, String title, LocalDateTime startDate, LocalDateTime endDate, int category, int amount,
+                  int soldCount, String description, double price, String imageURL) {
+        this.id = id;
+        this.title = title;
+        this.startDate = startDate;
+        this.endDate = endDate;
+        this.category = category;
+        this.amount = amount;
+        this.soldCount = soldCount;
+        this.description = description;
+        this.price = price;
+        this.imageURL = imageURL;
+    }
+
+    @Override
+    public long getId() {
+        return id;
+    }
+
+    @Override
+    public String getTitle() {
+        return title;
+    }
+
+    @Override
+    public LocalDateTime getStartDate() {
+        return startDate;
+    }
+
+    @Override
+    public LocalDateTime getEndDate() {
+        return endDate;
+    }
+
+    @Override
+    public int getCategory() {
+        return category;
+    }
+
+    @Override
+    public int getAmount() {
+        return amount;
+    }
+
+    @Override
+    public int getSoldCount() {
+        return soldCount;
+    }
+
+    @Override
+    public String getDescription() {
+        return description;
+    }
+
+    @Override
+    public double getPrice() {
+        return price;
+    }
+
+    @Override
+    public String getImageURL() {
+        return imageURL;
+    }
+}
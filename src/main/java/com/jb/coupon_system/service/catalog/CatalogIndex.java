@@ -0,0 +1,159 @@
+package com.jb.coupon_system.service.catalog;
+
+import com.jb.coupon_system.data.entity.Coupon;
+import com.jb.coupon_system.data.projection.CouponView;
+import com.jb.coupon_system.data.repo.CouponRepository;
+import com.jb.coupon_system.data.repo.CustomerRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A catalog that keeps the active coupons in memory as CatalogColumns, so browsing never queries the coupon table.
+ * The coupons a customer owns are still read from the customer coupon joined table, a single scan of its unique key.
+ * The columns are replaced as a whole on every change- readers read whichever columns are current, never locking,
+ * while changes build the next columns from the current ones and are serialized among themselves.
+ * All coupons are loaded once the application is ready and again every refresh interval, which is also what brings in
+ * coupons changed by other nodes and the amount and sold count of coupons being purchased, as saves alone do not.
+ * Until the first load completes, browsing is answered from the coupon table, skipping the coupons that have ended.
+ */
+@Component
+@ConditionalOnProperty(name = "catalog.index.enabled", havingValue = "true")
+public class CatalogIndex implements CouponCatalog {
+
+    private final CouponRepository couponRepo;
+    private final CustomerRepository customerRepo;
+    private final Object changeLock = new Object();
+    private volatile CatalogColumns columns;
+    /*Changes made while the coupons are being loaded, applied again to the loaded columns (null for a deleted coupon)*/
+    private Map<Long, CatalogCoupon> changesDuringLoad;
+
+    @Autowired
+    public CatalogIndex(CouponRepository couponRepo, CustomerRepository customerRepo) {
+        this.couponRepo = couponRepo;
+        this.customerRepo = customerRepo;
+    }
+
+    @Override
+    public List<CouponView> getAllNonPurchasedCoupons(long customerId, long afterId, int limit) {
+        CatalogColumns current = columns;
+        if (current == null) {
+            return customerRepo.getAllActiveNonPurchasedCoupons(customerId, LocalDateTime.now(), afterId, limit);
+        }
+        return current.findAll(ownedCouponIds(customerId), afterId, limit, nowSeconds());
+    }
+
+    @Override
+    public List<CouponView> getNonPurchasedCouponsByCategory(long customerId, int category, long afterId, int limit) {
+        CatalogColumns current = columns;
+        if (current == null) {
+            return customerRepo.getActiveNonPurchasedCouponsByCategory(customerId, category, LocalDateTime.now(), afterId, limit);
+        }
+        return current.findByCategory(category, ownedCouponIds(customerId), afterId, limit, nowSeconds());
+    }
+
+    @Override
+    public List<CouponView> getNonPurchasedCouponsLowerThanPrice(long customerId, double price, long afterId, int limit) {
+        CatalogColumns current = columns;
+        if (current == null) {
+            return customerRepo.getActiveNonPurchasedCouponsLowerThanPrice(customerId, price, LocalDateTime.now(), afterId, limit);
+        }
+        return current.findLowerThanPrice(price, ownedCouponIds(customerId), afterId, limit, nowSeconds());
+    }
+
+    @Override
+    public void saved(Coupon coupon) {
+        CatalogCoupon saved = new CatalogCoupon(coupon);
+        afterCommit(() -> change(saved.getId(), saved));
+    }
+
+    @Override
+    public void deleted(long couponId) {
+        afterCommit(() -> change(couponId, null));
+    }
+
+    @Override
+    public void companyDeleted(long companyId) {
+        /*Companies are deleted rarely enough to load everything again rather than keep the company of every coupon*/
+        afterCommit(this::load);
+    }
+
+    /**
+     * A method that loads all active coupons into new columns, replacing the current ones.
+     * Loads are serialized, and changes made during a load are applied to its columns before they replace the current ones.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(initialDelayString = "${catalog.index.refresh-interval}", fixedDelayString = "${catalog.index.refresh-interval}")
+    public synchronized void load() {
+        synchronized (changeLock) {
+            changesDuringLoad = new HashMap<>();
+        }
+        try {
+            List<CouponView> views = couponRepo.findAllActiveCouponViews(LocalDateTime.now());
+            CatalogCoupon[] coupons = new CatalogCoupon[views.size()];
+            for (int i = 0; i < coupons.length; i++) {
+                coupons[i] = new CatalogCoupon(views.get(i));
+            }
+            CatalogColumns loaded = new CatalogColumns(coupons);
+            synchronized (changeLock) {
+                for (Map.Entry<Long, CatalogCoupon> change : changesDuringLoad.entrySet()) {
+                    loaded = change.getValue() == null ? loaded.withoutCoupon(change.getKey()) : loaded.withCoupon(change.getValue());
+                }
+                columns = loaded;
+            }
+        } finally {
+            synchronized (changeLock) {
+                changesDuringLoad = null;
+            }
+        }
+    }
+
+    private void change(long couponId, CatalogCoupon coupon) {
+        synchronized (changeLock) {
+            if (changesDuringLoad != null) {
+                changesDuringLoad.put(couponId, coupon);
+            }
+            /*Before the first load, the load itself will read the change*/
+            if (columns != null) {
+                columns = coupon == null ? columns.withoutCoupon(couponId) : columns.withCoupon(coupon);
+            }
+        }
+    }
+
+    private long[] ownedCouponIds(long customerId) {
+        List<Number> owned = customerRepo.findAllOwnedCouponIds(customerId);
+        long[] ids = new long[owned.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = owned.get(i).longValue();
+        }
+        return ids;
+    }
+
+    private static long nowSeconds() {
+        return LocalDateTime.now().toEpochSecond(ZoneOffset.UTC);
+    }
+
+    private static void afterCommit(Runnable change) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    change.run();
+                }
+            });
+        } else {
+            change.run();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.jb.coupon_system.service.catalog;
+
+import com.jb.coupon_system.data.entity.Coupon;
+import com.jb.coupon_system.data.projection.CouponView;
+
+import java.util.List;
+
+/**
+ * The coupons customers browse, answering the queries for coupons a customer has not purchased yet.
+ * Browsing is answered either by the coupon table itself or by the in-memory CatalogIndex,
+ * which is why every change made to the coupons is reported here, once the change is committed.
+ * Every query returns coupons ordered by id, continuing after the last coupon of the previous page.
+ */
+public interface CouponCatalog {
+
+    /**
+     * A method that finds a page of the coupons that have not been purchased by the customer.
+     *
+     * @param customerId
+     * @param afterId    id of the last coupon of the previous page, or 0 for the first page
+     * @param limit      maximal number of coupons to find
+     * @return List<CouponView>
+     */
+    List<CouponView> getAllNonPurchasedCoupons(long customerId, long afterId, int limit);
+
+    /**
+     * A method that finds a page of the coupons of a category that have not been purchased by the customer.
+     *
+     * @param customerId
+     * @param category
+     * @param afterId    id of the last coupon of the previous page, or 0 for the first page
+     * @param limit      maximal number of coupons to find
+     * @return List<CouponView>
+     */
+    List<CouponView> getNonPurchasedCouponsByCategory(long customerId, int category, long afterId, int limit);
+
+    /**
+     * A method that finds a page of the coupons cheaper than a price that have not been purchased by the customer.
+     *
+     * @param customerId
+     * @param price      every coupon found is lower than
+     * @param afterId    id of the last coupon of the previous page, or 0 for the first page
+     * @param limit      maximal number of coupons to find
+     * @return List<CouponView>
+     */
+    List<CouponView> getNonPurchasedCouponsLowerThanPrice(long customerId, double price, long afterId, int limit);
+
+    /**
+     * A method that reports a coupon saved or updated in the current transaction.
+     *
+     * @param coupon as saved
+     */
+    void saved(Coupon coupon);
+
+    /**
+     * A method that reports a coupon deleted in the current transaction.
+     *
+     * @param couponId
+     */
+    void deleted(long couponId);
+
+    /**
+     * A method that reports a company deleted in the current transaction, along with all of its coupons.
+     *
+     * @param companyId
+     */
+    void companyDeleted(long companyId);
+}
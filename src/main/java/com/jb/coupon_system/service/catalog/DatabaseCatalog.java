@@ -0,0 +1,55 @@
+package com.jb.coupon_system.service.catalog;
+
+import com.jb.coupon_system.data.entity.Coupon;
+import com.jb.coupon_system.data.projection.CouponView;
+import com.jb.coupon_system.data.repo.CustomerRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * The default catalog, answering every query from the coupon table, which is always up to date.
+ */
+@Component
+@ConditionalOnProperty(name = "catalog.index.enabled", havingValue = "false", matchIfMissing = true)
+public class DatabaseCatalog implements CouponCatalog {
+
+    private final CustomerRepository customerRepo;
+
+    @Autowired
+    public DatabaseCatalog(CustomerRepository customerRepo) {
+        this.customerRepo = customerRepo;
+    }
+
+    @Override
+    public List<CouponView> getAllNonPurchasedCoupons(long customerId, long afterId, int limit) {
+        return customerRepo.getAllNonPurchasedCoupons(customerId, afterId, limit);
+    }
+
+    @Override
+    public List<CouponView> getNonPurchasedCouponsByCategory(long customerId, int category, long afterId, int limit) {
+        return customerRepo.getNonPurchasedCouponsByCategory(customerId, category, afterId, limit);
+    }
+
+    @Override
+    public List<CouponView> getNonPurchasedCouponsLowerThanPrice(long customerId, double price, long afterId, int limit) {
+        return customerRepo.getNonPurchasedCouponsLowerThanPrice(customerId, price, afterId, limit);
+    }
+
+    @Override
+    public void saved(Coupon coupon) {
+        /*The table is the catalog*/
+    }
+
+    @Override
+    public void deleted(long couponId) {
+        /*The table is the catalog*/
+    }
+
+    @Override
+    public void companyDeleted(long companyId) {
+        /*The table is the catalog*/
+    }
+}
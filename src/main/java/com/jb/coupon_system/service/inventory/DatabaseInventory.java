@@ -0,0 +1,126 @@
+package com.jb.coupon_system.service.inventory;
+
+import com.jb.coupon_system.data.repo.CouponRepository;
+import com.jb.coupon_system.data.repo.PurchaseJdbcRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The default inventory, keeping stock in the amount column of the coupon table
+ * and changing it with single conditional updates.
+ * Held coupons are only counted in memory, per coupon, and purchases leave that many coupons of the amount untouched-
+ * the amount column is written once a held coupon is purchased, and never for holding or releasing it.
+ * A hold reads the amount before counting itself, so a purchase made at the very same moment can still take the last coupon,
+ * in which case the holder finds it sold out when taking it.
+ */
+@Component
+@ConditionalOnProperty(name = "inventory.ledger.enabled", havingValue = "false", matchIfMissing = true)
+public class DatabaseInventory implements Inventory {
+
+    private final Map<Long, Integer> heldByCouponId = new ConcurrentHashMap<>();
+    private final CouponRepository couponRepo;
+    private final PurchaseJdbcRepository purchaseRepo;
+
+    @Autowired
+    public DatabaseInventory(CouponRepository couponRepo, PurchaseJdbcRepository purchaseRepo) {
+        this.couponRepo = couponRepo;
+        this.purchaseRepo = purchaseRepo;
+    }
+
+    @Override
+    public boolean take(long couponId) {
+        return couponRepo.decrementAmountAboveHeld(couponId, held(couponId)) == 1;
+    }
+
+    @Override
+    public boolean[] takeAll(List<Long> couponIds) {
+        int[] held = new int[couponIds.size()];
+        for (int i = 0; i < held.length; i++) {
+            held[i] = held(couponIds.get(i));
+        }
+        int[] updated = purchaseRepo.decrementAmounts(couponIds, held);
+        boolean[] taken = new boolean[updated.length];
+        for (int i = 0; i < updated.length; i++) {
+            taken[i] = updated[i] == 1;
+        }
+        return taken;
+    }
+
+    @Override
+    public int takeUpTo(long couponId, int units) {
+        /*Lock the coupon's row so the amount read is still there when it is decremented*/
+        int amount = couponRepo.findAmountForUpdate(couponId).orElse(0);
+        int taken = Math.min(amount - held(couponId), units);
+        if (taken <= 0) {
+            return 0;
+        }
+        return couponRepo.decrementAmountBy(couponId, taken) == 1 ? taken : 0;
+    }
+
+    @Override
+    public void giveBack(long couponId) {
+        couponRepo.incrementAmount(couponId);
+    }
+
+    @Override
+    public void giveBackAll(Map<Long, Integer> unitsByCouponId) {
+        if (!unitsByCouponId.isEmpty()) {
+            purchaseRepo.incrementAmounts(unitsByCouponId);
+        }
+    }
+
+    @Override
+    public boolean hold(long couponId) {
+        Integer held = heldByCouponId.merge(couponId, 1, DatabaseInventory::sumOrRemove);
+        if (held != null && held > couponRepo.findAmount(couponId).orElse(0)) {
+            releaseHold(couponId);
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void releaseHold(long couponId) {
+        heldByCouponId.merge(couponId, -1, DatabaseInventory::sumOrRemove);
+    }
+
+    @Override
+    public boolean takeHeld(long couponId) {
+        /*The held coupon is still part of the amount, so the plain decrement takes it*/
+        boolean taken = couponRepo.decrementAmount(couponId) == 1;
+        releaseHold(couponId);
+        if (taken && TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status == STATUS_ROLLED_BACK) {
+                        heldByCouponId.merge(couponId, 1, DatabaseInventory::sumOrRemove);
+                    }
+                }
+            });
+        }
+        return taken;
+    }
+
+    @Override
+    public void evict(long couponId) {
+        /*Nothing is cached, and held coupons stay held against the new amount*/
+    }
+
+    private int held(long couponId) {
+        return Math.max(0, heldByCouponId.getOrDefault(couponId, 0));
+    }
+
+    /*Counts may briefly go below zero when a rollback puts back a hold after it was released, so only zero is removed*/
+    private static Integer sumOrRemove(Integer held, Integer change) {
+        int sum = held + change;
+        return sum == 0 ? null : sum;
+    }
+}
@@ -0,0 +1,87 @@
+package com.jb.coupon_system.service.inventory;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The stock of every coupon that can be purchased.
+ * All purchases and returns take and give back coupons through this interface,
+ * whether stock is kept directly in the coupon table or in the in-memory InventoryLedger.
+ * Coupons can also be held- set aside in memory for a customer, without changing the stored amount or sold count,
+ * so held coupons cannot be taken by anyone else until they are taken as held or released.
+ * Changes made within a transaction are undone if the transaction rolls back.
+ */
+public interface Inventory {
+
+    /**
+     * A method that takes a single coupon out of stock.
+     *
+     * @param couponId
+     * @return true if a coupon was taken, false if the coupon is sold out or does not exist.
+     */
+    boolean take(long couponId);
+
+    /**
+     * A method that takes a single coupon of every given coupon out of stock.
+     *
+     * @param couponIds
+     * @return for every coupon in the same order, true if it was taken and false if it is sold out or does not exist.
+     */
+    boolean[] takeAll(List<Long> couponIds);
+
+    /**
+     * A method that takes as many coupons of a single coupon out of stock as are left, up to the given number,
+     * with a single change to the coupon's stock.
+     *
+     * @param couponId
+     * @param units    maximum number of coupons to take
+     * @return the number of coupons taken, 0 if the coupon is sold out or does not exist.
+     */
+    int takeUpTo(long couponId, int units);
+
+    /**
+     * A method that puts a single coupon back in stock.
+     *
+     * @param couponId
+     */
+    void giveBack(long couponId);
+
+    /**
+     * A method that puts several coupons back in stock at once.
+     *
+     * @param unitsByCouponId number of coupons to put back of every coupon id
+     */
+    void giveBackAll(Map<Long, Integer> unitsByCouponId);
+
+    /**
+     * A method that sets a single coupon aside, in memory only.
+     *
+     * @param couponId
+     * @return true if a coupon was held, false if the coupon is sold out or does not exist.
+     */
+    boolean hold(long couponId);
+
+    /**
+     * A method that puts a held coupon back in stock.
+     *
+     * @param couponId
+     */
+    void releaseHold(long couponId);
+
+    /**
+     * A method that takes a held coupon out of stock for good, as purchased.
+     * The coupon is no longer held, whether it was taken or not.
+     *
+     * @param couponId
+     * @return true if the coupon was taken, false if it was sold out after all.
+     */
+    boolean takeHeld(long couponId);
+
+    /**
+     * A method that drops whatever is known about a coupon's stock,
+     * called after a coupon's amount was overwritten or the coupon was deleted.
+     *
+     * @param couponId
+     */
+    void evict(long couponId);
+}
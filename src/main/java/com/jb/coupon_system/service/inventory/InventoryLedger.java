@@ -0,0 +1,448 @@
+package com.jb.coupon_system.service.inventory;
+
+import com.jb.coupon_system.data.entity.Coupon;
+import com.jb.coupon_system.data.entity.InventoryCheckpoint;
+import com.jb.coupon_system.data.repo.CouponRepository;
+import com.jb.coupon_system.data.repo.InventoryCheckpointRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * An inventory that keeps the stock of purchased coupons in memory, so a purchase never waits on the coupon's row lock.
+ * A coupon is loaded the first time it is taken or given back, and from then on its stock is kept in memory.
+ * Sales are written back to the amount and sold count columns in batches by a scheduled flush (write-behind),
+ * while the customer_coupon rows are still written by every purchase as before.
+ * An InventoryCheckpoint per coupon records how many of those rows the amount column already reflects,
+ * which is what recovers sales that were never flushed when the application is restarted.
+ */
+@Component
+@ConditionalOnProperty(name = "inventory.ledger.enabled", havingValue = "true")
+public class InventoryLedger implements Inventory {
+    private static final int LOAD_STRIPES = 64;
+    private static final String FLUSH_AMOUNT = "update coupon set amount = amount - ?, sold_count = sold_count + ? where id = ?";
+    private static final String FLUSH_CHECKPOINT = "update inventory_checkpoint set settled_sales = settled_sales + ? where coupon_id = ?";
+
+    private final Map<Long, Stock> stocks = new ConcurrentHashMap<>();
+    private final Object[] loadLocks = new Object[LOAD_STRIPES];
+    private final CouponRepository couponRepo;
+    private final InventoryCheckpointRepository checkpointRepo;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    @Autowired
+    public InventoryLedger(CouponRepository couponRepo, InventoryCheckpointRepository checkpointRepo,
+                           JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager) {
+        this.couponRepo = couponRepo;
+        this.checkpointRepo = checkpointRepo;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        /*Loading a coupon must commit on its own, even if the purchase that caused it is rolled back*/
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        for (int i = 0; i < LOAD_STRIPES; i++) {
+            loadLocks[i] = new Object();
+        }
+    }
+
+    @Override
+    public boolean take(long couponId) {
+        if (!apply(couponId, Stock::tryTake)) {
+            return false;
+        }
+        onRollback(() -> apply(couponId, stock -> stock.add(1)));
+        return true;
+    }
+
+    @Override
+    public boolean[] takeAll(List<Long> couponIds) {
+        boolean[] taken = new boolean[couponIds.size()];
+        for (int i = 0; i < taken.length; i++) {
+            taken[i] = take(couponIds.get(i));
+        }
+        return taken;
+    }
+
+    @Override
+    public int takeUpTo(long couponId, int units) {
+        int[] taken = new int[1];
+        apply(couponId, stock -> (taken[0] = stock.takeUpTo(units)) > 0);
+        if (taken[0] > 0) {
+            onRollback(() -> apply(couponId, stock -> stock.add(taken[0])));
+        }
+        return taken[0];
+    }
+
+    @Override
+    public void giveBack(long couponId) {
+        giveBack(couponId, 1);
+    }
+
+    @Override
+    public void giveBackAll(Map<Long, Integer> unitsByCouponId) {
+        unitsByCouponId.forEach(this::giveBack);
+    }
+
+    private void giveBack(long couponId, int units) {
+        if (apply(couponId, stock -> stock.add(units))) {
+            onRollback(() -> apply(couponId, stock -> stock.add(-units)));
+        }
+    }
+
+    @Override
+    public boolean hold(long couponId) {
+        return apply(couponId, Stock::tryHold);
+    }
+
+    @Override
+    public void releaseHold(long couponId) {
+        apply(couponId, Stock::releaseHold);
+    }
+
+    @Override
+    public boolean takeHeld(long couponId) {
+        if (!apply(couponId, Stock::sellHeld)) {
+            /*The coupon was deleted while held*/
+            return false;
+        }
+        onRollback(() -> apply(couponId, Stock::unsellHeld));
+        return true;
+    }
+
+    /**
+     * A method that replaces the stock of a coupon whose amount column has been overwritten.
+     * The old stock is retired first, so nothing more is taken from it, and the sales it made are flushed.
+     * The new stock is then read from the amount column, keeping the coupons that are still held,
+     * while anything that was in the middle of using the old stock carries on with the new one.
+     * A deleted coupon has its stock and its checkpoint dropped instead.
+     *
+     * @param couponId
+     */
+    @Override
+    public synchronized void evict(long couponId) {
+        synchronized (loadLockOf(couponId)) {
+            Stock stock = stocks.get(couponId);
+            if (stock == null) {
+                /*Not loaded, but a deleted coupon may still have a checkpoint from when it was*/
+                if (couponRepo.findAmount(couponId).isEmpty()) {
+                    checkpointRepo.deleteByCouponId(couponId);
+                }
+                return;
+            }
+            int[] retired = stock.retire();
+            int sales = retired[0];
+            int held = retired[1];
+
+            int unwrittenSales = sales;
+            if (sales != 0) {
+                try {
+                    writeSales(Collections.singletonList(new Object[]{sales, sales, couponId}));
+                    unwrittenSales = 0;
+                } catch (RuntimeException e) {
+                    /*Keep the sales in the new stock so the next flush writes them*/
+                }
+            }
+
+            Optional<Integer> optAmount = couponRepo.findAmount(couponId);
+            if (optAmount.isEmpty()) {
+                /*The coupon has been deleted*/
+                stocks.remove(couponId);
+                checkpointRepo.deleteByCouponId(couponId);
+                return;
+            }
+            stocks.put(couponId, new Stock(optAmount.get() - unwrittenSales - held, held, unwrittenSales));
+        }
+    }
+
+    /**
+     * A method that writes the sales made since the last flush back to the coupon table,
+     * using one batch for the amounts and one for the checkpoints, in a single transaction.
+     * Flushes and evictions never overlap, so an eviction always reads an amount that no flush is still writing.
+     */
+    @Scheduled(fixedDelayString = "${inventory.ledger.flush-interval}")
+    @PreDestroy
+    public synchronized void flush() {
+        Map<Long, Integer> drained = new LinkedHashMap<>();
+        List<Object[]> batch = new ArrayList<>();
+        for (Map.Entry<Long, Stock> entry : stocks.entrySet()) {
+            int sales = entry.getValue().drainUnflushedSales();
+            if (sales != 0) {
+                drained.put(entry.getKey(), sales);
+                batch.add(new Object[]{sales, sales, entry.getKey()});
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        int[] updated;
+        try {
+            updated = writeSales(batch);
+        } catch (RuntimeException e) {
+            /*Keep the drained sales so the next flush writes them*/
+            drained.forEach((couponId, sales) ->
+                    apply(couponId, stock -> stock.restoreUnflushedSales(sales)));
+            throw e;
+        }
+
+        /*A coupon that was not updated has been deleted (expired coupons are deleted in bulk)*/
+        int i = 0;
+        for (Long couponId : drained.keySet()) {
+            if (updated[i++] == 0) {
+                stocks.remove(couponId);
+            }
+        }
+    }
+
+    /**
+     * A method that settles whatever was sold but never flushed before the application stopped.
+     * For every checkpointed coupon, rows in the customer coupon joined table beyond its settled sales
+     * are taken off the amount column, after which the coupon is loaded again on demand.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void recover() {
+        checkpointRepo.deleteAllOrphans();
+
+        List<Object[]> batch = new ArrayList<>();
+        for (Object[] row : checkpointRepo.findAllWithSales()) {
+            long couponId = ((Number) row[0]).longValue();
+            int settledSales = ((Number) row[1]).intValue();
+            int sales = ((Number) row[2]).intValue();
+            if (sales != settledSales) {
+                batch.add(new Object[]{sales - settledSales, sales - settledSales, couponId});
+            }
+        }
+        if (!batch.isEmpty()) {
+            writeSales(batch);
+        }
+    }
+
+    private int[] writeSales(List<Object[]> batch) {
+        return transactionTemplate.execute(status -> {
+            int[] updated = jdbcTemplate.batchUpdate(FLUSH_AMOUNT, batch);
+            List<Object[]> checkpoints = new ArrayList<>(batch.size());
+            for (Object[] args : batch) {
+                checkpoints.add(new Object[]{args[0], args[2]});
+            }
+            jdbcTemplate.batchUpdate(FLUSH_CHECKPOINT, checkpoints);
+            return updated;
+        });
+    }
+
+    /**
+     * A method that applies a change to the stock of a coupon.
+     * If the stock was retired by an eviction in the meantime, the change waits for the eviction to end
+     * and is then applied to the stock that replaced it.
+     *
+     * @param couponId
+     * @param change   returns whether the change was made.
+     * @return whether the change was made, false if the coupon does not exist.
+     */
+    private boolean apply(long couponId, Predicate<Stock> change) {
+        Stock stock = stockOf(couponId);
+        while (stock != null) {
+            if (change.test(stock)) {
+                return true;
+            }
+            if (!stock.isRetired()) {
+                return false;
+            }
+            /*An eviction holds the load lock from retiring a stock until its replacement is in place, so wait for it there*/
+            synchronized (loadLockOf(couponId)) {
+                stock = stockOf(couponId);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A method that returns the in-memory stock of a coupon, loading it on first use.
+     * Loads are serialized per lock stripe so a coupon is never loaded twice.
+     *
+     * @param couponId
+     * @return the coupon's stock, or null if the coupon does not exist.
+     */
+    private Stock stockOf(long couponId) {
+        Stock stock = stocks.get(couponId);
+        if (stock != null) {
+            return stock;
+        }
+        synchronized (loadLockOf(couponId)) {
+            stock = stocks.get(couponId);
+            if (stock == null) {
+                stock = load(couponId);
+                if (stock != null) {
+                    stocks.put(couponId, stock);
+                }
+            }
+            return stock;
+        }
+    }
+
+    private Object loadLockOf(long couponId) {
+        return loadLocks[(int) (couponId & (LOAD_STRIPES - 1))];
+    }
+
+    private Stock load(long couponId) {
+        return transactionTemplate.execute(status -> {
+            Optional<Coupon> optCoupon = couponRepo.findById(couponId);
+            if (optCoupon.isEmpty()) {
+                return null;
+            }
+            int amount = optCoupon.get().getAmount();
+            int sales = couponRepo.findCouponAmountSold(couponId);
+
+            /*Settle sales left over from a previous ledger that were never flushed*/
+            Optional<InventoryCheckpoint> optCheckpoint = checkpointRepo.findById(couponId);
+            if (optCheckpoint.isPresent()) {
+                int unflushedSales = sales - optCheckpoint.get().getSettledSales();
+                if (unflushedSales != 0) {
+                    jdbcTemplate.update(FLUSH_AMOUNT, unflushedSales, unflushedSales, couponId);
+                    amount -= unflushedSales;
+                }
+            }
+            checkpointRepo.save(new InventoryCheckpoint(couponId, sales));
+            return new Stock(amount, 0, 0);
+        });
+    }
+
+    private void onRollback(Runnable undo) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status == STATUS_ROLLED_BACK) {
+                        undo.run();
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * The stock of a single coupon- what is left to sell, what is held and what was sold since the last flush.
+     * Held coupons are out of the available coupons but not sold, so they are never flushed.
+     * Every change is made under the stock's own lock, which is held only for the arithmetic.
+     * A retired stock refuses every change, so its callers move on to the stock that replaced it.
+     */
+    private static final class Stock {
+        private int available;
+        private int held;
+        private int unflushedSales;
+        private boolean retired;
+
+        private Stock(int available, int held, int unflushedSales) {
+            this.available = available;
+            this.held = held;
+            this.unflushedSales = unflushedSales;
+        }
+
+        private synchronized boolean tryTake() {
+            if (retired || available <= 0) {
+                return false;
+            }
+            available--;
+            unflushedSales++;
+            return true;
+        }
+
+        private synchronized int takeUpTo(int units) {
+            int taken = Math.min(available, units);
+            if (retired || taken <= 0) {
+                return 0;
+            }
+            available -= taken;
+            unflushedSales += taken;
+            return taken;
+        }
+
+        private synchronized boolean tryHold() {
+            if (retired || available <= 0) {
+                return false;
+            }
+            available--;
+            held++;
+            return true;
+        }
+
+        private synchronized boolean releaseHold() {
+            if (retired) {
+                return false;
+            }
+            held--;
+            available++;
+            return true;
+        }
+
+        private synchronized boolean sellHeld() {
+            if (retired) {
+                return false;
+            }
+            held--;
+            unflushedSales++;
+            return true;
+        }
+
+        private synchronized boolean unsellHeld() {
+            if (retired) {
+                return false;
+            }
+            unflushedSales--;
+            held++;
+            return true;
+        }
+
+        private synchronized boolean add(int units) {
+            if (retired) {
+                return false;
+            }
+            available += units;
+            unflushedSales -= units;
+            return true;
+        }
+
+        private synchronized int drainUnflushedSales() {
+            int sales = unflushedSales;
+            unflushedSales = 0;
+            return sales;
+        }
+
+        private synchronized boolean restoreUnflushedSales(int sales) {
+            if (retired) {
+                return false;
+            }
+            unflushedSales += sales;
+            return true;
+        }
+
+        private synchronized boolean isRetired() {
+            return retired;
+        }
+
+        /**
+         * A method that retires the stock and drains it.
+         *
+         * @return the unflushed sales and the held coupons, in that order.
+         */
+        private synchronized int[] retire() {
+            retired = true;
+            int[] drained = {unflushedSales, held};
+            unflushedSales = 0;
+            held = 0;
+            return drained;
+        }
+    }
+}
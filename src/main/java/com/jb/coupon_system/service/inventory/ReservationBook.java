@@ -0,0 +1,214 @@
+package com.jb.coupon_system.service.inventory;
+
+import com.jb.coupon_system.common.TimingWheel;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The coupons customers are holding during checkout.
+ * A hold sets a single coupon of the Inventory aside for a limited time, and is either claimed by a purchase
+ * or released- by the customer, or by a timing wheel once it expires, so expiry never scans all holds.
+ * Holds are kept in memory only, a customer holding at most one of every coupon.
+ * Holding never changes the amount or sold count of a coupon, so holds lost when the application stops
+ * leave nothing behind- the stock they set aside is simply available again.
+ */
+@Component
+public class ReservationBook {
+
+    private final Map<HoldKey, Hold> holds = new ConcurrentHashMap<>();
+    private final Inventory inventory;
+    private final TimingWheel<HoldKey> expiries;
+    private final long ttlMillis;
+
+    @Autowired
+    public ReservationBook(Inventory inventory, @Value("${reservation.ttl}") Duration ttl,
+                           @Value("${reservation.expiry-tick}") Duration tick) {
+        this.inventory = inventory;
+        this.ttlMillis = ttl.toMillis();
+        this.expiries = new TimingWheel<>(tick, (int) (ttl.toMillis() / tick.toMillis()) + 1, System.currentTimeMillis());
+    }
+
+    /**
+     * A method that holds a single coupon for a customer.
+     * Holding a coupon the customer already holds extends the existing hold instead of taking another coupon.
+     *
+     * @param customerId
+     * @param couponId
+     * @return the time the hold expires at in millis, or 0 if the coupon is sold out or does not exist.
+     */
+    public long hold(long customerId, long couponId) {
+        HoldKey key = new HoldKey(customerId, couponId);
+        long expiresMillis = System.currentTimeMillis() + ttlMillis;
+
+        /*Extend a live hold, the wheel finds the new deadline when the old one comes around*/
+        Hold hold = holds.get(key);
+        if (hold != null) {
+            if (hold.extend(expiresMillis)) {
+                return expiresMillis;
+            }
+            /*Release an expired hold the wheel has not reached yet*/
+            if (holds.remove(key, hold)) {
+                inventory.releaseHold(couponId);
+            }
+        }
+
+        if (!inventory.hold(couponId)) {
+            return 0;
+        }
+        Hold added = new Hold(expiresMillis);
+        if (holds.putIfAbsent(key, added) != null) {
+            /*A concurrent request of the same customer got there first*/
+            inventory.releaseHold(couponId);
+            return holds.getOrDefault(key, added).expiresMillis;
+        }
+        expiries.schedule(key, expiresMillis);
+        return expiresMillis;
+    }
+
+    /**
+     * A method that removes a customer's live hold so the held coupon can be purchased, by taking it from the Inventory as held.
+     * If the current transaction rolls back, the hold is put back as it was.
+     *
+     * @param customerId
+     * @param couponId
+     * @return true if the customer held the coupon, false if there was no hold or it has expired.
+     */
+    public boolean claim(long customerId, long couponId) {
+        HoldKey key = new HoldKey(customerId, couponId);
+        Hold hold = holds.get(key);
+        if (hold == null || !holds.remove(key, hold)) {
+            return false;
+        }
+
+        /*An expired hold the wheel has not reached yet is released right away*/
+        if (hold.expiresMillis <= System.currentTimeMillis()) {
+            inventory.releaseHold(couponId);
+            return false;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status == STATUS_ROLLED_BACK) {
+                        restore(key, hold);
+                    }
+                }
+            });
+        }
+        return true;
+    }
+
+    /**
+     * A method that releases a customer's hold, putting the held coupon back in stock.
+     *
+     * @param customerId
+     * @param couponId
+     * @return true if the customer held the coupon, false if there was no hold.
+     */
+    public boolean release(long customerId, long couponId) {
+        HoldKey key = new HoldKey(customerId, couponId);
+        Hold hold = holds.get(key);
+        if (hold == null || !holds.remove(key, hold)) {
+            return false;
+        }
+        inventory.releaseHold(couponId);
+        return true;
+    }
+
+    /**
+     * A method that releases the holds whose time has run out.
+     * Only the holds in the wheel buckets that passed since the last run are looked at.
+     */
+    @Scheduled(fixedRateString = "${reservation.expiry-tick}")
+    public void releaseExpired() {
+        long now = System.currentTimeMillis();
+        expiries.advance(now, key -> {
+            Hold hold = holds.get(key);
+            if (hold == null) {
+                /*Claimed or released already*/
+                return;
+            }
+            if (!hold.expire(now)) {
+                expiries.schedule(key, hold.expiresMillis);
+            } else if (holds.remove(key, hold)) {
+                inventory.releaseHold(key.couponId);
+            }
+        });
+    }
+
+    private void restore(HoldKey key, Hold hold) {
+        if (holds.putIfAbsent(key, hold) == null) {
+            expiries.schedule(key, hold.expiresMillis);
+        } else {
+            /*The customer has held the coupon again in the meantime*/
+            inventory.releaseHold(key.couponId);
+        }
+    }
+
+    private static final class HoldKey {
+        private final long customerId;
+        private final long couponId;
+
+        private HoldKey(long customerId, long couponId) {
+            this.customerId = customerId;
+            this.couponId = couponId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof HoldKey)) {
+                return false;
+            }
+            HoldKey other = (HoldKey) o;
+            return customerId == other.customerId && couponId == other.couponId;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(customerId, couponId);
+        }
+    }
+
+    private static final class Hold {
+        private volatile long expiresMillis;
+        private boolean expired;
+
+        private Hold(long expiresMillis) {
+            this.expiresMillis = expiresMillis;
+        }
+
+        /**
+         * @return false if the hold has already expired, in which case it is left to be released.
+         */
+        private synchronized boolean extend(long expiresMillis) {
+            if (expired || this.expiresMillis <= System.currentTimeMillis()) {
+                return false;
+            }
+            this.expiresMillis = expiresMillis;
+            return true;
+        }
+
+        /**
+         * @return true if the hold has expired by now, after which it can no longer be extended.
+         */
+        private synchronized boolean expire(long now) {
+            if (expiresMillis > now) {
+                return false;
+            }
+            expired = true;
+            return true;
+        }
+    }
+}
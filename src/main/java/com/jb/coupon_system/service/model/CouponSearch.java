@@ -0,0 +1,90 @@
+package com.jb.coupon_system.service.model;
+
+import com.jb.coupon_system.data.criteria.CouponCriteria;
+import com.jb.coupon_system.data.criteria.CouponCriteria.Order;
+import org.springframework.format.annotation.DateTimeFormat;
+
+import java.time.LocalDateTime;
+import java.util.Set;
+
+/**
+ * A coupon search as bound from the request parameters of the search endpoints, turned into CouponCriteria to be run.
+ */
+public class CouponSearch {
+    private Set<Integer> categories;
+    private Double minPrice;
+    private Double maxPrice;
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+    private LocalDateTime endsFrom;
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+    private LocalDateTime endsBefore;
+    private Boolean owned;
+    private Order order = Order.ID;
+
+    public CouponSearch() {
+        /*Empty*/
+    }
+
+    public Set<Integer> getCategories() {
+        return categories;
+    }
+
+    public void setCategories(Set<Integer> categories) {
+        this.categories = categories;
+    }
+
+    public Double getMinPrice() {
+        return minPrice;
+    }
+
+    public void setMinPrice(Double minPrice) {
+        this.minPrice = minPrice;
+    }
+
+    public Double getMaxPrice() {
+        return maxPrice;
+    }
+
+    public void setMaxPrice(Double maxPrice) {
+        this.maxPrice = maxPrice;
+    }
+
+    public LocalDateTime getEndsFrom() {
+        return endsFrom;
+    }
+
+    public void setEndsFrom(LocalDateTime endsFrom) {
+        this.endsFrom = endsFrom;
+    }
+
+    public LocalDateTime getEndsBefore() {
+        return endsBefore;
+    }
+
+    public void setEndsBefore(LocalDateTime endsBefore) {
+        this.endsBefore = endsBefore;
+    }
+
+    public Boolean getOwned() {
+        return owned;
+    }
+
+    public void setOwned(Boolean owned) {
+        this.owned = owned;
+    }
+
+    public Order getOrder() {
+        return order;
+    }
+
+    public void setOrder(Order order) {
+        this.order = order == null ? Order.ID : order;
+    }
+
+    /**
+     * @return the criteria of this search, as run by the CouponSearchRepository.
+     */
+    public CouponCriteria toCriteria() {
+        return new CouponCriteria(categories, minPrice, maxPrice, endsFrom, endsBefore, owned, order);
+    }
+}
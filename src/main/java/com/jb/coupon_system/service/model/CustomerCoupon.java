@@ -0,0 +1,34 @@
+package com.jb.coupon_system.service.model;
+
+/**
+ * A single row of the customer coupon joined table- a coupon owned by a customer.
+ */
+public class CustomerCoupon {
+    private long customerId;
+    private long couponId;
+
+    public CustomerCoupon() {
+        /*Empty*/
+    }
+
+    public CustomerCoupon(long customerId, long couponId) {
+        this.customerId = customerId;
+        this.couponId = couponId;
+    }
+
+    public long getCustomerId() {
+        return customerId;
+    }
+
+    public void setCustomerId(long customerId) {
+        this.customerId = customerId;
+    }
+
+    public long getCouponId() {
+        return couponId;
+    }
+
+    public void setCouponId(long couponId) {
+        this.couponId = couponId;
+    }
+}
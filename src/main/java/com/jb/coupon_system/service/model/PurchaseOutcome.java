@@ -0,0 +1,9 @@
+package com.jb.coupon_system.service.model;
+
+/**
+ * PurchaseOutcome enum describing what happened to a single coupon of a bulk purchase,
+ * or to a single customer of a group purchasing the same coupon.
+ */
+public enum PurchaseOutcome {
+    PURCHASED, SOLD_OUT, ALREADY_OWNED, NO_SUCH_COUPON, NO_SUCH_CUSTOMER, NOT_PURCHASED
+}
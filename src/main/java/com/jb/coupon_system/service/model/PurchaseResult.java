@@ -0,0 +1,24 @@
+package com.jb.coupon_system.service.model;
+
+/**
+ * The result of purchasing a single coupon as part of a bulk purchase.
+ * NOT_PURCHASED is used for coupons that could have been purchased,
+ * but were not since an all-or-nothing purchase failed on a different coupon.
+ */
+public class PurchaseResult {
+    private final long couponId;
+    private final PurchaseOutcome outcome;
+
+    public PurchaseResult(long couponId, PurchaseOutcome outcome) {
+        this.couponId = couponId;
+        this.outcome = outcome;
+    }
+
+    public long getCouponId() {
+        return couponId;
+    }
+
+    public PurchaseOutcome getOutcome() {
+        return outcome;
+    }
+}
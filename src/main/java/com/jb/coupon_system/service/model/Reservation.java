@@ -0,0 +1,30 @@
+package com.jb.coupon_system.service.model;
+
+import java.time.LocalDateTime;
+
+/**
+ * A coupon held for a customer during checkout, until it is purchased or released, or its hold expires.
+ */
+public class Reservation {
+    private final long customerId;
+    private final long couponId;
+    private final LocalDateTime expiresAt;
+
+    public Reservation(long customerId, long couponId, LocalDateTime expiresAt) {
+        this.customerId = customerId;
+        this.couponId = couponId;
+        this.expiresAt = expiresAt;
+    }
+
+    public long getCustomerId() {
+        return customerId;
+    }
+
+    public long getCouponId() {
+        return couponId;
+    }
+
+    public LocalDateTime getExpiresAt() {
+        return expiresAt;
+    }
+}
@@ -0,0 +1,29 @@
+package com.jb.coupon_system.service.model;
+
+/**
+ * The result of returning a single coupon as part of a bulk return.
+ * returned is false if the customer did not own the coupon, in which case nothing was changed.
+ */
+public class ReturnResult {
+    private final long customerId;
+    private final long couponId;
+    private final boolean returned;
+
+    public ReturnResult(long customerId, long couponId, boolean returned) {
+        this.customerId = customerId;
+        this.couponId = couponId;
+        this.returned = returned;
+    }
+
+    public long getCustomerId() {
+        return customerId;
+    }
+
+    public long getCouponId() {
+        return couponId;
+    }
+
+    public boolean isReturned() {
+        return returned;
+    }
+}
@@ -0,0 +1,63 @@
+package com.jb.coupon_system.data.repo;
+
+import com.jb.coupon_system.data.entity.Company;
+import com.jb.coupon_system.data.entity.Coupon;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import javax.persistence.EntityManagerFactory;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@SpringBootTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+class CouponRepositoryTests {
+
+	private static final int COUPONS = 5;
+
+	@Autowired
+	private CompanyRepository companyRepo;
+	@Autowired
+	private CouponRepository couponRepo;
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
+	@Test
+	void rankingCompanyCouponsBySalesDoesNotQueryPerCoupon() {
+		String unique = UUID.randomUUID().toString();
+
+		Company company = new Company();
+		company.setName("company-" + unique);
+		company.setEmail(unique + "@company.com");
+		company.setPassword("1234");
+		company = companyRepo.save(company);
+
+		for (int i = 0; i < COUPONS; i++) {
+			Coupon coupon = new Coupon();
+			coupon.setCompany(company);
+			coupon.setTitle("coupon-" + i + "-" + unique);
+			coupon.setStartDate(LocalDateTime.now());
+			coupon.setEndDate(LocalDateTime.now().plusDays(1));
+			coupon.setAmount(5);
+			coupon.setPrice(10);
+			couponRepo.save(coupon);
+		}
+
+		Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+		try {
+			statistics.clear();
+			List<Coupon> ranked = couponRepo.findAllByCompanyIdOrderByMostSold(company.getId(), COUPONS, 0);
+
+			assertEquals(COUPONS, ranked.size());
+			/*The ranked coupons, and their company once (Coupon.company is eagerly fetched), however many coupons there are*/
+			assertEquals(2, statistics.getPrepareStatementCount());
+		} finally {
+			companyRepo.deleteById(company.getId());
+		}
+	}
+}
@@ -0,0 +1,185 @@
+package com.jb.coupon_system.data.repo;
+
+import com.jb.coupon_system.data.entity.Company;
+import com.jb.coupon_system.data.entity.Coupon;
+import com.jb.coupon_system.data.entity.Customer;
+import com.jb.coupon_system.data.projection.CouponView;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@SpringBootTest
+class CustomerRepositoryTests {
+
+	private static final int SEEDED_COUPONS = 2_000;
+	private static final int CATEGORIES = 10;
+	private static final int RUNS = 5;
+
+	/*The non purchased coupon queries as they were before being rewritten as anti-joins*/
+	private static final String NOT_IN_ALL = "select c from Coupon as c " +
+			"where c not in(select c from Coupon as c inner join c.customers as cust where cust.id =:customerId) ";
+	private static final String NOT_IN_BY_CATEGORY = NOT_IN_ALL + "and category =:category";
+	private static final String NOT_IN_LOWER_THAN_PRICE = NOT_IN_ALL + "and price <:price";
+
+	@Autowired
+	private CompanyRepository companyRepo;
+	@Autowired
+	private CouponRepository couponRepo;
+	@Autowired
+	private CustomerRepository customerRepo;
+	@Autowired
+	private PurchaseJdbcRepository purchaseRepo;
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
+	@Test
+	void projectedQueriesSelectEveryCouponViewColumn() {
+		String unique = UUID.randomUUID().toString();
+
+		Company company = new Company();
+		company.setName("company-" + unique);
+		company.setEmail(unique + "@company.com");
+		company.setPassword("1234");
+		company = companyRepo.save(company);
+
+		LocalDateTime endDate = LocalDateTime.now().plusDays(1).withNano(0);
+		Coupon coupon = new Coupon();
+		coupon.setCompany(company);
+		coupon.setTitle("coupon-" + unique);
+		coupon.setDescription("description-" + unique);
+		coupon.setImageURL("image-" + unique);
+		coupon.setStartDate(endDate.minusDays(2));
+		coupon.setEndDate(endDate);
+		coupon.setCategory(3);
+		coupon.setAmount(5);
+		coupon.setPrice(10);
+		coupon = couponRepo.save(coupon);
+
+		Customer customer = new Customer();
+		customer.setEmail(unique + "@customer.com");
+		customer.setPassword("1234");
+		customer = customerRepo.save(customer);
+
+		try {
+			assertEquals(1, customerRepo.insertCustomerCoupon(customer.getId(), coupon.getId()));
+
+			List<CouponView> purchased = customerRepo.getMyPurchasedCoupons(customer.getId(), 0, 10);
+			assertEquals(1, purchased.size());
+			CouponView view = purchased.get(0);
+			assertEquals(coupon.getId(), view.getId());
+			assertEquals(coupon.getTitle(), view.getTitle());
+			assertEquals(coupon.getDescription(), view.getDescription());
+			assertEquals(coupon.getImageURL(), view.getImageURL());
+			assertEquals(coupon.getStartDate(), view.getStartDate());
+			assertEquals(endDate, view.getEndDate());
+			assertEquals(3, view.getCategory());
+			assertEquals(5, view.getAmount());
+			assertEquals(0, view.getSoldCount());
+			assertEquals(10, view.getPrice());
+		} finally {
+			customerRepo.deleteCustomerCoupon(customer.getId(), coupon.getId());
+			customerRepo.deleteById(customer.getId());
+			companyRepo.deleteById(company.getId());
+		}
+	}
+
+	@Test
+	void antiJoinQueriesReturnTheSameCouponsAsTheNotInQueries() {
+		String unique = UUID.randomUUID().toString();
+
+		Company company = new Company();
+		company.setName("company-" + unique);
+		company.setEmail(unique + "@company.com");
+		company.setPassword("1234");
+		company = companyRepo.save(company);
+
+		List<Coupon> coupons = new ArrayList<>();
+		for (int i = 0; i < SEEDED_COUPONS; i++) {
+			Coupon coupon = new Coupon();
+			coupon.setCompany(company);
+			coupon.setTitle("coupon-" + i + "-" + unique);
+			coupon.setStartDate(LocalDateTime.now());
+			coupon.setEndDate(LocalDateTime.now().plusDays(1));
+			coupon.setCategory(i % CATEGORIES);
+			coupon.setAmount(5);
+			coupon.setPrice(i % 100);
+			coupons.add(coupon);
+		}
+		coupons = couponRepo.saveAll(coupons);
+		Set<Long> seeded = coupons.stream().map(Coupon::getId).collect(Collectors.toSet());
+
+		Customer customer = new Customer();
+		customer.setEmail(unique + "@customer.com");
+		customer.setPassword("1234");
+		customer = customerRepo.save(customer);
+		long customerId = customer.getId();
+
+		/*The customer owns every third coupon*/
+		List<Long> owned = new ArrayList<>();
+		for (int i = 0; i < coupons.size(); i += 3) {
+			owned.add(coupons.get(i).getId());
+		}
+		purchaseRepo.insertCustomerCoupons(customerId, owned);
+
+		EntityManager entityManager = entityManagerFactory.createEntityManager();
+		try {
+			assertSameCoupons("all", seeded,
+					() -> entityManager.createQuery(NOT_IN_ALL, Coupon.class)
+							.setParameter("customerId", customerId).getResultList(),
+					() -> customerRepo.getAllNonPurchasedCoupons(customerId, 0, Integer.MAX_VALUE));
+			assertSameCoupons("by category", seeded,
+					() -> entityManager.createQuery(NOT_IN_BY_CATEGORY, Coupon.class)
+							.setParameter("customerId", customerId).setParameter("category", 3).getResultList(),
+					() -> customerRepo.getNonPurchasedCouponsByCategory(customerId, 3, 0, Integer.MAX_VALUE));
+			assertSameCoupons("lower than price", seeded,
+					() -> entityManager.createQuery(NOT_IN_LOWER_THAN_PRICE, Coupon.class)
+							.setParameter("customerId", customerId).setParameter("price", 40.0).getResultList(),
+					() -> customerRepo.getNonPurchasedCouponsLowerThanPrice(customerId, 40, 0, Integer.MAX_VALUE));
+		} finally {
+			entityManager.close();
+			purchaseRepo.deleteCustomerCoupons(Collections.nCopies(owned.size(), customerId), owned);
+			customerRepo.deleteById(customerId);
+			companyRepo.deleteById(company.getId());
+		}
+	}
+
+	/**
+	 * A method that runs the query before and after the rewrite a few times each, comparing the seeded coupons they return
+	 * and printing the fastest run of each.
+	 */
+	private void assertSameCoupons(String query, Set<Long> seeded, Supplier<List<Coupon>> notIn, Supplier<List<CouponView>> antiJoin) {
+		long notInNanos = Long.MAX_VALUE;
+		long antiJoinNanos = Long.MAX_VALUE;
+		List<Long> before = null;
+		List<Long> after = null;
+		for (int run = 0; run < RUNS; run++) {
+			long start = System.nanoTime();
+			List<Coupon> notInCoupons = notIn.get();
+			notInNanos = Math.min(notInNanos, System.nanoTime() - start);
+
+			start = System.nanoTime();
+			List<CouponView> antiJoinCoupons = antiJoin.get();
+			antiJoinNanos = Math.min(antiJoinNanos, System.nanoTime() - start);
+
+			before = notInCoupons.stream().map(Coupon::getId).filter(seeded::contains).sorted().collect(Collectors.toList());
+			after = antiJoinCoupons.stream().map(CouponView::getId).filter(seeded::contains).collect(Collectors.toList());
+		}
+		System.out.printf("Non purchased coupons %s: not in %d ms, not exists %d ms, %d coupons%n",
+				query, notInNanos / 1_000_000, antiJoinNanos / 1_000_000, after.size());
+
+		assertEquals(before, after);
+	}
+}
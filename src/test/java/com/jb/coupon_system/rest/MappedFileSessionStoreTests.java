@@ -0,0 +1,256 @@
+package com.jb.coupon_system.rest;
+
+import com.jb.coupon_system.common.CoarseClock;
+import com.jb.coupon_system.common.LoginType;
+import com.jb.coupon_system.rest.ex.InvalidLoginException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MappedFileSessionStoreTests {
+
+	private static final Duration TTL = Duration.ofMinutes(30);
+	private static final Duration CLEAN_UP_RATE = Duration.ofSeconds(1);
+
+	/*Tokens of the same length and hash, so they all start probing from the same slot*/
+	private static final String COLLIDING_1 = "CUSTOMER_AaAa";
+	private static final String COLLIDING_2 = "CUSTOMER_AaBB";
+	private static final String COLLIDING_3 = "CUSTOMER_BBAa";
+
+	@TempDir
+	Path dir;
+
+	private final FixedTokens tokens = new FixedTokens();
+	private MappedFileSessionStore store;
+
+	@AfterEach
+	void shutdown() throws IOException {
+		store.shutdown();
+	}
+
+	@Test
+	void collidingTokensAreFoundPastEachOtherAndPastRemovedOnes() throws Exception {
+		store = newStore(16, COLLIDING_1, COLLIDING_2, COLLIDING_3);
+		open(1);
+		open(2);
+		open(3);
+
+		store.close(COLLIDING_1);
+
+		assertThrows(InvalidLoginException.class, () -> store.accessAndGetClientIdOrThrow(COLLIDING_1));
+		assertEquals(2, store.accessAndGetClientIdOrThrow(COLLIDING_2));
+		assertEquals(3, store.accessAndGetClientIdOrThrow(COLLIDING_3));
+	}
+
+	@Test
+	void removedSlotIsReused() throws Exception {
+		store = newStore(16, COLLIDING_1, COLLIDING_2, COLLIDING_3);
+		open(1);
+		open(2);
+		store.close(COLLIDING_1);
+
+		open(3);
+
+		assertEquals(new Records(2, 0), records());
+		assertEquals(2, store.accessAndGetClientIdOrThrow(COLLIDING_2));
+		assertEquals(3, store.accessAndGetClientIdOrThrow(COLLIDING_3));
+	}
+
+	@Test
+	void fullStoreRejectsNewSessions() {
+		store = newStore(16);
+		/*At most three quarters of the slots are used*/
+		for (int i = 0; i < 12; i++) {
+			open(i);
+		}
+
+		assertThrows(IllegalStateException.class, () -> open(12));
+	}
+
+	@Test
+	void tooManyRemovedSessionsRebuildTheFile() throws Exception {
+		store = newStore(16);
+		List<String> opened = new ArrayList<>();
+		for (int i = 0; i < 8; i++) {
+			opened.add(open(i));
+		}
+		for (int i = 0; i < 5; i++) {
+			store.close(opened.get(i));
+		}
+		assertEquals(new Records(3, 5), records());
+
+		store.removeExpired();
+
+		assertEquals(new Records(3, 0), records());
+		for (int i = 5; i < 8; i++) {
+			assertEquals(i, store.accessAndGetClientIdOrThrow(opened.get(i)));
+		}
+	}
+
+	@Test
+	void changedCapacityRebuildsTheFile() throws Exception {
+		store = newStore(16);
+		List<String> opened = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			opened.add(open(i));
+		}
+
+		store.shutdown();
+		store = newStore(64);
+
+		assertEquals(64, capacity());
+		assertEquals(new Records(5, 0), records());
+		for (int i = 0; i < 5; i++) {
+			assertEquals(i, store.accessAndGetClientIdOrThrow(opened.get(i)));
+		}
+	}
+
+	@Test
+	void sessionsSurviveARestartUnlessClosedOrExpired() throws Exception {
+		store = newStore(16);
+		String kept = open(1);
+		String closed = open(2);
+		String expiring = tokens.generate(LoginType.COMPANY);
+		tokens.add(expiring);
+		store.open(LoginType.COMPANY, new ClientSession(3, CoarseClock.millis() - TTL.toMillis() * 2));
+		store.close(closed);
+
+		store.shutdown();
+		store = newStore(16);
+
+		assertEquals(1, store.accessAndGetClientIdOrThrow(kept));
+		assertThrows(InvalidLoginException.class, () -> store.accessAndGetClientIdOrThrow(closed));
+		assertThrows(InvalidLoginException.class, () -> store.accessAndGetClientIdOrThrow(expiring));
+		assertEquals(new Records(1, 2), records());
+	}
+
+	@Test
+	void oneMillionSessionsAreRecoveredAtStartup() throws Exception {
+		int sessions = 1_000_000;
+		store = newStore(1 << 21);
+		List<String> sample = new ArrayList<>();
+		for (int i = 0; i < sessions; i++) {
+			String token = open(i);
+			if (i % 1000 == 0) {
+				sample.add(token);
+			}
+		}
+
+		store.shutdown();
+		long start = System.nanoTime();
+		store = newStore(1 << 21);
+		long recoveryMillis = (System.nanoTime() - start) / 1_000_000;
+		System.out.printf("Recovered %d sessions in %d ms%n", sessions, recoveryMillis);
+
+		assertEquals(new Records(sessions, 0), records());
+		for (int i = 0; i < sample.size(); i++) {
+			assertEquals(i * 1000L, store.accessAndGetClientIdOrThrow(sample.get(i)));
+		}
+	}
+
+	private MappedFileSessionStore newStore(int capacity, String... fixedTokens) {
+		tokens.addAll(fixedTokens);
+		try {
+			return new MappedFileSessionStore(tokens, new SessionMetrics(new SimpleMeterRegistry()),
+					dir.resolve("sessions.dat").toString(), capacity, TTL, CLEAN_UP_RATE);
+		} catch (IOException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	private String open(long clientId) {
+		return store.open(LoginType.CUSTOMER, ClientSession.create(clientId));
+	}
+
+	private int capacity() throws IOException {
+		try (FileChannel channel = FileChannel.open(dir.resolve("sessions.dat"))) {
+			ByteBuffer header = ByteBuffer.allocate(8);
+			channel.read(header, 0);
+			return header.getInt(4);
+		}
+	}
+
+	/**
+	 * A method that counts the records of the file by their state, reading the file itself
+	 * and not the store, so only what was written through to the file is counted.
+	 */
+	private Records records() throws IOException {
+		int capacity = capacity();
+		try (FileChannel channel = FileChannel.open(dir.resolve("sessions.dat"))) {
+			ByteBuffer state = ByteBuffer.allocate(4);
+			int live = 0;
+			int removed = 0;
+			for (int slot = 0; slot < capacity; slot++) {
+				state.clear();
+				channel.read(state, 64 + slot * 64L);
+				if (state.getInt(0) == 1) {
+					live++;
+				} else if (state.getInt(0) == 2) {
+					removed++;
+				}
+			}
+			return new Records(live, removed);
+		}
+	}
+
+	private static final class Records {
+		private final int live;
+		private final int removed;
+
+		private Records(int live, int removed) {
+			this.live = live;
+			this.removed = removed;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof Records && ((Records) o).live == live && ((Records) o).removed == removed;
+		}
+
+		@Override
+		public int hashCode() {
+			return live * 31 + removed;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d live, %d removed", live, removed);
+		}
+	}
+
+	/**
+	 * A token generator that hands out the given tokens first, and random ones once they run out.
+	 */
+	private static final class FixedTokens extends TokenGenerator {
+		private final Queue<String> fixed = new ArrayDeque<>();
+
+		private void add(String token) {
+			fixed.add(token);
+		}
+
+		private void addAll(String... tokens) {
+			fixed.addAll(Arrays.asList(tokens));
+		}
+
+		@Override
+		public String generate(LoginType loginType) {
+			String token = fixed.poll();
+			return token != null ? token : super.generate(loginType);
+		}
+	}
+}
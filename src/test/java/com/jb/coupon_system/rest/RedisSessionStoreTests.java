@@ -0,0 +1,209 @@
+package com.jb.coupon_system.rest;
+
+import com.jb.coupon_system.common.LoginType;
+import com.jb.coupon_system.rest.ex.InvalidLoginException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RedisSessionStoreTests {
+
+	private static final Duration TTL = Duration.ofMillis(600);
+	private static final Duration NEAR_CACHE_TTL = Duration.ofMillis(50);
+	private static final Duration TOUCH_INTERVAL = Duration.ofMillis(20);
+
+	private EmbeddedRespServer server;
+	private RedisSessionStore node;
+	private RedisSessionStore otherNode;
+
+	@BeforeEach
+	void startServer() throws IOException {
+		server = new EmbeddedRespServer();
+		node = newNode();
+		otherNode = newNode();
+	}
+
+	@AfterEach
+	void stopServer() throws IOException {
+		node.shutdown();
+		otherNode.shutdown();
+		server.close();
+	}
+
+	@Test
+	void tokenOpenedOnOneNodeIsValidOnAnother() throws InvalidLoginException {
+		String token = node.open(LoginType.CUSTOMER, ClientSession.create(42));
+
+		assertTrue(token.startsWith(LoginType.CUSTOMER.name()));
+		assertEquals(42, node.accessAndGetClientIdOrThrow(token));
+		assertEquals(42, otherNode.accessAndGetClientIdOrThrow(token));
+	}
+
+	@Test
+	void unknownTokenIsRejected() {
+		assertThrows(InvalidLoginException.class, () -> node.accessAndGetClientIdOrThrow("CUSTOMER_unknown"));
+	}
+
+	@Test
+	void closedTokenIsRejectedOnceNearCachesExpire() throws Exception {
+		String token = node.open(LoginType.COMPANY, ClientSession.create(7));
+		otherNode.accessAndGetClientIdOrThrow(token);
+
+		node.close(token);
+
+		assertThrows(InvalidLoginException.class, () -> node.accessAndGetClientIdOrThrow(token));
+		Thread.sleep(NEAR_CACHE_TTL.toMillis() * 2);
+		assertThrows(InvalidLoginException.class, () -> otherNode.accessAndGetClientIdOrThrow(token));
+		assertThrows(InvalidLoginException.class, () -> otherNode.close(token));
+	}
+
+	@Test
+	void accessesKeepTheSessionAliveAndIdleSessionsExpire() throws Exception {
+		String token = node.open(LoginType.ADMIN, ClientSession.create(1));
+
+		/*Keep accessing well past the ttl- the asynchronous touches must keep the session alive*/
+		long until = System.currentTimeMillis() + TTL.toMillis() * 3;
+		while (System.currentTimeMillis() < until) {
+			assertEquals(1, node.accessAndGetClientIdOrThrow(token));
+			Thread.sleep(TTL.toMillis() / 6);
+		}
+
+		Thread.sleep(TTL.toMillis() * 2);
+		assertThrows(InvalidLoginException.class, () -> otherNode.accessAndGetClientIdOrThrow(token));
+	}
+
+	private RedisSessionStore newNode() {
+		return new RedisSessionStore(new TokenGenerator(), new SessionMetrics(new SimpleMeterRegistry()), "127.0.0.1", server.getPort(), 4, TTL,
+				100, NEAR_CACHE_TTL, TOUCH_INTERVAL);
+	}
+
+	/**
+	 * An in-process stand-in for a Redis server, supporting only the commands used by the RedisSessionStore.
+	 */
+	private static final class EmbeddedRespServer implements AutoCloseable {
+		private final ServerSocket serverSocket;
+		private final Map<String, String> values = new ConcurrentHashMap<>();
+		private final Map<String, Long> expiresMillis = new ConcurrentHashMap<>();
+
+		private EmbeddedRespServer() throws IOException {
+			serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+			Thread acceptor = new Thread(this::accept, "embedded-resp-server");
+			acceptor.setDaemon(true);
+			acceptor.start();
+		}
+
+		private int getPort() {
+			return serverSocket.getLocalPort();
+		}
+
+		@Override
+		public void close() throws IOException {
+			serverSocket.close();
+		}
+
+		private void accept() {
+			while (!serverSocket.isClosed()) {
+				try {
+					Socket socket = serverSocket.accept();
+					Thread connection = new Thread(() -> serve(socket), "embedded-resp-connection");
+					connection.setDaemon(true);
+					connection.start();
+				} catch (IOException e) {
+					/*Closed*/
+				}
+			}
+		}
+
+		private void serve(Socket socket) {
+			try (socket) {
+				InputStream in = new BufferedInputStream(socket.getInputStream());
+				OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+				while (true) {
+					if (in.read() != '*') {
+						return;
+					}
+					String[] args = new String[Integer.parseInt(readLine(in))];
+					for (int i = 0; i < args.length; i++) {
+						in.read();
+						int length = Integer.parseInt(readLine(in));
+						args[i] = new String(in.readNBytes(length), StandardCharsets.UTF_8);
+						readLine(in);
+					}
+					out.write(execute(args).getBytes(StandardCharsets.UTF_8));
+					if (in.available() == 0) {
+						out.flush();
+					}
+				}
+			} catch (IOException e) {
+				/*Client went away*/
+			}
+		}
+
+		private String execute(String[] args) {
+			String key = args.length > 1 ? args[1] : null;
+			switch (args[0].toUpperCase()) {
+				case "SET":
+					values.put(key, args[2]);
+					expiresMillis.remove(key);
+					if (args.length == 5 && args[3].equalsIgnoreCase("PX")) {
+						expiresMillis.put(key, System.currentTimeMillis() + Long.parseLong(args[4]));
+					}
+					return "+OK\r\n";
+				case "GET": {
+					String value = live(key) ? values.get(key) : null;
+					return value == null ? "$-1\r\n" : "$" + value.length() + "\r\n" + value + "\r\n";
+				}
+				case "PEXPIRE":
+					if (!live(key)) {
+						return ":0\r\n";
+					}
+					expiresMillis.put(key, System.currentTimeMillis() + Long.parseLong(args[2]));
+					return ":1\r\n";
+				case "DEL":
+					return live(key) && values.remove(key) != null ? ":1\r\n" : ":0\r\n";
+				default:
+					return "-ERR unknown command '" + args[0] + "'\r\n";
+			}
+		}
+
+		private boolean live(String key) {
+			Long expires = expiresMillis.get(key);
+			if (expires != null && expires <= System.currentTimeMillis()) {
+				values.remove(key);
+				expiresMillis.remove(key);
+			}
+			return values.containsKey(key);
+		}
+
+		private static String readLine(InputStream in) throws IOException {
+			StringBuilder line = new StringBuilder();
+			int c;
+			while ((c = in.read()) != '\r') {
+				if (c == -1) {
+					throw new IOException("closed");
+				}
+				line.append((char) c);
+			}
+			in.read();
+			return line.toString();
+		}
+	}
+}
@@ -0,0 +1,102 @@
+package com.jb.coupon_system.service;
+
+import com.jb.coupon_system.data.entity.Company;
+import com.jb.coupon_system.data.entity.Coupon;
+import com.jb.coupon_system.data.entity.Customer;
+import com.jb.coupon_system.data.repo.CompanyRepository;
+import com.jb.coupon_system.data.repo.CouponRepository;
+import com.jb.coupon_system.data.repo.CustomerRepository;
+import com.jb.coupon_system.service.ex.ZeroCouponAmountException;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest
+class CustomerServiceProviderTests {
+
+	private static final int STOCK = 50;
+	private static final int BUYERS = 300;
+
+	@Autowired
+	private CustomerService service;
+	@Autowired
+	private CompanyRepository companyRepo;
+	@Autowired
+	private CouponRepository couponRepo;
+	@Autowired
+	private CustomerRepository customerRepo;
+
+	@Test
+	void purchaseCouponNeverOversellsUnderConcurrentBuyers() throws InterruptedException {
+		String unique = UUID.randomUUID().toString();
+
+		Company company = new Company();
+		company.setName("company-" + unique);
+		company.setEmail(unique + "@company.com");
+		company.setPassword("1234");
+		company = companyRepo.save(company);
+
+		Coupon coupon = new Coupon();
+		coupon.setCompany(company);
+		coupon.setTitle("coupon-" + unique);
+		coupon.setStartDate(LocalDateTime.now());
+		coupon.setEndDate(LocalDateTime.now().plusDays(1));
+		coupon.setAmount(STOCK);
+		coupon.setPrice(10);
+		long couponId = couponRepo.save(coupon).getId();
+
+		List<Customer> customers = new ArrayList<>();
+		for (int i = 0; i < BUYERS; i++) {
+			Customer customer = new Customer();
+			customer.setEmail(i + "-" + unique + "@customer.com");
+			customer.setPassword("1234");
+			customers.add(customerRepo.save(customer));
+		}
+
+		AtomicInteger purchased = new AtomicInteger();
+		AtomicInteger soldOut = new AtomicInteger();
+		AtomicInteger failed = new AtomicInteger();
+		CountDownLatch start = new CountDownLatch(1);
+		ExecutorService pool = Executors.newFixedThreadPool(64);
+		try {
+			for (Customer customer : customers) {
+				pool.execute(() -> {
+					try {
+						start.await();
+						service.purchaseCoupon(customer.getId(), couponId);
+						purchased.incrementAndGet();
+					} catch (ZeroCouponAmountException e) {
+						soldOut.incrementAndGet();
+					} catch (Exception e) {
+						failed.incrementAndGet();
+					}
+				});
+			}
+			start.countDown();
+			pool.shutdown();
+			assertTrue(pool.awaitTermination(1, TimeUnit.MINUTES));
+
+			assertEquals(0, failed.get());
+			assertEquals(STOCK, purchased.get());
+			assertEquals(BUYERS - STOCK, soldOut.get());
+			assertEquals(0, couponRepo.findById(couponId).orElseThrow().getAmount());
+			assertEquals(STOCK, couponRepo.findCouponAmountSold(couponId));
+		} finally {
+			customerRepo.deleteAll(customers);
+			companyRepo.deleteById(company.getId());
+		}
+	}
+}
@@ -0,0 +1,125 @@
+package com.jb.coupon_system.service.catalog;
+
+import com.jb.coupon_system.data.projection.CouponView;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.function.LongPredicate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CatalogColumnsTests {
+
+	private static final int COUPONS = 300;
+	private static final LocalDateTime NOW = LocalDateTime.of(2030, 1, 1, 0, 0);
+	private static final long NOW_SECONDS = NOW.toEpochSecond(ZoneOffset.UTC);
+	private static final long[] OWNED = {6, 10, 200, 402};
+
+	/*Ids are even, so sought ids between them are tested too, and every seventh coupon has expired*/
+	private static CatalogCoupon coupon(long id) {
+		LocalDateTime endDate = id % 7 == 0 ? NOW.minusDays(1) : NOW.plusDays(id);
+		return new CatalogCoupon(id, "coupon-" + id, NOW.minusDays(1), endDate, (int) (id % 5), 10, 0, "", id % 37, "");
+	}
+
+	private static CatalogColumns columns() {
+		CatalogCoupon[] coupons = new CatalogCoupon[COUPONS];
+		for (int i = 0; i < COUPONS; i++) {
+			coupons[i] = coupon(2L * (i + 1));
+		}
+		return new CatalogColumns(coupons);
+	}
+
+	/*What the coupon table would answer, checking every coupon*/
+	private static List<Long> expected(LongPredicate matches, long afterId, int limit) {
+		List<Long> ids = new ArrayList<>();
+		for (long id = 2; id <= 2L * COUPONS && ids.size() < limit; id += 2) {
+			boolean owned = Arrays.binarySearch(OWNED, id) >= 0;
+			if (id > afterId && id % 7 != 0 && !owned && matches.test(id)) {
+				ids.add(id);
+			}
+		}
+		return ids;
+	}
+
+	private static List<Long> ids(List<CouponView> coupons) {
+		List<Long> ids = new ArrayList<>();
+		for (CouponView coupon : coupons) {
+			ids.add(coupon.getId());
+		}
+		return ids;
+	}
+
+	@Test
+	void queriesMatchAScanOfEveryCoupon() {
+		CatalogColumns columns = columns();
+
+		for (long afterId : new long[]{0, 1, 6, 127, 128, 129, 400, 600}) {
+			for (int limit : new int[]{1, 7, 64, Integer.MAX_VALUE}) {
+				assertEquals(expected(id -> true, afterId, limit),
+						ids(columns.findAll(OWNED, afterId, limit, NOW_SECONDS)));
+				assertEquals(expected(id -> id % 5 == 3, afterId, limit),
+						ids(columns.findByCategory(3, OWNED, afterId, limit, NOW_SECONDS)));
+				assertEquals(expected(id -> id % 37 < 12.5, afterId, limit),
+						ids(columns.findLowerThanPrice(12.5, OWNED, afterId, limit, NOW_SECONDS)));
+			}
+		}
+	}
+
+	@Test
+	void changesLeaveTheColumnsTheyWereMadeOnUntouched() {
+		CatalogColumns columns = columns();
+
+		CatalogColumns changed = columns
+				.withCoupon(coupon(3))
+				.withCoupon(new CatalogCoupon(4, "repriced", NOW, NOW.plusDays(1), 3, 10, 0, "", 99, ""))
+				.withoutCoupon(8);
+
+		assertEquals(COUPONS, columns.size());
+		assertEquals(COUPONS, changed.size());
+		assertEquals(List.of(2L, 3L, 4L, 12L), ids(changed.findAll(OWNED, 0, 4, NOW_SECONDS)));
+		assertEquals(List.of(2L, 4L, 8L, 12L), ids(columns.findAll(OWNED, 0, 4, NOW_SECONDS)));
+		assertEquals(List.of(3L, 4L), ids(changed.findByCategory(3, OWNED, 0, 2, NOW_SECONDS)));
+		assertEquals(List.of(2L, 3L, 12L), ids(changed.findLowerThanPrice(13, OWNED, 0, 3, NOW_SECONDS)));
+	}
+
+	@Test
+	void splicedChangesAnswerLikeColumnsBuiltFromTheChangedCoupons() {
+		Random random = new Random(25);
+		TreeMap<Long, CatalogCoupon> coupons = new TreeMap<>();
+		CatalogColumns columns = new CatalogColumns(new CatalogCoupon[0]);
+
+		for (int change = 0; change < 2000; change++) {
+			long id = 1 + random.nextInt(200);
+			if (random.nextInt(4) == 0) {
+				coupons.remove(id);
+				columns = columns.withoutCoupon(id);
+			} else {
+				CatalogCoupon coupon = new CatalogCoupon(id, "coupon-" + id, NOW, NOW.plusDays(1),
+						random.nextInt(4), 10, 0, "", random.nextInt(20), "");
+				coupons.put(id, coupon);
+				columns = columns.withCoupon(coupon);
+			}
+
+			if (change % 50 == 0) {
+				CatalogColumns built = new CatalogColumns(coupons.values().toArray(new CatalogCoupon[0]));
+				assertEquals(built.size(), columns.size());
+				assertEquals(ids(built.findAll(OWNED, 0, Integer.MAX_VALUE, NOW_SECONDS)),
+						ids(columns.findAll(OWNED, 0, Integer.MAX_VALUE, NOW_SECONDS)));
+				for (int category = 0; category < 4; category++) {
+					assertEquals(ids(built.findByCategory(category, OWNED, 0, Integer.MAX_VALUE, NOW_SECONDS)),
+							ids(columns.findByCategory(category, OWNED, 0, Integer.MAX_VALUE, NOW_SECONDS)));
+				}
+				for (double price = 0; price <= 20; price += 2.5) {
+					assertEquals(ids(built.findLowerThanPrice(price, OWNED, 0, Integer.MAX_VALUE, NOW_SECONDS)),
+							ids(columns.findLowerThanPrice(price, OWNED, 0, Integer.MAX_VALUE, NOW_SECONDS)));
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,182 @@
+package com.jb.coupon_system.service.inventory;
+
+import com.jb.coupon_system.data.entity.Company;
+import com.jb.coupon_system.data.entity.Coupon;
+import com.jb.coupon_system.data.entity.Customer;
+import com.jb.coupon_system.data.entity.InventoryCheckpoint;
+import com.jb.coupon_system.data.repo.CompanyRepository;
+import com.jb.coupon_system.data.repo.CouponRepository;
+import com.jb.coupon_system.data.repo.CustomerRepository;
+import com.jb.coupon_system.data.repo.InventoryCheckpointRepository;
+import com.jb.coupon_system.service.CustomerService;
+import com.jb.coupon_system.service.ex.ZeroCouponAmountException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/*Flushed only when a test says so*/
+@SpringBootTest(properties = {"inventory.ledger.enabled=true", "inventory.ledger.flush-interval=PT1H"})
+class InventoryLedgerTests {
+
+	private static final int STOCK = 50;
+	private static final int BUYERS = 300;
+
+	@Autowired
+	private InventoryLedger inventory;
+	@Autowired
+	private CustomerService service;
+	@Autowired
+	private CompanyRepository companyRepo;
+	@Autowired
+	private CouponRepository couponRepo;
+	@Autowired
+	private CustomerRepository customerRepo;
+	@Autowired
+	private InventoryCheckpointRepository checkpointRepo;
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	private Company company;
+	private long couponId;
+	private final List<Customer> customers = new ArrayList<>();
+
+	@BeforeEach
+	void createCoupon() {
+		String unique = UUID.randomUUID().toString();
+
+		company = new Company();
+		company.setName("company-" + unique);
+		company.setEmail(unique + "@company.com");
+		company.setPassword("1234");
+		company = companyRepo.save(company);
+
+		Coupon coupon = new Coupon();
+		coupon.setCompany(company);
+		coupon.setTitle("coupon-" + unique);
+		coupon.setStartDate(LocalDateTime.now());
+		coupon.setEndDate(LocalDateTime.now().plusDays(1));
+		coupon.setAmount(STOCK);
+		coupon.setPrice(10);
+		couponId = couponRepo.save(coupon).getId();
+
+		for (int i = 0; i < BUYERS; i++) {
+			Customer customer = new Customer();
+			customer.setEmail(i + "-" + unique + "@customer.com");
+			customer.setPassword("1234");
+			customers.add(customerRepo.save(customer));
+		}
+	}
+
+	@AfterEach
+	void deleteCoupon() {
+		customerRepo.deleteAll(customers);
+		companyRepo.deleteById(company.getId());
+		inventory.evict(couponId);
+	}
+
+	@Test
+	void concurrentPurchasesNeverOversellAndAreWrittenByTheFlush() throws InterruptedException {
+		AtomicInteger purchased = new AtomicInteger();
+		AtomicInteger soldOut = new AtomicInteger();
+		AtomicInteger failed = new AtomicInteger();
+		CountDownLatch start = new CountDownLatch(1);
+		ExecutorService pool = Executors.newFixedThreadPool(64);
+		for (Customer customer : customers) {
+			pool.execute(() -> {
+				try {
+					start.await();
+					service.purchaseCoupon(customer.getId(), couponId);
+					purchased.incrementAndGet();
+				} catch (ZeroCouponAmountException e) {
+					soldOut.incrementAndGet();
+				} catch (Exception e) {
+					failed.incrementAndGet();
+				}
+			});
+		}
+		start.countDown();
+		pool.shutdown();
+		assertTrue(pool.awaitTermination(1, TimeUnit.MINUTES));
+
+		assertEquals(0, failed.get());
+		assertEquals(STOCK, purchased.get());
+		assertEquals(BUYERS - STOCK, soldOut.get());
+		/*The sales are in the joined table but not yet in the coupon*/
+		assertStored(STOCK, 0, 0);
+
+		inventory.flush();
+
+		assertStored(0, STOCK, STOCK);
+		assertEquals(STOCK, couponRepo.findCouponAmountSold(couponId));
+	}
+
+	@Test
+	void evictionWritesTheSalesAndTheCouponIsLoadedAgain() throws Exception {
+		purchase(0, 3);
+
+		inventory.evict(couponId);
+
+		assertStored(STOCK - 3, 3, 3);
+
+		purchase(3, 5);
+		inventory.flush();
+
+		assertStored(STOCK - 5, 5, 5);
+		assertEquals(5, couponRepo.findCouponAmountSold(couponId));
+	}
+
+	@Test
+	void salesNeverFlushedBeforeACrashAreSettledOnRecovery() {
+		/*A ledger of its own, dropped without a flush as if the application had stopped*/
+		InventoryLedger crashed = new InventoryLedger(couponRepo, checkpointRepo, jdbcTemplate, transactionManager);
+		for (int i = 0; i < 3; i++) {
+			assertTrue(crashed.take(couponId));
+			assertEquals(1, customerRepo.insertCustomerCoupon(customers.get(i).getId(), couponId));
+		}
+		assertStored(STOCK, 0, 0);
+
+		inventory.recover();
+
+		assertStored(STOCK - 3, 3, 3);
+
+		/*Loading the recovered coupon must not settle the same sales again*/
+		assertTrue(inventory.take(couponId));
+		assertEquals(1, customerRepo.insertCustomerCoupon(customers.get(3).getId(), couponId));
+		inventory.flush();
+
+		assertStored(STOCK - 4, 4, 4);
+	}
+
+	private void purchase(int fromCustomer, int toCustomer) throws Exception {
+		for (int i = fromCustomer; i < toCustomer; i++) {
+			service.purchaseCoupon(customers.get(i).getId(), couponId);
+		}
+	}
+
+	private void assertStored(int amount, int soldCount, int settledSales) {
+		Coupon coupon = couponRepo.findById(couponId).orElseThrow();
+		assertEquals(amount, coupon.getAmount());
+		assertEquals(soldCount, coupon.getSoldCount());
+		int settled = checkpointRepo.findById(couponId).map(InventoryCheckpoint::getSettledSales).orElse(0);
+		assertEquals(settledSales, settled);
+	}
+}